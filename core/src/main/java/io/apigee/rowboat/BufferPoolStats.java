@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps track of the pool of read buffers for a NodeEnvironment. It counts how many buffers were
+ * lent out from the pool, how many reads had to allocate a new buffer because the pool was full or the read
+ * was too big, and how many lent buffers have come back. A buffer comes back once neither JavaScript nor
+ * Java code can reach it any more, so "outstanding" buffers are usually ones that the garbage collector
+ * has not looked at yet.
+ */
+public class BufferPoolStats
+{
+    private final long maxBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder returns = new LongAdder();
+    private final AtomicLong capacity = new AtomicLong();
+    private final AtomicLong bytesInUse = new AtomicLong();
+    private final AtomicLong leaked = new AtomicLong();
+
+    public BufferPoolStats(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Internal: Record a buffer lent from the pool, which holds "size" bytes of the pool's memory.
+     */
+    public void recordHit(int size)
+    {
+        hits.increment();
+        bytesInUse.addAndGet(size);
+    }
+
+    /**
+     * Internal: Record a read that could not use the pool.
+     */
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * Internal: Record a lent buffer that came back to the pool.
+     */
+    public void recordReturn(int size)
+    {
+        returns.increment();
+        bytesInUse.addAndGet(-size);
+    }
+
+    /**
+     * Internal: Record that the pool allocated more memory.
+     */
+    public void recordGrowth(long size) {
+        capacity.addAndGet(size);
+    }
+
+    /**
+     * Internal: Record that the pool gave up memory.
+     */
+    public void recordRelease(long size) {
+        capacity.addAndGet(-size);
+    }
+
+    /**
+     * Internal: Record the buffers that were still lent out when the pool was closed.
+     */
+    public void recordLeaks(long count) {
+        leaked.addAndGet(count);
+    }
+
+    /**
+     * Return the most memory that the pool may allocate, in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Return the memory that the pool holds right now, in bytes, including the scratch buffers that sockets
+     * read into. It drops to zero when the pool is closed.
+     */
+    public long getCapacity() {
+        return capacity.get();
+    }
+
+    /**
+     * Return the pool memory that is lent out right now, in bytes.
+     */
+    public long getBytesInUse() {
+        return bytesInUse.get();
+    }
+
+    /**
+     * Return the fraction of the pool's memory that is lent out right now, between 0 and 1.
+     */
+    public double getOccupancy()
+    {
+        long c = capacity.get();
+        return (c == 0L ? 0.0 : (double)bytesInUse.get() / (double)c);
+    }
+
+    /**
+     * Return the number of reads that used a buffer from the pool.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of reads that had to allocate a new buffer instead.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Return the fraction of reads that used a buffer from the pool, between 0 and 1.
+     */
+    public double getHitRate()
+    {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return (total == 0L ? 0.0 : (double)h / (double)total);
+    }
+
+    /**
+     * Return the number of lent buffers that have come back to the pool.
+     */
+    public long getReturns() {
+        return returns.sum();
+    }
+
+    /**
+     * Return the number of buffers that are lent out right now.
+     */
+    public long getOutstanding() {
+        return hits.sum() - returns.sum();
+    }
+
+    /**
+     * Return the number of buffers that were still lent out when the pool was closed. Their memory is freed
+     * once they are no longer reachable, but it never went back into the pool.
+     */
+    public long getLeaked() {
+        return leaked.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("BufferPoolStats [ hits = %d (%.1f%%) misses = %d returns = %d outstanding = %d " +
+                             "capacity = %d in use = %d (%.1f%%) leaked = %d ]",
+                             getHits(), getHitRate() * 100.0, getMisses(), getReturns(), getOutstanding(),
+                             getCapacity(), getBytesInUse(), getOccupancy() * 100.0, getLeaked());
+    }
+}
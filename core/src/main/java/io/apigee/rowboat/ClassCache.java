@@ -29,6 +29,11 @@ import javax.script.CompiledScript;
  * This saves on memory in an environment where many JavaScript methods share the same JVM. Since Node.js applications
  * tend to have many hundreds of JavaScript files required when they execute, and since each one compiles to bytecode,
  * large Trireme installations may use a lot of PermGen space. This cache helps reduce that.
+ * <p>
+ * Keys are made up of the Node.js version, an ID for the script engine, and a hash of the complete source,
+ * so scripts will only share compiled code when they run the same file on the same version of Node in
+ * the same engine.
+ * </p>
  */
 
 public interface ClassCache
@@ -45,4 +50,13 @@ public interface ClassCache
      * be invoked simultaneously from multiple threads, possibly with the same key.
      */
     void putCachedScript(String key, CompiledScript script);
+
+    /**
+     * Return the approximate amount of script source, in bytes, that the cache currently holds compiled
+     * code for, or -1 if the implementation does not keep track.
+     */
+    default long getBytesHeld()
+    {
+        return -1L;
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps track of how well the ClassCache is working for a NodeEnvironment. It counts every time
+ * that a script is about to be compiled, how often the cache already had the compiled code, and how long
+ * compilation took. Each time we find a script in the cache, we count the time that it originally took to
+ * compile it as time saved.
+ */
+public class ClassCacheStats
+{
+    private final ClassCache cache;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final AtomicLong savedNanos = new AtomicLong();
+
+    public ClassCacheStats(ClassCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Internal: Record a lookup that found compiled code that originally took "compileTime" nanoseconds
+     * to produce.
+     */
+    public void recordHit(long compileTime)
+    {
+        lookups.incrementAndGet();
+        hits.incrementAndGet();
+        savedNanos.addAndGet(compileTime);
+    }
+
+    /**
+     * Internal: Record a lookup that missed, and the amount of time that it then took to compile.
+     */
+    public void recordMiss(long compileTime)
+    {
+        lookups.incrementAndGet();
+        compileNanos.addAndGet(compileTime);
+    }
+
+    /**
+     * Return the number of times that a script was about to be compiled.
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * Return the number of times that compiled code was found in the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Return the fraction of lookups that were found in the cache, between 0 and 1.
+     */
+    public double getHitRate()
+    {
+        long l = lookups.get();
+        return (l == 0L ? 0.0 : (double)hits.get() / (double)l);
+    }
+
+    /**
+     * Return the total time spent compiling scripts that were not in the cache, in milliseconds.
+     */
+    public long getCompileTime() {
+        return compileNanos.get() / 1000000L;
+    }
+
+    /**
+     * Return the total time that it would have taken to compile the scripts that we found in the cache,
+     * in milliseconds.
+     */
+    public long getTimeSaved() {
+        return savedNanos.get() / 1000000L;
+    }
+
+    /**
+     * Return the amount of script source for which the cache holds compiled code, or -1 if unknown.
+     */
+    public long getBytesHeld() {
+        return cache.getBytesHeld();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("ClassCacheStats [ lookups = %d hits = %d (%.1f%%) compile = %d ms saved = %d ms bytes = %d ]",
+                             getLookups(), getHits(), getHitRate() * 100.0, getCompileTime(), getTimeSaved(),
+                             getBytesHeld());
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat;
+
+import io.apigee.rowboat.internal.ScriptRunner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class keeps track of what the event loop of one script does with its time. Only the thread that runs
+ * the script records anything, so the counters are cheap enough to keep all the time, and other threads
+ * may read them at any time. When many scripts share one event loop thread, the iteration count, select
+ * time and wakeups are those of the whole loop.
+ */
+public class EventLoopStats
+    implements EventLoopStatsMXBean
+{
+    public static final int LAG_BUCKETS = 16;
+
+    private final ScriptRunner runner;
+
+    private final AtomicLong iterations = new AtomicLong();
+    private final AtomicLong tickNanos = new AtomicLong();
+    private final AtomicLong immediateNanos = new AtomicLong();
+    private final AtomicLong timerNanos = new AtomicLong();
+    private final AtomicLong networkNanos = new AtomicLong();
+    private final AtomicLong selectNanos = new AtomicLong();
+    private final AtomicLongArray lag = new AtomicLongArray(LAG_BUCKETS);
+    private final AtomicLong tickQuantumHits = new AtomicLong();
+    private final AtomicLong timerQuantumHits = new AtomicLong();
+    private final AtomicLong networkQuantumHits = new AtomicLong();
+    private volatile long maxLag;
+    private volatile int tickQueueDepth;
+    private volatile int maxTickQueueDepth;
+
+    public EventLoopStats(ScriptRunner runner)
+    {
+        this.runner = runner;
+    }
+
+    /**
+     * Internal: Record one turn of the loop, which waited "selectTime" nanoseconds for I/O.
+     */
+    public void recordIteration(long selectTime)
+    {
+        iterations.incrementAndGet();
+        selectNanos.addAndGet(selectTime);
+    }
+
+    /**
+     * Internal: Record the time spent running ticks, and how many tasks were on the tick queue.
+     */
+    public void recordTicks(long nanos, int depth)
+    {
+        tickNanos.addAndGet(nanos);
+        tickQueueDepth = depth;
+        if (depth > maxTickQueueDepth) {
+            maxTickQueueDepth = depth;
+        }
+    }
+
+    /**
+     * Internal: Record the time spent running immediate tasks.
+     */
+    public void recordImmediates(long nanos)
+    {
+        immediateNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Internal: Record the time spent running timers.
+     */
+    public void recordTimers(long nanos)
+    {
+        timerNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Internal: Record the time spent handling one network event.
+     */
+    public void recordNetwork(long nanos)
+    {
+        networkNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Internal: Record that a turn of the loop stopped running ticks because of the tick quantum.
+     */
+    public void recordTickQuantumHit()
+    {
+        tickQuantumHits.incrementAndGet();
+    }
+
+    /**
+     * Internal: Record that a turn of the loop stopped firing timers because of the timer quantum.
+     */
+    public void recordTimerQuantumHit()
+    {
+        timerQuantumHits.incrementAndGet();
+    }
+
+    /**
+     * Internal: Record that a turn of the loop left selected sockets for later because of the network quantum.
+     */
+    public void recordNetworkQuantumHit()
+    {
+        networkQuantumHits.incrementAndGet();
+    }
+
+    /**
+     * Internal: Record that a timer fired "millis" milliseconds after it was supposed to.
+     */
+    public void recordLag(long millis)
+    {
+        if (millis <= 0L) {
+            lag.incrementAndGet(0);
+            return;
+        }
+        int bucket = Math.min(LAG_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        lag.incrementAndGet(bucket);
+        if (millis > maxLag) {
+            maxLag = millis;
+        }
+    }
+
+    @Override
+    public long getIterations() {
+        return iterations.get();
+    }
+
+    @Override
+    public long getTickTime() {
+        return tickNanos.get() / 1000000L;
+    }
+
+    @Override
+    public long getImmediateTime() {
+        return immediateNanos.get() / 1000000L;
+    }
+
+    @Override
+    public long getTimerTime() {
+        return timerNanos.get() / 1000000L;
+    }
+
+    @Override
+    public long getNetworkTime() {
+        return networkNanos.get() / 1000000L;
+    }
+
+    @Override
+    public long getSelectWaitTime() {
+        return selectNanos.get() / 1000000L;
+    }
+
+    @Override
+    public int getTickQueueDepth() {
+        return tickQueueDepth;
+    }
+
+    @Override
+    public int getMaxTickQueueDepth() {
+        return maxTickQueueDepth;
+    }
+
+    @Override
+    public int getTimerQueueSize() {
+        return runner.getTimerQueueSize();
+    }
+
+    @Override
+    public long getTickQuantumHits() {
+        return tickQuantumHits.get();
+    }
+
+    @Override
+    public long getTimerQuantumHits() {
+        return timerQuantumHits.get();
+    }
+
+    @Override
+    public long getNetworkQuantumHits() {
+        return networkQuantumHits.get();
+    }
+
+    @Override
+    public long[] getLagHistogram()
+    {
+        long[] h = new long[LAG_BUCKETS];
+        for (int i = 0; i < LAG_BUCKETS; i++) {
+            h[i] = lag.get(i);
+        }
+        return h;
+    }
+
+    @Override
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    @Override
+    public long getWakeups() {
+        return runner.getWakeupCount();
+    }
+
+    @Override
+    public long getCpuTime() {
+        return runner.getCpuTime();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("EventLoopStats [ iterations = %d ticks = %d ms immediates = %d ms timers = %d ms " +
+                             "network = %d ms select = %d ms tick queue = %d (max %d) timers = %d max lag = %d ms " +
+                             "quantum hits = %d ticks %d timers %d network ]",
+                             getIterations(), getTickTime(), getImmediateTime(), getTimerTime(), getNetworkTime(),
+                             getSelectWaitTime(), getTickQueueDepth(), getMaxTickQueueDepth(), getTimerQueueSize(),
+                             getMaxLag(), getTickQuantumHits(), getTimerQuantumHits(),
+                             getNetworkQuantumHits());
+    }
+}
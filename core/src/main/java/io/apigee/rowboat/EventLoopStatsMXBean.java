@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat;
+
+/**
+ * The management interface for the event loop statistics of one script. When the environment is set up to
+ * export them, each running script registers one of these with the platform MBean server, under
+ * the name "io.apigee.rowboat:type=EventLoop,name=script-N." All times are in milliseconds.
+ */
+public interface EventLoopStatsMXBean
+{
+    /**
+     * Return the number of times that the event loop has gone around.
+     */
+    long getIterations();
+
+    /**
+     * Return the time spent running "nextTick" functions and tasks queued from Java code.
+     */
+    long getTickTime();
+
+    /**
+     * Return the time spent running "setImmediate" functions.
+     */
+    long getImmediateTime();
+
+    /**
+     * Return the time spent running timers.
+     */
+    long getTimerTime();
+
+    /**
+     * Return the time spent handling network I/O.
+     */
+    long getNetworkTime();
+
+    /**
+     * Return the time spent waiting in "select" for I/O or for the next timer.
+     */
+    long getSelectWaitTime();
+
+    /**
+     * Return the number of tasks that the last turn of the loop found on the tick queue.
+     */
+    int getTickQueueDepth();
+
+    /**
+     * Return the largest number of tasks that one turn of the loop has found on the tick queue.
+     */
+    int getMaxTickQueueDepth();
+
+    /**
+     * Return the number of timers that are waiting to fire.
+     */
+    int getTimerQueueSize();
+
+    /**
+     * Return the number of turns of the loop that left tasks on the tick queue because of the tick quantum.
+     */
+    long getTickQuantumHits();
+
+    /**
+     * Return the number of turns of the loop that left expired timers for later because of the timer quantum.
+     */
+    long getTimerQuantumHits();
+
+    /**
+     * Return the number of turns of the loop that left selected sockets for later because of the network quantum.
+     */
+    long getNetworkQuantumHits();
+
+    /**
+     * Return how late timers have fired, as a histogram. Bucket zero counts timers that fired on time,
+     * bucket one counts those that were one millisecond late, and each bucket after that counts
+     * twice the range of the one before it, so that bucket "n" counts lags from 2^(n-1) up to 2^n - 1.
+     * The last bucket counts everything larger.
+     */
+    long[] getLagHistogram();
+
+    /**
+     * Return the latest that any timer has fired.
+     */
+    long getMaxLag();
+
+    /**
+     * Return the number of times that another thread had to wake up the loop.
+     */
+    long getWakeups();
+
+    /**
+     * Return the CPU time used by the script in nanoseconds, or -1 if it is not being counted.
+     */
+    long getCpuTime();
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts the network and HTTP events that the "net" and "http" modules report using the
+ * COUNTER_ and DTRACE_ hooks that Node.js puts in them. Each script has its own instance, which adds
+ * everything that it counts to the one for the whole NodeEnvironment as well. Everything is cumulative,
+ * so rates come from sampling the counts over time.
+ * <p>
+ * Request latency is counted in two histograms, one for the server side, measured from when a request
+ * is parsed to when the response is finished, and one for the client side, measured from when a request
+ * is finished to when the response headers arrive. Bucket zero counts latencies under a microsecond, and
+ * bucket "n" counts those from 2^(n-1) up to 2^n - 1 microseconds. The last bucket counts everything larger.
+ * </p>
+ */
+public class NetworkStats
+{
+    public static final int LATENCY_BUCKETS = 24;
+
+    private final NetworkStats parent;
+
+    private final LongAdder serverConnections = new LongAdder();
+    private final LongAdder serverConnectionsClosed = new LongAdder();
+    private final LongAdder streamEnds = new LongAdder();
+    private final LongAdder serverRequests = new LongAdder();
+    private final LongAdder serverResponses = new LongAdder();
+    private final LongAdder clientRequests = new LongAdder();
+    private final LongAdder clientResponses = new LongAdder();
+    private final Histogram serverLatency = new Histogram();
+    private final Histogram clientLatency = new Histogram();
+
+    /**
+     * Create a set of statistics that also adds everything to "parent," unless it is null.
+     */
+    public NetworkStats(NetworkStats parent)
+    {
+        this.parent = parent;
+    }
+
+    /**
+     * Internal: A server accepted a connection.
+     */
+    public void netServerConnection()
+    {
+        serverConnections.increment();
+        if (parent != null) {
+            parent.netServerConnection();
+        }
+    }
+
+    /**
+     * Internal: A connection that a server accepted was closed.
+     */
+    public void netServerConnectionClose()
+    {
+        serverConnectionsClosed.increment();
+        if (parent != null) {
+            parent.netServerConnectionClose();
+        }
+    }
+
+    /**
+     * Internal: The other side of a socket ended the stream.
+     */
+    public void netStreamEnd()
+    {
+        streamEnds.increment();
+        if (parent != null) {
+            parent.netStreamEnd();
+        }
+    }
+
+    /**
+     * Internal: A server received an HTTP request. Return the time, which the caller passes back in
+     * to "httpServerResponse."
+     */
+    public long httpServerRequest()
+    {
+        serverRequests.increment();
+        if (parent != null) {
+            parent.serverRequests.increment();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Internal: A server finished an HTTP response. "start" is what "httpServerRequest" returned, or zero
+     * if it is not known.
+     */
+    public void httpServerResponse(long start)
+    {
+        long latency = (start == 0L ? -1L : System.nanoTime() - start);
+        serverResponses.increment();
+        serverLatency.record(latency);
+        if (parent != null) {
+            parent.serverResponses.increment();
+            parent.serverLatency.record(latency);
+        }
+    }
+
+    /**
+     * Internal: A client finished sending an HTTP request. Return the time, which the caller passes back in
+     * to "httpClientResponse."
+     */
+    public long httpClientRequest()
+    {
+        clientRequests.increment();
+        if (parent != null) {
+            parent.clientRequests.increment();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Internal: A client got the headers of an HTTP response. "start" is what "httpClientRequest" returned,
+     * or zero if it is not known.
+     */
+    public void httpClientResponse(long start)
+    {
+        long latency = (start == 0L ? -1L : System.nanoTime() - start);
+        clientResponses.increment();
+        clientLatency.record(latency);
+        if (parent != null) {
+            parent.clientResponses.increment();
+            parent.clientLatency.record(latency);
+        }
+    }
+
+    /**
+     * Return the number of connections that servers have accepted.
+     */
+    public long getServerConnections() {
+        return serverConnections.sum();
+    }
+
+    /**
+     * Return the number of connections that servers have accepted and not yet closed.
+     */
+    public long getOpenServerConnections() {
+        return serverConnections.sum() - serverConnectionsClosed.sum();
+    }
+
+    /**
+     * Return the number of times that the other side of a socket has ended the stream.
+     */
+    public long getStreamEnds() {
+        return streamEnds.sum();
+    }
+
+    public long getServerRequests() {
+        return serverRequests.sum();
+    }
+
+    public long getServerResponses() {
+        return serverResponses.sum();
+    }
+
+    public long getClientRequests() {
+        return clientRequests.sum();
+    }
+
+    public long getClientResponses() {
+        return clientResponses.sum();
+    }
+
+    public long[] getServerLatencyHistogram() {
+        return serverLatency.getBuckets();
+    }
+
+    public long[] getClientLatencyHistogram() {
+        return clientLatency.getBuckets();
+    }
+
+    /**
+     * Return the average time that a server took to respond, in milliseconds.
+     */
+    public double getServerLatencyAverage() {
+        return serverLatency.getAverage();
+    }
+
+    /**
+     * Return the average time that a client waited for a response, in milliseconds.
+     */
+    public double getClientLatencyAverage() {
+        return clientLatency.getAverage();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("NetworkStats [ connections = %d open = %d server requests = %d (%.3f ms) " +
+                             "client requests = %d (%.3f ms) ]",
+                             getServerConnections(), getOpenServerConnections(), getServerRequests(),
+                             getServerLatencyAverage(), getClientRequests(), getClientLatencyAverage());
+    }
+
+    private static final class Histogram
+    {
+        private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        Histogram()
+        {
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos)
+        {
+            if (nanos < 0L) {
+                return;
+            }
+            long micros = nanos / 1000L;
+            int bucket = Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets[bucket].increment();
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        long[] getBuckets()
+        {
+            long[] b = new long[LATENCY_BUCKETS];
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                b[i] = buckets[i].sum();
+            }
+            return b;
+        }
+
+        double getAverage()
+        {
+            long c = count.sum();
+            return (c == 0L ? 0.0 : (totalNanos.sum() / 1000000.0) / c);
+        }
+    }
+}
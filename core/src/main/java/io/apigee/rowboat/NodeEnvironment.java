@@ -21,7 +21,11 @@
  */
 package io.apigee.rowboat;
 
+import io.apigee.rowboat.internal.BufferPool;
+import io.apigee.rowboat.internal.EventLoop;
+import io.apigee.rowboat.internal.EventLoopGroup;
 import io.apigee.rowboat.internal.ModuleRegistry;
+import io.apigee.rowboat.internal.ScriptWatchdog;
 import io.apigee.rowboat.internal.SoftClassCache;
 import io.apigee.rowboat.spi.NodeImplementation;
 import io.apigee.trireme.kernel.NodeVersion;
@@ -57,6 +61,8 @@ public class NodeEnvironment
     public static final int MAX_POOL_SIZE     = 1000;
     public static final int POOL_QUEUE_SIZE   = 8;
     public static final long POOL_TIMEOUT_SECS = 60L;
+    public static final int DEFAULT_EVENT_LOOP_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final long DEFAULT_WRITE_BUFFER_POOL = 4L * 1024L * 1024L;
 
     private boolean             initialized;
     private final Object        initializationLock = new Object();
@@ -65,6 +71,27 @@ public class NodeEnvironment
     //private HttpServerContainer httpContainer;
     private Sandbox             sandbox;
     private ClassCache          classCache;
+    private ClassCacheStats     classCacheStats;
+    private int                 globalPoolSize;
+    private int                 globalPoolLowWater;
+    private boolean             sharedScriptEngine = true;
+    private int                 eventLoopThreads;
+    private EventLoopGroup      eventLoops;
+    private int                 tickQuantum;
+    private long                tickQuantumNanos;
+    private int                 timerQuantum;
+    private long                timerQuantumNanos;
+    private int                 networkQuantum;
+    private long                networkQuantumNanos;
+    private long                scriptTimeLimit;
+    private boolean             cpuAccounting;
+    private ScriptWatchdog      watchdog;
+    private boolean             exportLoopStats;
+    private boolean             networkStatsEnabled = true;
+    private final NetworkStats  networkStats = new NetworkStats(null);
+    private BufferPool          readBufferPool;
+    private BufferPool          writeBufferPool = new BufferPool(DEFAULT_WRITE_BUFFER_POOL);
+    private int                 directBufferThreshold;
 
     private final VersionMatcher<ModuleRegistry> versions = new VersionMatcher<>();
 
@@ -78,7 +105,7 @@ public class NodeEnvironment
             if (log.isDebugEnabled()) {
                 log.debug("Discovered Node version {}", impl.getVersion());
             }
-            versions.add(new NodeVersion(impl.getVersion(), new ModuleRegistry(impl)));
+            versions.add(new NodeVersion(impl.getVersion(), new ModuleRegistry(impl, this)));
         }
     }
 
@@ -98,10 +125,28 @@ public class NodeEnvironment
     }
 
     /**
-     * Free any resources used by the environment.
+     * Free any resources used by the environment. Scripts that are still running on event loop threads
+     * are ended, and their futures complete with a cancelled status.
      */
     public void close()
     {
+        synchronized (initializationLock) {
+            if (eventLoops != null) {
+                eventLoops.shutdown();
+                eventLoops = null;
+            }
+            if (watchdog != null) {
+                watchdog.close();
+                watchdog = null;
+            }
+        }
+        for (ModuleRegistry reg : versions.getVersions()) {
+            reg.close();
+        }
+        if (readBufferPool != null) {
+            readBufferPool.close();
+        }
+        writeBufferPool.close();
     }
 
     /**
@@ -157,23 +202,176 @@ public class NodeEnvironment
     /**
      * Set the maximum amount of time that any one "tick" of this script is allowed to execute before an
      * exception is raised and the script exits. Must be set before
-     * any calls to "createScript" in order to have any effect.
+     * any calls to "createScript" in order to have any effect. The time is wall-clock time, and a
+     * background thread checks it a few times per limit, so a script may run a bit over before it is caught.
+     * <p>
+     * Nashorn cannot interrupt a script in the middle of a loop, so a script that runs over is marked for
+     * termination, and exits as soon as the tick that ran over returns, without running any more of its
+     * callbacks. If the script has a thread to itself, that thread is also interrupted so that a blocking
+     * call will return. If the tick is still running after twice the limit, such as a "while (true)," then
+     * the script's future completes at once with a timeout, but its thread keeps running the tick, since
+     * there is no safe way to stop it. If the script is on an event loop, then no more scripts are sent to
+     * that loop, and a new loop takes its place. The scripts that were already on it wait until the tick
+     * returns, if it ever does. The final status of the script has a ScriptTimeoutException as its cause.
+     * Setting a limit also turns on CPU accounting.
+     * </p>
      */
     public NodeEnvironment setScriptTimeLimit(long limit, TimeUnit unit)
     {
-        throw new UnsupportedOperationException();
+        this.scriptTimeLimit = unit.toMillis(limit);
+        return this;
     }
 
+    /**
+     * Return the script time limit in milliseconds, or zero if there is none.
+     */
     public long getScriptTimeLimit() {
-        return 0L;
+        return scriptTimeLimit;
+    }
+
+    /**
+     * Record how much CPU time each script spends running its ticks, which NodeRuntime.getCpuTime returns.
+     * This costs two reads of the thread CPU clock per tick. It is on whenever there is a script time limit.
+     */
+    public NodeEnvironment setCpuAccounting(boolean accounting)
+    {
+        this.cpuAccounting = accounting;
+        return this;
+    }
+
+    public boolean isCpuAccounting() {
+        return cpuAccounting || (scriptTimeLimit > 0L);
+    }
+
+    /**
+     * Register the event loop statistics of each script with the platform MBean server while the script
+     * is running, so that they may be seen using JMX. See EventLoopStatsMXBean for the names.
+     */
+    public NodeEnvironment setExportLoopStats(boolean export)
+    {
+        this.exportLoopStats = export;
+        return this;
+    }
+
+    public boolean isExportLoopStats() {
+        return exportLoopStats;
+    }
+
+    /**
+     * Count network connections and HTTP requests, using the hooks that Node.js puts in the "net" and "http"
+     * modules. This is on by default. Scripts that start after it is turned off skip the counting entirely.
+     */
+    public NodeEnvironment setNetworkStats(boolean enabled)
+    {
+        this.networkStatsEnabled = enabled;
+        return this;
+    }
+
+    public boolean isNetworkStats() {
+        return networkStatsEnabled;
+    }
+
+    /**
+     * Return the network and HTTP statistics for all the scripts that have run in this environment.
+     */
+    public NetworkStats getNetworkStats() {
+        return networkStats;
+    }
+
+    /**
+     * Read from sockets into a pool of direct memory of up to "maxBytes" bytes, rather than into a new heap
+     * buffer for every read. A buffer goes back into the pool once the garbage collector finds that nothing
+     * refers to it any more. The 32K scratch buffers that sockets read into before copying come out of the
+     * same memory. If the pool is full, reads allocate heap buffers as usual. Telling when a buffer is no
+     * longer referred to depends on how Java 14 and earlier implement views of direct buffers, so on later
+     * versions reads always get heap buffers, and only the scratch buffers come from the pool. Set it to
+     * zero, which is the default, to turn off the pool. Sockets that are opened after this call use the new
+     * setting.
+     */
+    public NodeEnvironment setReadBufferPool(long maxBytes)
+    {
+        if (readBufferPool != null) {
+            readBufferPool.close();
+        }
+        this.readBufferPool = (maxBytes > 0L ? new BufferPool(maxBytes) : null);
+        return this;
+    }
+
+    /**
+     * Internal: Get the pool of read buffers, or null if there is none.
+     */
+    public BufferPool getReadBufferPool() {
+        return readBufferPool;
+    }
+
+    /**
+     * Return statistics on the pool of read buffers, or null if there is no pool.
+     */
+    public BufferPoolStats getReadBufferPoolStats() {
+        return (readBufferPool == null ? null : readBufferPool.getStats());
+    }
+
+    /**
+     * Set how much direct memory sockets may hold for strings that they have not written yet, either
+     * because they collect small ones to send together or because they are waiting for a slow peer.
+     * Each buffer holds up to 32K and goes back into the pool as soon as it has been written. Once the
+     * pool is full, sockets use heap buffers instead. The default is 4 MB, and zero means always use heap
+     * buffers. Sockets that are opened after this call use the new setting.
+     */
+    public NodeEnvironment setWriteBufferPool(long maxBytes)
+    {
+        writeBufferPool.close();
+        this.writeBufferPool = new BufferPool(maxBytes);
+        return this;
+    }
+
+    /**
+     * Internal: Get the pool of write buffers.
+     */
+    public BufferPool getWriteBufferPool() {
+        return writeBufferPool;
+    }
+
+    /**
+     * Return statistics on the pool of write buffers.
+     */
+    public BufferPoolStats getWriteBufferPoolStats() {
+        return writeBufferPool.getStats();
+    }
+
+    /**
+     * Store the contents of Buffers of at least "threshold" bytes in direct memory, outside the Java heap,
+     * so that large payloads don't make garbage collection slower. Buffers smaller than 8K are carved out
+     * of a shared 8K buffer, so a threshold below that makes the shared buffers direct too. Set it to zero,
+     * which is the default, to keep all Buffers on the heap. Scripts that start after this call use the
+     * new setting, and "process.memoryUsage" reports the direct memory that each one is using as "external."
+     */
+    public NodeEnvironment setDirectBufferThreshold(int threshold)
+    {
+        this.directBufferThreshold = threshold;
+        return this;
+    }
+
+    public int getDirectBufferThreshold() {
+        return directBufferThreshold;
+    }
+
+    /**
+     * Internal: Get the watchdog that enforces the script time limit, or null if there is no limit.
+     */
+    public ScriptWatchdog getWatchdog() {
+        return watchdog;
     }
 
     /**
      * Set a cache that may be used to store compiled JavaScript classes. This can result in a large decrease
-     * in PermGen space for large environments. The user must implement the interface.
+     * in PermGen space for large environments. The user must implement the interface. Built-in modules,
+     * "trireme.js," modules loaded using "require," and scripts compiled by the "vm" module are all
+     * compiled using the cache. The cache may be shared by many environments.
      */
     public void setClassCache(ClassCache cache) {
         this.classCache = cache;
+        this.classCacheStats = (cache == null ? null : new ClassCacheStats(cache));
     }
 
     /**
@@ -181,13 +379,168 @@ public class NodeEnvironment
      * uses a hash map of SoftReference objects.
      */
     public void setDefaultClassCache() {
-        this.classCache = new SoftClassCache();
+        setClassCache(new SoftClassCache());
     }
 
     public ClassCache getClassCache() {
         return classCache;
     }
 
+    /**
+     * Return statistics on how well the class cache has been working for this environment,
+     * or null if there is no class cache.
+     */
+    public ClassCacheStats getClassCacheStats() {
+        return classCacheStats;
+    }
+
+    /**
+     * Choose whether scripts share a script engine. By default, all the scripts that use the same version of
+     * Node run in one Nashorn engine, each with its own global object. The built-in modules are compiled,
+     * linked, and optimized only once, which uses much less heap and metaspace per script. If this is set to
+     * false, then each script gets a private engine and compiles all of its code itself, as if it were the
+     * only script in the JVM. This is slower and uses more memory, and the global pool is not used.
+     */
+    public NodeEnvironment setSharedScriptEngine(boolean shared)
+    {
+        this.sharedScriptEngine = shared;
+        return this;
+    }
+
+    public boolean isSharedScriptEngine() {
+        return sharedScriptEngine;
+    }
+
+    /**
+     * Run scripts on a fixed number of event loop threads rather than giving each script a thread of
+     * its own. Each loop thread drives the event loops of many scripts using a single shared selector,
+     * and each script gets a fair share of each turn of the loop. This keeps the number of threads bounded
+     * for environments with many mostly-idle scripts. However, a script that blocks -- for instance by
+     * doing synchronous file I/O or spinning in a loop -- delays every other script on the same thread.
+     * The default is zero, which means one thread per script. Use DEFAULT_EVENT_LOOP_THREADS to use
+     * one thread per CPU. This must be set before any scripts are executed.
+     */
+    public NodeEnvironment setEventLoopThreads(int threads)
+    {
+        this.eventLoopThreads = threads;
+        return this;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    /**
+     * Limit how much of each turn of the event loop a script spends running tasks from its tick queue, which
+     * is where the results of file I/O, DNS lookups and other work done on other threads arrive. Once a turn
+     * has run "maxTasks" tasks, or has spent "maxTime" running them, the rest wait until after the loop has
+     * checked for network I/O and fired timers. A burst of completed file reads, for instance, then cannot
+     * hold up socket reads for long. Zero means no limit. By default there is no time limit, and no limit on
+     * the number of tasks either, except that scripts that share an event loop thread run at most 64
+     * per turn. The EventLoopStats for each script count how often the limit is hit.
+     */
+    public NodeEnvironment setTickQuantum(int maxTasks, long maxTime, TimeUnit unit)
+    {
+        this.tickQuantum = maxTasks;
+        this.tickQuantumNanos = unit.toNanos(maxTime);
+        return this;
+    }
+
+    public int getTickQuantum() {
+        return tickQuantum;
+    }
+
+    public long getTickQuantum(TimeUnit unit) {
+        return unit.convert(tickQuantumNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Limit how many expired timers a script fires on each turn of the event loop, and for how long. Timers
+     * that don't make it fire first thing on the next turn, still in order. Zero means no limit, which is
+     * the default.
+     */
+    public NodeEnvironment setTimerQuantum(int maxTimers, long maxTime, TimeUnit unit)
+    {
+        this.timerQuantum = maxTimers;
+        this.timerQuantumNanos = unit.toNanos(maxTime);
+        return this;
+    }
+
+    public int getTimerQuantum() {
+        return timerQuantum;
+    }
+
+    public long getTimerQuantum(TimeUnit unit) {
+        return unit.convert(timerQuantumNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Limit how many network I/O callbacks a script runs on each turn of the event loop, and for how long.
+     * Selected sockets that don't make it are handled first on the next turn, in the order they were
+     * selected, and the loop does not sleep until they have all run. Zero means no limit. By default there
+     * is no time limit, and no limit on the number of callbacks either, except that scripts that share an
+     * event loop thread run at most 64 per turn.
+     */
+    public NodeEnvironment setNetworkQuantum(int maxCallbacks, long maxTime, TimeUnit unit)
+    {
+        this.networkQuantum = maxCallbacks;
+        this.networkQuantumNanos = unit.toNanos(maxTime);
+        return this;
+    }
+
+    public int getNetworkQuantum() {
+        return networkQuantum;
+    }
+
+    public long getNetworkQuantum(TimeUnit unit) {
+        return unit.convert(networkQuantumNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Internal: Return the event loop that a new script should run on, or null if each script
+     * should get its own thread.
+     */
+    public EventLoop getEventLoop()
+    {
+        if (eventLoopThreads <= 0) {
+            return null;
+        }
+        synchronized (initializationLock) {
+            if (eventLoops == null) {
+                eventLoops = new EventLoopGroup(eventLoopThreads);
+            }
+            return eventLoops.next();
+        }
+    }
+
+    /**
+     * Keep a pool of script contexts ready so that new scripts start more quickly. Each context has its own
+     * global object with "trireme.js" already linked in, and they are created on a background thread.
+     * When fewer than "lowWaterMark" contexts are ready, the pool is filled up to "size" again. So a low water
+     * mark equal to the size refills after every script, and zero fills the pool only once. The default
+     * version of Node starts filling its pool right away, and other versions when they are first used.
+     * Set the size to zero, which is the default, to turn off the pool.
+     */
+    public NodeEnvironment setGlobalPool(int size, int lowWaterMark)
+    {
+        this.globalPoolSize = size;
+        this.globalPoolLowWater = lowWaterMark;
+        if (size > 0) {
+            ModuleRegistry reg = versions.match(DEFAULT_NODE_VERSION);
+            if (reg != null) {
+                reg.getGlobalPool();
+            }
+        }
+        return this;
+    }
+
+    public int getGlobalPoolSize() {
+        return globalPoolSize;
+    }
+
+    public int getGlobalPoolLowWaterMark() {
+        return globalPoolLowWater;
+    }
 
     /**
      * Internal: Get the thread pool for async tasks.
@@ -245,6 +598,10 @@ public class NodeEnvironment
             // of the script.
             scriptPool = Executors.newCachedThreadPool(new PoolNameFactory("Rowboat Script Thread"));
 
+            if (scriptTimeLimit > 0L) {
+                watchdog = new ScriptWatchdog(scriptTimeLimit, TimeUnit.MILLISECONDS);
+            }
+
             initialized = true;
         }
     }
@@ -28,6 +28,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.channels.Selector;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -119,4 +120,31 @@ public interface NodeRuntime
      */
     String reverseTranslatePath(String path)
         throws IOException;
+
+    /**
+     * Return every built-in module and internal binding that this script has loaded so far, in the order
+     * that they were loaded, with the time in nanoseconds that it took to load each one. Names look like
+     * "NativeModule buffer" or "Binding fs," just like "process.moduleLoadList." Since modules load other
+     * modules, the time for each one includes the time for any modules that it loaded for the first time.
+     */
+    Map<String, Long> getModuleLoadTimes();
+
+    /**
+     * Return the CPU time, in nanoseconds, that the script's thread has spent running this script's ticks
+     * so far. This is only counted when the environment has a script time limit or CPU accounting turned on,
+     * and the JVM supports thread CPU time. Otherwise it returns -1.
+     */
+    long getCpuTime();
+
+    /**
+     * Return statistics about how the script's event loop is spending its time. They are always kept, and
+     * if the environment exports them then the same object is also registered with the platform MBean server.
+     */
+    EventLoopStats getLoopStats();
+
+    /**
+     * Return the network and HTTP statistics for this script, which are also added to those of the
+     * environment, or null if the environment does not count them.
+     */
+    NetworkStats getNetworkStats();
 }
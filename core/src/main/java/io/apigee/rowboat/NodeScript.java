@@ -22,6 +22,7 @@
 
 package io.apigee.rowboat;
 
+import io.apigee.rowboat.internal.EventLoop;
 import io.apigee.rowboat.internal.ModuleRegistry;
 import io.apigee.rowboat.internal.ScriptRunner;
 
@@ -136,7 +137,8 @@ public class NodeScript
         registry = getRegistry();
         processArgs();
 
-        runner = new ScriptRunner(this, env, sandbox, registry, args);
+        EventLoop loop = env.getEventLoop();
+        runner = new ScriptRunner(this, env, sandbox, registry, args, loop);
         runner.setParentProcess(parentProcess);
         if (workingDir != null) {
             try {
@@ -151,7 +153,11 @@ public class NodeScript
             runner.pin();
         }
 
-        env.getScriptPool().execute(future);
+        if (loop == null) {
+            env.getScriptPool().execute(future);
+        } else {
+            loop.submit(runner);
+        }
         return future;
     }
 
@@ -172,7 +178,8 @@ public class NodeScript
         registry = getRegistry();
 
         source = makeModuleScript();
-        runner = new ScriptRunner(this, env, sandbox, registry, args);
+        EventLoop loop = env.getEventLoop();
+        runner = new ScriptRunner(this, env, sandbox, registry, args, loop);
         runner.setParentProcess(parentProcess);
         if (workingDir != null) {
             try {
@@ -185,7 +192,11 @@ public class NodeScript
         runner.setFuture(future);
         runner.pin();
 
-        env.getScriptPool().execute(future);
+        if (loop == null) {
+            env.getScriptPool().execute(future);
+        } else {
+            loop.submit(runner);
+        }
         return future;
     }
 
@@ -196,6 +207,10 @@ public class NodeScript
         if (registry == null) {
             throw new NodeException("No available Node.js implementation matches version " + nodeVersion);
         }
+        if (!env.isSharedScriptEngine()) {
+            // A private registry has its own engine, so nothing that it compiles is shared
+            return new ModuleRegistry(registry.getImplementation(), env);
+        }
         return registry;
     }
 
@@ -100,13 +100,14 @@ public class ScriptFuture
     public ScriptStatus get(long timeout, TimeUnit timeUnit)
         throws InterruptedException, ExecutionException, TimeoutException
     {
-        long now = System.currentTimeMillis();
-        long expiration = now + timeUnit.toMillis(timeout);
-        while ((now < expiration) && (result == null)) {
+        // Use the monotonic clock so that changing the system time does not change the timeout
+        long now = System.nanoTime();
+        long expiration = now + timeUnit.toNanos(timeout);
+        while ((expiration - now > 0L) && (result == null)) {
             synchronized (this) {
-                wait(expiration - now);
+                TimeUnit.NANOSECONDS.timedWait(this, expiration - now);
             }
-            now = System.currentTimeMillis();
+            now = System.nanoTime();
         }
 
         synchronized (this) {
@@ -134,18 +135,18 @@ public class ScriptFuture
     public Object getModuleResult(long timeout, TimeUnit timeUnit)
         throws InterruptedException, ExecutionException, TimeoutException
     {
-        long now = System.currentTimeMillis();
-        long expiration = now + timeUnit.toMillis(timeout);
-        while ((now < expiration) && (result == null)) {
+        long now = System.nanoTime();
+        long expiration = now + timeUnit.toNanos(timeout);
+        while ((expiration - now > 0L) && (result == null)) {
             synchronized (this) {
                 if (result != null) {
                     ScriptStatus ss = getResult();
                     throw new ExecutionException(
                         new NodeExitException(NodeExitException.Reason.NORMAL, ss.getExitCode()));
                 }
-                wait(expiration - now);
+                TimeUnit.NANOSECONDS.timedWait(this, expiration - now);
             }
-            now = System.currentTimeMillis();
+            now = System.nanoTime();
         }
 
         synchronized (this) {
@@ -160,8 +161,15 @@ public class ScriptFuture
         return runner;
     }
 
+    /**
+     * Only the first status counts. A script that the watchdog gave up on gets its status early, and the
+     * status that it ends with if it ever does return is dropped.
+     */
     private synchronized void set(ScriptStatus status)
     {
+        if (result != null) {
+            return;
+        }
         result = status;
         if (listener != null) {
             listener.onComplete(runner.getScriptObject(), status);
@@ -169,6 +177,15 @@ public class ScriptFuture
         notifyAll();
     }
 
+    /**
+     * Internal: Complete the future for a script that was run by an event loop rather than by "run," or
+     * that the watchdog gave up on.
+     */
+    public void complete(ScriptStatus status)
+    {
+        set(status);
+    }
+
     public synchronized void setModuleResult(Object result)
     {
         moduleResult = result;
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.internal;
+
+import io.apigee.rowboat.BufferPoolStats;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct memory for socket reads, so that every read doesn't allocate a new buffer on the heap.
+ * Reads borrow a buffer from one of a few size classes and hand it to JavaScript, and nobody ever gives it
+ * back explicitly. Instead, we keep a PhantomReference to every buffer that we lend, and once it is
+ * enqueued, the memory goes back into the pool.
+ * <p>
+ * This only works for direct buffers, and only on Java 14 and earlier. There, a slice or duplicate of a
+ * direct buffer keeps a reference to the buffer that it came from, so the buffer that we lent stays
+ * reachable until every view of it is gone, including views held by Java code such as queued writes. Views
+ * of a heap buffer refer only to the byte array, so we would have no way to tell when the memory was free.
+ * From Java 15 on, a view of a direct buffer refers to the buffer that owns the memory instead, which for
+ * us is the whole slab. The buffer that we lent could then become unreachable while JavaScript still holds
+ * views of it, and its region would be lent to another socket while those views could still see it. So on
+ * those versions, "borrow" always returns a heap buffer. Scratch buffers are given back explicitly, so they
+ * come from the pool on any version.
+ * </p>
+ * <p>
+ * Memory comes from large direct "slabs," which are cut into regions of one size class. Free regions sit on
+ * one lock-free list per size class that all threads share, so memory that one thread gives back is never
+ * stranded when that thread goes away. The scratch buffers that sockets read into before the data is
+ * copied are taken and given back the same way, and they count against the same limit.
+ * </p>
+ */
+public class BufferPool
+{
+    /** The smallest size class is 1K. */
+    public static final int MIN_SHIFT = 10;
+    /** The largest size class is 32K, which holds the biggest read that a socket will deliver. */
+    public static final int MAX_SHIFT = 15;
+    public static final int MAX_SIZE = 1 << MAX_SHIFT;
+    public static final int SLAB_SIZE = 256 * 1024;
+
+    private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+
+    /** True if this Java version keeps a lent buffer reachable for as long as any view of it is. */
+    public static final boolean VIEWS_KEEP_PARENT = (javaVersion() <= 14);
+
+    private final long maxBytes;
+    private final boolean lendDirect;
+    private final BufferPoolStats stats;
+    private final ReferenceQueue<ByteBuffer> returned = new ReferenceQueue<>();
+    // A PhantomReference that is not reachable itself is never enqueued, so hold on to all of them
+    private final Set<Loan> loans = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedDeque<Region>[] free;
+    private final ConcurrentLinkedDeque<ByteBuffer> scratch = new ConcurrentLinkedDeque<>();
+    private final AtomicLong allocated = new AtomicLong();
+    private volatile boolean closed;
+
+    public BufferPool(long maxBytes)
+    {
+        this(maxBytes, VIEWS_KEEP_PARENT);
+    }
+
+    /**
+     * Create a pool that only lends direct buffers from "borrow" if "lendDirect" is true. It should never
+     * be true if VIEWS_KEEP_PARENT is not.
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(long maxBytes, boolean lendDirect)
+    {
+        this.maxBytes = maxBytes;
+        this.lendDirect = lendDirect;
+        this.stats = new BufferPoolStats(maxBytes);
+        this.free = new ConcurrentLinkedDeque[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            free[i] = new ConcurrentLinkedDeque<>();
+        }
+    }
+
+    public BufferPoolStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Return a buffer with position zero and both limit and capacity set to "length." It comes from the
+     * pool if possible, and if not, or if this Java version can't tell us when it is free, it is a new
+     * heap buffer.
+     */
+    public ByteBuffer borrow(int length)
+    {
+        if (closed || !lendDirect || (length > MAX_SIZE)) {
+            stats.recordMiss();
+            return ByteBuffer.allocate(length);
+        }
+
+        reclaim();
+
+        int sizeClass = sizeClass(length);
+        Region region = free[sizeClass].poll();
+        if (region == null) {
+            region = grow(sizeClass);
+            if (region == null) {
+                stats.recordMiss();
+                return ByteBuffer.allocate(length);
+            }
+        }
+
+        ByteBuffer view = region.slab.duplicate();
+        view.limit(region.offset + length).position(region.offset);
+        ByteBuffer buf = view.slice();
+        loans.add(new Loan(buf, region, returned));
+        stats.recordHit(region.size);
+        return buf;
+    }
+
+    /**
+     * Return an empty buffer of MAX_SIZE bytes that the caller gives back explicitly, such as one for reading
+     * from a socket before the data is copied into a buffer of the right size, or one that holds data
+     * waiting to be written. It must go back with "returnScratch" once the caller is done with it. It is a
+     * direct buffer from the pool if possible, and if not, it is a new heap buffer.
+     */
+    public ByteBuffer takeScratch()
+    {
+        ByteBuffer buf = scratch.poll();
+        if ((buf == null) && !closed && reserve(MAX_SIZE)) {
+            buf = ByteBuffer.allocateDirect(MAX_SIZE);
+        }
+        if (buf == null) {
+            stats.recordMiss();
+            return ByteBuffer.allocate(MAX_SIZE);
+        }
+        stats.recordHit(MAX_SIZE);
+        return buf;
+    }
+
+    /**
+     * Give back a buffer from "takeScratch."
+     */
+    public void returnScratch(ByteBuffer buf)
+    {
+        if (buf.isDirect()) {
+            stats.recordReturn(MAX_SIZE);
+            if (!closed) {
+                buf.clear();
+                scratch.push(buf);
+            }
+        }
+    }
+
+    /**
+     * Stop lending buffers. Buffers that are still lent out are counted as leaks, and their memory is
+     * freed along with the slabs once they are no longer reachable. Since nothing goes back into the pool
+     * after this, its capacity drops to zero.
+     */
+    public void close()
+    {
+        closed = true;
+        stats.recordLeaks(loans.size());
+        loans.clear();
+        for (ConcurrentLinkedDeque<Region> regions : free) {
+            regions.clear();
+        }
+        scratch.clear();
+        stats.recordRelease(allocated.getAndSet(0L));
+    }
+
+    /**
+     * Return the major version of the running JVM: 8 for "1.8," and 11 for "11." If we can't tell, assume
+     * that it is a new one.
+     */
+    private static int javaVersion()
+    {
+        String v = System.getProperty("java.specification.version", "");
+        try {
+            return Integer.parseInt(v.startsWith("1.") ? v.substring(2) : v);
+        } catch (NumberFormatException nfe) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static int sizeClass(int length)
+    {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        return Math.max(shift - MIN_SHIFT, 0);
+    }
+
+    /**
+     * Put every region whose buffer can no longer be reached back on its free list.
+     */
+    private void reclaim()
+    {
+        Loan loan;
+        while ((loan = (Loan)returned.poll()) != null) {
+            loans.remove(loan);
+            stats.recordReturn(loan.region.size);
+            free[loan.region.sizeClass].push(loan.region);
+        }
+    }
+
+    /**
+     * Allocate a new slab for a size class, if the limit allows, keep one region of it and put the rest
+     * on the free list.
+     */
+    private Region grow(int sizeClass)
+    {
+        int size = 1 << (sizeClass + MIN_SHIFT);
+        long slabSize;
+        long current;
+        do {
+            current = allocated.get();
+            slabSize = Math.min(SLAB_SIZE, ((maxBytes - current) / size) * size);
+            if (slabSize < size) {
+                return null;
+            }
+        } while (!allocated.compareAndSet(current, current + slabSize));
+
+        ByteBuffer slab = ByteBuffer.allocateDirect((int)slabSize);
+        stats.recordGrowth(slabSize);
+        for (int offset = size; offset < slabSize; offset += size) {
+            free[sizeClass].push(new Region(slab, offset, size, sizeClass));
+        }
+        return new Region(slab, 0, size, sizeClass);
+    }
+
+    private boolean reserve(long size)
+    {
+        long current;
+        do {
+            current = allocated.get();
+            if (current + size > maxBytes) {
+                return false;
+            }
+        } while (!allocated.compareAndSet(current, current + size));
+        stats.recordGrowth(size);
+        return true;
+    }
+
+    private static final class Region
+    {
+        final ByteBuffer slab;
+        final int offset;
+        final int size;
+        final int sizeClass;
+
+        Region(ByteBuffer slab, int offset, int size, int sizeClass)
+        {
+            this.slab = slab;
+            this.offset = offset;
+            this.size = size;
+            this.sizeClass = sizeClass;
+        }
+    }
+
+    private static final class Loan
+        extends PhantomReference<ByteBuffer>
+    {
+        final Region region;
+
+        Loan(ByteBuffer buf, Region region, ReferenceQueue<ByteBuffer> queue)
+        {
+            super(buf, queue);
+            this.region = region;
+        }
+    }
+}
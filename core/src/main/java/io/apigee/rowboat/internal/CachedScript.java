@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.internal;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * This is what we put in the ClassCache. It wraps the script that Nashorn compiled, and remembers how
+ * big the source was and how long it took to compile so that we can report on what the cache is saving.
+ */
+public class CachedScript
+    extends CompiledScript
+{
+    private final CompiledScript script;
+    private final long compileTime;
+    private final int size;
+
+    public CachedScript(CompiledScript script, long compileTime, int size)
+    {
+        this.script = script;
+        this.compileTime = compileTime;
+        this.size = size;
+    }
+
+    @Override
+    public Object eval(ScriptContext context)
+        throws ScriptException
+    {
+        return script.eval(context);
+    }
+
+    @Override
+    public ScriptEngine getEngine()
+    {
+        return script.getEngine();
+    }
+
+    /**
+     * Return the number of nanoseconds that it took to compile the script.
+     */
+    public long getCompileTime() {
+        return compileTime;
+    }
+
+    /**
+     * Return the size of the script source in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.internal;
+
+import io.apigee.rowboat.ScriptFuture;
+import io.apigee.rowboat.ScriptStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ *     A single thread that drives the event loops of many scripts at once. All the scripts on the loop share
+ *     one Selector, so a loop with thousands of idle scripts still only needs one thread that is blocked
+ *     in "select." Each turn of the loop does the same things, in the same order, as ScriptRunner.mainLoop:
+ *     run ticks and immediate tasks for every script, wait for I/O until the nearest timer of any script,
+ *     fire the selected I/O handlers, and then fire expired timers. To keep one busy script from starving
+ *     the others, each script runs at most TICK_QUANTUM tasks from its tick queue, and NETWORK_QUANTUM
+ *     network callbacks, on each turn, unless the environment sets quanta of its own. Selected keys that a
+ *     script has no room for wait in the order they were selected, and go first on the next turn.
+ * </p>
+ * <p>
+ *     Handles register their channels using NodeRuntime.getSelector, which knows nothing about which
+ *     script is calling. Since all scripts run on this thread, any new key that appears on the selector
+ *     after a script runs must belong to that script, so that is how we find the owner of each key. A key
+ *     whose attachment is already known to belong to a script stays with that script, and keys that were
+ *     cancelled before we saw them, for instance because a handle was closed right after it was opened,
+ *     are never given an owner at all.
+ * </p>
+ * <p>
+ *     Since a script that blocks the thread blocks every other script on the loop, this is only
+ *     appropriate for scripts that do their I/O asynchronously. An unexpected exception from one script
+ *     ends only that script. Whenever the loop itself exits, every script that is still on it, or still
+ *     waiting to start, is finished, so that its future completes and its handles are closed.
+ * </p>
+ */
+public class EventLoop
+    implements Runnable
+{
+    private static final Logger log = LoggerFactory.getLogger(EventLoop.class);
+
+    /** The maximum number of tasks that each script may run from its tick queue on each turn by default. */
+    public static final int TICK_QUANTUM = 64;
+
+    /** The maximum number of network callbacks that each script may run on each turn by default. */
+    public static final int NETWORK_QUANTUM = 64;
+
+    private final Selector selector;
+    private final LoopWakeup wakeup;
+    private final ConcurrentLinkedQueue<ScriptRunner> newRunners = new ConcurrentLinkedQueue<>();
+    private final ArrayList<ScriptRunner> runners = new ArrayList<>();
+    private final IdentityHashMap<SelectionKey, ScriptRunner> keyOwners = new IdentityHashMap<>();
+    private final IdentityHashMap<Object, ScriptRunner> handlerOwners = new IdentityHashMap<>();
+    private final LinkedHashSet<SelectionKey> readyKeys = new LinkedHashSet<>();
+    private final AtomicInteger scriptCount = new AtomicInteger();
+
+    private volatile boolean running = true;
+    private volatile boolean retired;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    public EventLoop()
+    {
+        try {
+            selector = Selector.open();
+        } catch (IOException ioe) {
+            throw new AssertionError(ioe);
+        }
+        wakeup = new LoopWakeup(selector);
+    }
+
+    public Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * Return the object that all the scripts on this loop use to wake it up when they queue a task.
+     */
+    public LoopWakeup getWakeup() {
+        return wakeup;
+    }
+
+    /**
+     * Return the number of scripts that are running, or waiting to start, on this loop.
+     */
+    public int getScriptCount() {
+        return scriptCount.get();
+    }
+
+    /**
+     * Add a script to the loop. It will be started on the loop thread. May be called from any thread.
+     */
+    public void submit(ScriptRunner runner)
+    {
+        scriptCount.incrementAndGet();
+        newRunners.offer(runner);
+        selector.wakeup();
+        if (isFinished()) {
+            // The loop exited while we were adding the script, so it will never start it
+            cancelNewRunners();
+        }
+    }
+
+    /**
+     * Called when a script on this loop is stuck in a tick that will not return, so that the group stops
+     * sending new scripts here. The scripts that are already on the loop stay, and carry on if the tick ever
+     * returns, and then the loop exits once they are all done. May be called from any thread.
+     */
+    public void retire()
+    {
+        retired = true;
+        selector.wakeup();
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * Return true once the loop thread has exited.
+     */
+    public boolean isFinished() {
+        return (finished.getCount() == 0L);
+    }
+
+    /**
+     * Wait up to "timeout" for the loop thread to exit, and return true if it did.
+     */
+    public boolean awaitFinished(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Make the loop exit, and finish all the scripts that are still on it with a cancelled status.
+     * May be called from any thread.
+     */
+    public void shutdown()
+    {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        long now = ScriptRunner.monotonicMillis();
+        // The status of any script that is still here when the loop exits
+        ScriptStatus exitStatus = ScriptStatus.CANCELLED;
+        try {
+            while (running) {
+                startNewRunners();
+
+                // As in libuv, the timeout is based on the time that we last woke up
+                long pollTimeout = ScriptRunner.DEFAULT_DELAY;
+                Iterator<ScriptRunner> it = runners.iterator();
+                while (it.hasNext()) {
+                    ScriptRunner r = it.next();
+                    ScriptStatus status;
+                    try {
+                        ScriptRunner.setCurrent(r);
+                        status = r.runTicks();
+                        claimNewKeys(r);
+                        if (status == null) {
+                            pollTimeout = Math.min(pollTimeout, r.getPollTimeout(now));
+                        }
+                    } catch (RuntimeException re) {
+                        status = unexpectedError(re);
+                    }
+                    if (status != null) {
+                        it.remove();
+                        finish(r, status);
+                    }
+                }
+
+                long selectStart = System.nanoTime();
+                if ((pollTimeout > 0L) && newRunners.isEmpty() && readyKeys.isEmpty()) {
+                    // Another thread only wakes us up if it knows that we are asleep, so check
+                    // every script's task queue once more after saying that we will sleep.
+                    wakeup.prepareToSleep();
+                    if (hasPendingTasks()) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(pollTimeout);
+                    }
+                    wakeup.awake();
+                } else {
+                    selector.selectNow();
+                }
+                long selectEnd = System.nanoTime();
+                now = selectEnd / 1000000L;
+                for (ScriptRunner r : runners) {
+                    r.setLoopTime(now);
+                    r.getLoopStats().recordIteration(selectEnd - selectStart);
+                }
+                pruneKeys();
+
+                // A key that is still waiting from an earlier turn keeps its place if it is selected again
+                Set<SelectionKey> selected = selector.selectedKeys();
+                readyKeys.addAll(selected);
+                selected.clear();
+                for (ScriptRunner r : runners) {
+                    r.startNetworkPhase();
+                }
+                Iterator<SelectionKey> keys = readyKeys.iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    if (!key.isValid()) {
+                        // An earlier callback closed the handle
+                        keys.remove();
+                        continue;
+                    }
+                    ScriptRunner r = keyOwners.get(key);
+                    if (r == null) {
+                        log.debug("Selected key {} has no owner", key);
+                        keys.remove();
+                        continue;
+                    }
+                    if (!r.canRunNetworkCallback()) {
+                        // Leave it for the next turn
+                        continue;
+                    }
+                    keys.remove();
+                    ScriptStatus status;
+                    try {
+                        ScriptRunner.setCurrent(r);
+                        status = r.runNetworkCallback(key);
+                        claimNewKeys(r);
+                    } catch (RuntimeException re) {
+                        status = unexpectedError(re);
+                    }
+                    if (status != null) {
+                        runners.remove(r);
+                        finish(r, status);
+                    }
+                }
+
+                it = runners.iterator();
+                while (it.hasNext()) {
+                    ScriptRunner r = it.next();
+                    ScriptStatus status;
+                    try {
+                        ScriptRunner.setCurrent(r);
+                        status = r.runTimers(now);
+                        claimNewKeys(r);
+                    } catch (RuntimeException re) {
+                        status = unexpectedError(re);
+                    }
+                    if (status != null) {
+                        it.remove();
+                        finish(r, status);
+                    }
+                }
+
+                if (retired && runners.isEmpty() && newRunners.isEmpty()) {
+                    break;
+                }
+            }
+        } catch (IOException ioe) {
+            log.error("Event loop failed: {}", ioe);
+            exitStatus = new ScriptStatus(ioe);
+        } catch (RuntimeException | Error e) {
+            log.error("Event loop failed: {}", e);
+            exitStatus = new ScriptStatus(e);
+            throw e;
+        } finally {
+            for (ScriptRunner r : runners) {
+                finish(r, exitStatus);
+            }
+            runners.clear();
+            ScriptRunner.setCurrent(null);
+            try {
+                selector.close();
+            } catch (IOException ioe) {
+                log.debug("Error closing selector", ioe);
+            }
+            finished.countDown();
+            cancelNewRunners();
+        }
+    }
+
+    private static ScriptStatus unexpectedError(RuntimeException re)
+    {
+        log.error("Unexpected error running script on event loop: {}", re);
+        return new ScriptStatus(re);
+    }
+
+    private boolean hasPendingTasks()
+    {
+        for (ScriptRunner r : runners) {
+            if (r.hasPendingTasks()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startNewRunners()
+    {
+        ScriptRunner r;
+        while ((r = newRunners.poll()) != null) {
+            ScriptStatus status;
+            try {
+                ScriptRunner.setCurrent(r);
+                status = r.startScript();
+                claimNewKeys(r);
+            } catch (RuntimeException re) {
+                status = unexpectedError(re);
+            }
+            if (status == null) {
+                runners.add(r);
+            } else {
+                finish(r, status);
+            }
+        }
+    }
+
+    private void finish(ScriptRunner r, ScriptStatus status)
+    {
+        ScriptStatus finalStatus;
+        try {
+            ScriptRunner.setCurrent(r);
+            finalStatus = r.finishScript(status);
+            claimNewKeys(r);
+        } catch (RuntimeException re) {
+            finalStatus = unexpectedError(re);
+        }
+        releaseKeys(r);
+        complete(r, finalStatus);
+    }
+
+    /**
+     * Finish the scripts that were submitted but never started, once the loop has exited. This may run on
+     * the loop thread and on a thread that submitted a script at the same time, but each script is only
+     * taken off the queue once. The selector is closed by now, so there are no keys to deal with.
+     */
+    private void cancelNewRunners()
+    {
+        ScriptRunner r;
+        while ((r = newRunners.poll()) != null) {
+            ScriptStatus finalStatus;
+            try {
+                finalStatus = r.finishScript(ScriptStatus.CANCELLED);
+            } catch (RuntimeException re) {
+                finalStatus = unexpectedError(re);
+            }
+            complete(r, finalStatus);
+        }
+    }
+
+    private void complete(ScriptRunner r, ScriptStatus status)
+    {
+        scriptCount.decrementAndGet();
+        ScriptFuture future = r.getFuture();
+        if (future != null) {
+            future.complete(status);
+        }
+    }
+
+    /**
+     * Give every key that was registered since we last checked to the script that just ran, unless
+     * its attachment already belongs to another script. The key set is synchronized on because other
+     * threads may register while we look.
+     */
+    private void claimNewKeys(ScriptRunner owner)
+    {
+        synchronized (selector.keys()) {
+            if (selector.keys().size() <= keyOwners.size()) {
+                return;
+            }
+            for (SelectionKey key : selector.keys()) {
+                if (!key.isValid() || keyOwners.containsKey(key)) {
+                    continue;
+                }
+                Object handler = key.attachment();
+                ScriptRunner r = (handler == null ? null : handlerOwners.get(handler));
+                if (r == null) {
+                    r = owner;
+                    if (handler != null) {
+                        handlerOwners.put(handler, r);
+                    }
+                }
+                keyOwners.put(key, r);
+            }
+        }
+    }
+
+    /**
+     * Forget about keys that were cancelled. The selector has removed them from its key set by now.
+     */
+    private void pruneKeys()
+    {
+        synchronized (selector.keys()) {
+            if (keyOwners.size() > selector.keys().size()) {
+                Iterator<SelectionKey> it = keyOwners.keySet().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    if (!key.isValid()) {
+                        it.remove();
+                        handlerOwners.remove(key.attachment());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancel any keys that a finished script left behind, so that we never call in to it again.
+     */
+    private void releaseKeys(ScriptRunner owner)
+    {
+        Iterator<Map.Entry<SelectionKey, ScriptRunner>> it = keyOwners.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<SelectionKey, ScriptRunner> e = it.next();
+            if (e.getValue() == owner) {
+                if (e.getKey().isValid()) {
+                    e.getKey().cancel();
+                }
+                it.remove();
+            }
+        }
+        handlerOwners.values().removeIf(r -> r == owner);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed set of EventLoop threads. Each new script goes to the loop that is running the fewest
+ * scripts right now, so the number of threads stays the same no matter how many scripts there are.
+ * A loop that was retired because a script is stuck on its thread is replaced with a new one.
+ */
+public class EventLoopGroup
+{
+    private static final Logger log = LoggerFactory.getLogger(EventLoopGroup.class);
+
+    /** How long "shutdown" waits for the loops to finish the scripts that are still on them. */
+    private static final long SHUTDOWN_WAIT_MS = 5000L;
+
+    private final EventLoop[] loops;
+    private final ArrayList<EventLoop> retired = new ArrayList<>();
+    private int nextId;
+
+    public EventLoopGroup(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one event loop thread is required");
+        }
+        loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = startLoop();
+        }
+    }
+
+    private EventLoop startLoop()
+    {
+        EventLoop loop = new EventLoop();
+        Thread t = new Thread(loop, "Rowboat Event Loop " + nextId++);
+        t.setDaemon(true);
+        t.start();
+        return loop;
+    }
+
+    /**
+     * Return the least-busy loop, after replacing any that were retired.
+     */
+    public synchronized EventLoop next()
+    {
+        retired.removeIf(EventLoop::isFinished);
+        EventLoop best = null;
+        for (int i = 0; i < loops.length; i++) {
+            if (loops[i].isRetired()) {
+                retired.add(loops[i]);
+                loops[i] = startLoop();
+            }
+            if ((best == null) || (loops[i].getScriptCount() < best.getScriptCount())) {
+                best = loops[i];
+            }
+        }
+        return best;
+    }
+
+    public int getThreadCount() {
+        return loops.length;
+    }
+
+    /**
+     * Return the number of scripts on all the loops.
+     */
+    public synchronized int getScriptCount()
+    {
+        int count = 0;
+        for (EventLoop l : loops) {
+            count += l.getScriptCount();
+        }
+        return count;
+    }
+
+    /**
+     * Stop all the loops, and wait a while for each of the ones that are not retired to finish the scripts
+     * that are still on it, so that their futures are complete by the time this returns. A loop in the middle
+     * of a long tick finishes its scripts when the tick returns. Retired loops are not waited for, since they
+     * may never get back from the tick that they are stuck in.
+     */
+    public synchronized void shutdown()
+    {
+        for (EventLoop l : loops) {
+            l.shutdown();
+        }
+        for (EventLoop l : retired) {
+            l.shutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_WAIT_MS);
+        try {
+            for (EventLoop l : loops) {
+                if (!l.awaitFinished(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    log.warn("Event loop did not finish its scripts within {} milliseconds", SHUTDOWN_WAIT_MS);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
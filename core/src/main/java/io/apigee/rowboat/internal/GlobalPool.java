@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.ScriptContext;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *     A pool of script contexts that are ready to run, so that a new script does not have to wait for a new
+ *     Nashorn global object to be created and for "trireme.js" to be linked in to it. Each ModuleRegistry
+ *     may have one of these. The contexts are created on a single background thread.
+ * </p>
+ * <p>
+ *     Nothing that depends on the script itself, such as "process," is set up in advance, since that
+ *     depends on the arguments, sandbox, and runtime of each script. Whenever the number of ready contexts
+ *     drops below the "low water mark," the background thread fills the pool up to its maximum size again.
+ *     A low water mark of zero means that the pool is filled once and never refilled, and one equal
+ *     to the size means that it is refilled after every script starts.
+ * </p>
+ */
+public class GlobalPool
+{
+    private static final Logger log = LoggerFactory.getLogger(GlobalPool.class);
+
+    private final ModuleRegistry registry;
+    private final int size;
+    private final int lowWaterMark;
+    private final ArrayBlockingQueue<ScriptContext> ready;
+    private final ExecutorService filler;
+    private final AtomicBoolean filling = new AtomicBoolean();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+
+    public GlobalPool(ModuleRegistry registry, int size, int lowWaterMark)
+    {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least one");
+        }
+        this.registry = registry;
+        this.size = size;
+        this.lowWaterMark = Math.min(Math.max(lowWaterMark, 0), size);
+        this.ready = new ArrayBlockingQueue<>(size);
+        this.filler = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Rowboat Global Pool");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start filling the pool in the background.
+     */
+    public void start()
+    {
+        refill();
+    }
+
+    /**
+     * Return a context that is ready to run a script, or create a new one on the calling thread if
+     * the pool is empty.
+     */
+    public ScriptContext take()
+    {
+        ScriptContext cx = ready.poll();
+        if (cx == null) {
+            misses.incrementAndGet();
+            cx = registry.createContext();
+        } else {
+            hits.incrementAndGet();
+        }
+        if (ready.size() < lowWaterMark) {
+            refill();
+        }
+        return cx;
+    }
+
+    public void close()
+    {
+        filler.shutdownNow();
+        ready.clear();
+    }
+
+    private void refill()
+    {
+        if (!filling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            filler.execute(this::fill);
+        } catch (RejectedExecutionException ree) {
+            // Pool was closed
+            filling.set(false);
+        }
+    }
+
+    private void fill()
+    {
+        try {
+            while ((ready.size() < size) && !Thread.currentThread().isInterrupted()) {
+                if (!ready.offer(registry.createContext())) {
+                    break;
+                }
+                created.incrementAndGet();
+            }
+        } catch (RuntimeException re) {
+            log.debug("Error filling global pool: {}", re);
+        } finally {
+            filling.set(false);
+        }
+        // Scripts may have taken contexts after we last checked
+        if (ready.size() < lowWaterMark) {
+            refill();
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    /**
+     * Return the number of contexts that are ready right now.
+     */
+    public int getReady() {
+        return ready.size();
+    }
+
+    /**
+     * Return the number of scripts that got a context from the pool.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Return the number of scripts that found the pool empty and had to create their own context.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "GlobalPool [ size = " + size + " ready = " + ready.size() + " hits = " + hits +
+               " misses = " + misses + " created = " + created + " ]";
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.internal;
+
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a thread that has queued work for an event loop must wake up its selector. Waking the
+ * selector is a system call, and it is wasted if the loop is not asleep or if someone else has already
+ * woken it, which is nearly always the case when lots of async I/O is completing at once.
+ * <p>
+ * The loop calls "prepareToSleep," then checks its queues one more time, and only then goes to sleep
+ * in "select." After it wakes up it calls "awake." A producer adds to a queue and then calls "wakeup."
+ * Since both sides write one thing and then read the other, either the loop sees the new work or
+ * the producer sees that the loop is asleep, and only the first producer to see it wakes the selector.
+ * </p>
+ * <p>
+ * A producer may see that the loop is asleep and then only set its flag after the loop has woken up. The
+ * loop may also poll with "selectNow" without sleeping first, which uses up that late wakeup. So the flag
+ * is cleared every time the loop prepares to sleep, and not only when it wakes up, or else the next
+ * producer would think that the loop had already been woken and leave it asleep.
+ * </p>
+ */
+public class LoopWakeup
+{
+    private final Selector selector;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final AtomicLong wakeups = new AtomicLong();
+    private volatile boolean sleeping;
+
+    public LoopWakeup(Selector selector)
+    {
+        this.selector = selector;
+    }
+
+    /**
+     * Called by any thread after it has put something on a queue that the loop will check.
+     */
+    public void wakeup()
+    {
+        if (sleeping && pending.compareAndSet(false, true)) {
+            wakeups.incrementAndGet();
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Called by the loop before it checks its queues for the last time and goes to sleep.
+     */
+    public void prepareToSleep()
+    {
+        pending.set(false);
+        sleeping = true;
+    }
+
+    /**
+     * Called by the loop when it returns from "select," or decides not to sleep after all.
+     */
+    public void awake()
+    {
+        sleeping = false;
+        pending.set(false);
+    }
+
+    /**
+     * Return the number of times that a producer actually had to wake up the selector.
+     */
+    public long getWakeups() {
+        return wakeups.get();
+    }
+}
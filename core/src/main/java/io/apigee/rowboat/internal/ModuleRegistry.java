@@ -21,7 +21,9 @@
  */
 package io.apigee.rowboat.internal;
 
+import io.apigee.rowboat.ClassCache;
 import io.apigee.rowboat.InternalNodeModule;
+import io.apigee.rowboat.NodeEnvironment;
 import io.apigee.rowboat.NodeException;
 import io.apigee.rowboat.NodeModule;
 import io.apigee.rowboat.spi.NodeImplementation;
@@ -29,13 +31,19 @@ import io.apigee.trireme.kernel.Charsets;
 
 import javax.script.Compilable;
 import javax.script.CompiledScript;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.ServiceLoader;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>
@@ -61,32 +69,48 @@ import java.util.ServiceLoader;
  *     This registry is loaded based on a NodeImplementation, which means that there can be many if there
  *     are a lot of versions of Node available.
  * </p>
+ * <p>
+ *     Each registry owns a single Nashorn script engine. Every script that runs against this implementation
+ *     gets its own global object inside that engine, and every built-in module is compiled exactly once
+ *     and then linked in to each global as it is required. That way the parse and code generation for
+ *     "process.js," "buffer.js," and the rest happens once per JVM, not once per script.
+ * </p>
+ * <p>
+ *     All compilation, including user code loaded by "module" and "vm," goes through the registry
+ *     so that it may use the ClassCache from the NodeEnvironment if one was set.
+ * </p>
  */
 public class ModuleRegistry
 {
-    public static final String MODULE_WRAP_START_1 =
-        "function _";
-    public static final String MODULE_WRAP_START_2 =
-        "Module(require, module, exports, __filename, __dirname) { ";
+    public static final String MODULE_WRAP_START =
+        "(function (exports, require, module, __filename, __dirname) {";
     public static final String MODULE_WRAP_END =
-        "\nreturn module.exports};";
+        "\n});";
     public static final String SOURCE_URL =
-        "//#sourceURL=";
+        "\n//# sourceURL=";
+
+    private static final ScriptEngineManager engineManager = new ScriptEngineManager();
+    private static final AtomicLong nextEngineId = new AtomicLong();
 
     private final HashMap<String, NodeModule>          javaModules         = new HashMap<>();
     private final HashMap<String, NodeModule>          internalJavaModules = new HashMap<>();
     private final HashMap<String, ScriptModule>        builtInModules      = new HashMap<>();
     private final HashMap<String, ScriptModule>        internalModules     = new HashMap<>();
     private final NodeImplementation                   implementation;
+    private final NodeEnvironment                      env;
 
+    private ScriptEngine                         engine;
+    private long                                 engineId;
     private CompiledScript                       mainScript;
+    private GlobalPool                           globalPool;
     private String                               mainScriptSource;
 
     private boolean        loaded;
 
-    public ModuleRegistry(NodeImplementation impl)
+    public ModuleRegistry(NodeImplementation impl, NodeEnvironment env)
     {
         this.implementation = impl;
+        this.env = env;
     }
 
     public NodeImplementation getImplementation() {
@@ -125,10 +149,10 @@ public class ModuleRegistry
         */
 
         for (String[] builtin : implementation.getBuiltInModules()) {
-            builtInModules.put(builtin[0], new ScriptModule(builtin[1]));
+            builtInModules.put(builtin[0], new ScriptModule(builtin[0], builtin[1]));
         }
         for (String[] internal : implementation.getInternalModules()) {
-            internalModules.put(internal[0], new ScriptModule(internal[1]));
+            internalModules.put(internal[0], new ScriptModule(internal[0], internal[1]));
         }
         for (Class<? extends NodeModule> klass : implementation.getJavaModules()) {
             NodeModule m = instantiate(klass);
@@ -209,13 +233,143 @@ public class ModuleRegistry
         }
     }
 
-    protected CompiledScript loadFromSource(String name, ScriptEngine engine)
+    /**
+     * Return the script engine that is shared by every script that uses this implementation. Scripts
+     * do not use the engine's default context -- each one creates its own global using "createBindings".
+     */
+    public synchronized ScriptEngine getScriptEngine()
     {
-        String source = loadSource(name);
+        if (engine == null) {
+            engine = engineManager.getEngineByName("nashorn");
+            engineId = nextEngineId.incrementAndGet();
+            assert(engine instanceof Compilable);
+        }
+        return engine;
+    }
+
+    private synchronized long getEngineId()
+    {
+        getScriptEngine();
+        return engineId;
+    }
+
+    /**
+     * Create a new script context with its own global object, and link "trireme.js" in to it so that
+     * "_triremeMain" is defined. Nothing else is done, so the result may be handed to any script.
+     */
+    public ScriptContext createContext()
+    {
+        load();
+        ScriptEngine e = getScriptEngine();
+        ScriptContext cx = new SimpleScriptContext();
+        cx.setBindings(e.createBindings(), ScriptContext.ENGINE_SCOPE);
         try {
-            return ((Compilable)engine).compile(source);
+            getMainScript().eval(cx);
         } catch (ScriptException se) {
-            throw new NodeException("Can't compile script: " + name + ": " + se, se);
+            throw new NodeException("Error initializing main script: " + se, se);
+        }
+        return cx;
+    }
+
+    /**
+     * Return a context for a new script, using the pool of pre-created contexts if the environment
+     * has one.
+     */
+    public ScriptContext takeContext()
+    {
+        GlobalPool pool = getGlobalPool();
+        return (pool == null ? createContext() : pool.take());
+    }
+
+    /**
+     * Return the pool of pre-created contexts for this registry, creating it and starting to fill it
+     * if the environment was configured for one, or null otherwise.
+     */
+    public synchronized GlobalPool getGlobalPool()
+    {
+        if ((globalPool == null) && (env.getGlobalPoolSize() > 0) && env.isSharedScriptEngine()) {
+            globalPool = new GlobalPool(this, env.getGlobalPoolSize(), env.getGlobalPoolLowWaterMark());
+            globalPool.start();
+        }
+        return globalPool;
+    }
+
+    public synchronized void close()
+    {
+        if (globalPool != null) {
+            globalPool.close();
+            globalPool = null;
+        }
+    }
+
+    /**
+     * Compile a script using the shared engine. The result is not tied to any particular global object,
+     * so it may be evaluated in the ScriptContext of any script that uses this registry. If the environment
+     * has a ClassCache, then look there first, and put the result there when we're done.
+     */
+    public CompiledScript compile(String source, String fileName)
+    {
+        ClassCache cache = env.getClassCache();
+        if (cache == null) {
+            return compileScript(source, fileName);
+        }
+
+        byte[] bytes = source.getBytes(Charsets.UTF8);
+        String key = makeCacheKey(bytes);
+        CompiledScript cached = cache.getCachedScript(key);
+        if (cached != null) {
+            env.getClassCacheStats().recordHit(
+                (cached instanceof CachedScript) ? ((CachedScript)cached).getCompileTime() : 0L);
+            return cached;
+        }
+
+        long start = System.nanoTime();
+        CompiledScript compiled = compileScript(source, fileName);
+        long elapsed = System.nanoTime() - start;
+        env.getClassCacheStats().recordMiss(elapsed);
+
+        CachedScript result = new CachedScript(compiled, elapsed, bytes.length);
+        cache.putCachedScript(key, result);
+        return result;
+    }
+
+    private CompiledScript compileScript(String source, String fileName)
+    {
+        ScriptEngine e = getScriptEngine();
+        // Nashorn takes the file name for stack traces from the default context of the engine
+        synchronized (e) {
+            e.put(ScriptEngine.FILENAME, fileName);
+            try {
+                return ((Compilable)e).compile(source);
+            } catch (ScriptException se) {
+                throw new NodeException("Can't compile script: " + fileName + ": " + se, se);
+            }
+        }
+    }
+
+    /**
+     * The cache key is the Node version, the engine, and a hash of the source, which includes the
+     * "sourceURL" comment. So two scripts only share compiled code if they have the same source and the
+     * same file name and they run on the same engine. Compiled code can't run on a different engine, and
+     * a cache may be shared by several environments and by private engines, so including the engine
+     * keeps each one from replacing the others' entries.
+     */
+    private String makeCacheKey(byte[] source)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(source);
+            StringBuilder key = new StringBuilder(implementation.getVersion());
+            key.append(':');
+            key.append(getEngineId());
+            key.append(':');
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException nse) {
+            throw new AssertionError("SHA-256 not supported: " + nse);
         }
     }
 
@@ -266,14 +420,23 @@ public class ModuleRegistry
         return javaModules.get(name);
     }
 
-    public CompiledScript getModule(String name, ScriptEngine engine, boolean internal)
+    /**
+     * Return the compiled version of a built-in module, compiling it first if necessary. When evaluated,
+     * the script returns a function that takes the usual "exports, require, module, __filename,
+     * and __dirname" arguments.
+     */
+    public CompiledScript getModule(String name, boolean internal)
+    {
+        ScriptModule m = (internal ? internalModules.get(name) : builtInModules.get(name));
+        return (m == null ? null : m.getScript());
+    }
+
+    public boolean hasModule(String name, boolean internal)
     {
         if (internal) {
-            ScriptModule m = internalModules.get(name);
-            return (m == null ? null : m.getScript(engine, name));
+            return internalModules.containsKey(name);
         }
-        ScriptModule m = builtInModules.get(name);
-        return (m == null ? null : m.getScript(engine, name));
+        return builtInModules.containsKey(name);
     }
 
     public String getModuleSource(String name, boolean internal)
@@ -286,18 +449,20 @@ public class ModuleRegistry
         return (m == null ? null : m.getSource());
     }
 
-    public String wrapSource(String source, String name, String fileName)
+    public String wrapSource(String source, String fileName)
     {
-        return MODULE_WRAP_START_1 + name + MODULE_WRAP_START_2 +
+        return MODULE_WRAP_START +
                source +
                MODULE_WRAP_END +
                SOURCE_URL + fileName;
     }
 
-    public synchronized CompiledScript getMainScript(ScriptEngine engine)
+    public synchronized CompiledScript getMainScript()
     {
         if (mainScript == null) {
-            mainScript = loadFromSource(implementation.getMainScript(), engine);
+            String name = implementation.getMainScript();
+            String fileName = name.substring(name.lastIndexOf('/') + 1);
+            mainScript = compile(getMainScriptSource() + SOURCE_URL + fileName, fileName);
         }
         return mainScript;
     }
@@ -313,12 +478,14 @@ public class ModuleRegistry
     private class ScriptModule
     {
         final String resourceName;
+        final String fileName;
         String source;
         CompiledScript script;
 
-        ScriptModule(String resourceName)
+        ScriptModule(String name, String resourceName)
         {
             this.resourceName = resourceName;
+            this.fileName = name + ".js";
         }
 
         synchronized String getSource()
@@ -331,19 +498,14 @@ public class ModuleRegistry
         }
 
         /**
-         * Lazily load and compile the script.
+         * Lazily load and compile the script. This happens once for all the scripts in the registry.
          */
-        synchronized CompiledScript getScript(ScriptEngine engine, String name)
+        synchronized CompiledScript getScript()
         {
-            if (script != null) {
-                return script;
-            }
-            String s = wrapSource(getSource(), name, resourceName);
-            try {
-               return ((Compilable)engine).compile(s);
-            } catch (ScriptException se) {
-                throw new NodeException("Error compiling built-in script: {}", se);
+            if (script == null) {
+                script = compile(wrapSource(getSource(), fileName), fileName);
             }
+            return script;
         }
     }
 }
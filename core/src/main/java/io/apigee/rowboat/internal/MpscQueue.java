@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.internal;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A linked queue that any number of threads may add to but only one thread may take from. This is
+ * the queue of tasks that async I/O completions and other threads hand to a script. Adding is a single
+ * atomic swap with no retry loop, so producers never spin against each other the way they may with
+ * ConcurrentLinkedQueue, and taking needs no atomic operations at all. This is the well-known
+ * design by Dmitry Vyukov.
+ */
+public class MpscQueue<T>
+{
+    private final AtomicReference<Node<T>> tail;
+    /** The node before the first one in the queue. Only the consumer touches this. */
+    private Node<T> head;
+
+    public MpscQueue()
+    {
+        head = new Node<>(null);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * Add an item. Any thread may call this.
+     */
+    public void offer(T item)
+    {
+        Node<T> n = new Node<>(item);
+        Node<T> prev = tail.getAndSet(n);
+        // Between the swap and this line, the consumer can see the queue as non-empty but not be
+        // able to take anything yet. It will just try again on the next turn of the loop.
+        prev.next = n;
+    }
+
+    /**
+     * Take the first item, or return null. Only the consumer thread may call this.
+     */
+    public T poll()
+    {
+        Node<T> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        T item = next.item;
+        next.item = null;
+        head = next;
+        return item;
+    }
+
+    /**
+     * Return true if nothing has been added that has not been taken. Only the consumer thread may call
+     * this. An item that is still being added counts, so this may be false even though "poll" returns null.
+     */
+    public boolean isEmpty()
+    {
+        return (tail.get() == head);
+    }
+
+    private static final class Node<T>
+    {
+        T item;
+        volatile Node<T> next;
+
+        Node(T item)
+        {
+            this.item = item;
+        }
+    }
+}
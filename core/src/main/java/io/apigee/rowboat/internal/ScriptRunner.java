@@ -21,6 +21,8 @@
  */
 package io.apigee.rowboat.internal;
 
+import io.apigee.rowboat.EventLoopStats;
+import io.apigee.rowboat.NetworkStats;
 import io.apigee.rowboat.NodeEnvironment;
 import io.apigee.rowboat.NodeException;
 import io.apigee.rowboat.NodeModule;
@@ -30,6 +32,7 @@ import io.apigee.rowboat.Sandbox;
 import io.apigee.rowboat.ScriptFuture;
 import io.apigee.rowboat.ScriptStatus;
 import io.apigee.rowboat.ScriptTask;
+import io.apigee.rowboat.ScriptTimeoutException;
 import io.apigee.rowboat.binding.DefaultScriptObject;
 import io.apigee.trireme.kernel.PathTranslator;
 import io.apigee.trireme.kernel.net.NetworkPolicy;
@@ -38,26 +41,29 @@ import jdk.nashorn.api.scripting.JSObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.script.Compilable;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.script.CompiledScript;
-import javax.script.Invocable;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.ArrayList;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -65,6 +71,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -76,15 +83,20 @@ public class ScriptRunner
 {
     private static final Logger log = LoggerFactory.getLogger(ScriptRunner.class);
 
-    private static final long DEFAULT_DELAY = Integer.MAX_VALUE;
+    static final long DEFAULT_DELAY = Integer.MAX_VALUE;
     /** We don't really know what the umask is in Java, so we set a reasonable default that the tests expected. */
     public static final int DEFAULT_UMASK = 022;
     public static final String EXECUTABLE_NAME = "node";
 
     public static final String TIMEOUT_TIMESTAMP_KEY = "_tickTimeout";
 
+    private static final Object[] EMPTY_ARGS = new Object[0];
+    private static final AtomicLong lastScriptId = new AtomicLong();
+    private static final ThreadMXBean threadMx = ManagementFactory.getThreadMXBean();
+    private static final boolean cpuTimeSupported =
+        threadMx.isCurrentThreadCpuTimeSupported() && threadMx.isThreadCpuTimeEnabled();
+
     private static final ThreadLocal<ScriptRunner> threadRunner = new ThreadLocal<>();
-    private static final ScriptEngineManager engineManager = new ScriptEngineManager();
 
     private final  NodeEnvironment env;
     private final  ModuleRegistry  registry;
@@ -97,17 +109,52 @@ public class ScriptRunner
     private final  ExecutorService asyncPool;
     private final IdentityHashMap<Closeable, Closeable> openHandles =
         new IdentityHashMap<>();
-
-    private final  ConcurrentLinkedQueue<Activity> tickFunctions = new ConcurrentLinkedQueue<>();
-    private final  PriorityQueue<Activity>         timerQueue    = new PriorityQueue<>();
+    private final LinkedHashMap<String, Long> moduleLoadTimes = new LinkedHashMap<>();
+
+    private final  MpscQueue<Activity>             tickFunctions = new MpscQueue<>();
+    private        long                            loopTime      = monotonicMillis();
+    private final  TimerWheel                      timerWheel    = new TimerWheel(loopTime);
+    private final  ArrayList<TimerWheel.Entry>     expiredTimers = new ArrayList<>();
+    private        int                             expiredIndex;
+    private final  int                             tickQuantum;
+    private final  long                            tickQuantumNanos;
+    private final  int                             timerQuantum;
+    private final  long                            timerQuantumNanos;
+    private final  int                             networkQuantum;
+    private final  long                            networkQuantumNanos;
+    private final  LinkedHashSet<SelectionKey>     readyKeys     = new LinkedHashSet<>();
+    private        int                             networkCount;
+    private        long                            networkNanos;
+    private        boolean                         networkQuantumHit;
     private final  Selector                        selector;
+    private final  LoopWakeup                      wakeup;
+    private final  EventLoop                       loop;
     private        int                             timerSequence;
     private final  AtomicInteger                   pinCount      = new AtomicInteger(0);
+    private final  long                            startNanos    = System.nanoTime();
     private int    exitCode = -1;
 
+    // Script time limits and CPU accounting. "tickStart" is zero when we are not in a tick.
+    private final  boolean                         timingEnabled;
+    private final  ScriptWatchdog                  watchdog;
+    private final  Object                          tickLock      = new Object();
+    private volatile long                          tickStart;
+    private volatile Thread                        tickThread;
+    private volatile boolean                       timedOut;
+    private volatile boolean                       bootstrapping;
+    private volatile boolean                       abandoned;
+    private volatile long                          tickCpuStart;
+    private volatile long                          cpuTime;
+
+    private final  EventLoopStats                  stats = new EventLoopStats(this);
+    private        ObjectName                      statsName;
+    private final  NetworkStats                    networkStats;
+
     // Globals that are set up for the process
     protected JSObject          process;
     protected JSObject          submitTick;
+    private   JSObject          tickCallback;
+    private   boolean           usingDomains;
     private   Function<Object, Boolean> handleFatal;
     private   Runnable          tickFromSpinner;
     private   Runnable          immediateCallback;
@@ -123,12 +170,22 @@ public class ScriptRunner
     private int                 umask = DEFAULT_UMASK;
     private ScriptContext       context;
     private ScriptEngine        engine;
-    private Invocable           invocableEngine;
 
     public ScriptRunner(NodeScript so, NodeEnvironment env, Sandbox sandbox,
                         ModuleRegistry registry, String[] args)
+    {
+        this(so, env, sandbox, registry, args, null);
+    }
+
+    /**
+     * Create a runner that will either run on its own thread using "call," or, if "loop" is not null,
+     * be driven by that event loop and share its selector.
+     */
+    public ScriptRunner(NodeScript so, NodeEnvironment env, Sandbox sandbox,
+                        ModuleRegistry registry, String[] args, EventLoop loop)
     {
         this.env = env;
+        this.loop = loop;
         this.scriptObject = so;
         this.registry = registry;
         this.args = args;
@@ -158,16 +215,91 @@ public class ScriptRunner
             this.asyncPool = env.getAsyncPool();
         }
 
+        this.watchdog = env.getWatchdog();
+        // Scripts that share a loop thread get a limited share of each turn even if the environment says nothing
+        int tq = env.getTickQuantum();
+        this.tickQuantum = (tq > 0 ? tq : (loop == null ? Integer.MAX_VALUE : EventLoop.TICK_QUANTUM));
+        this.tickQuantumNanos = env.getTickQuantum(TimeUnit.NANOSECONDS);
+        this.timerQuantum = (env.getTimerQuantum() > 0 ? env.getTimerQuantum() : Integer.MAX_VALUE);
+        this.timerQuantumNanos = env.getTimerQuantum(TimeUnit.NANOSECONDS);
+        int nq = env.getNetworkQuantum();
+        this.networkQuantum = (nq > 0 ? nq : (loop == null ? Integer.MAX_VALUE : EventLoop.NETWORK_QUANTUM));
+        this.networkQuantumNanos = env.getNetworkQuantum(TimeUnit.NANOSECONDS);
+        this.networkStats = (env.isNetworkStats() ? new NetworkStats(env.getNetworkStats()) : null);
+        this.timingEnabled = (watchdog != null) || env.isCpuAccounting();
+
         if ((sandbox != null) && (sandbox.getMounts() != null)) {
             for (Map.Entry<String, String> mount : sandbox.getMounts()) {
                 pathTranslator.mount(mount.getKey(), new File(mount.getValue()));
             }
         }
 
-        try {
-            this.selector = Selector.open();
-        } catch (IOException ioe) {
-            throw new AssertionError(ioe);
+        if (loop == null) {
+            try {
+                this.selector = Selector.open();
+            } catch (IOException ioe) {
+                throw new AssertionError(ioe);
+            }
+            this.wakeup = new LoopWakeup(selector);
+        } else {
+            this.selector = loop.getSelector();
+            this.wakeup = loop.getWakeup();
+        }
+    }
+
+    /**
+     * Internal: Return the time on the monotonic clock that the event loop and timers use. It is based on
+     * System.nanoTime, so it does not move when the wall clock is set, but it is only meaningful relative
+     * to other values from the same method.
+     */
+    static long monotonicMillis()
+    {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * Internal: Set the time of the current turn of the event loop. The loop samples the clock once each
+     * time it wakes up, and everything else in the turn, including new timers, uses that value.
+     */
+    void setLoopTime(long now)
+    {
+        this.loopTime = now;
+    }
+
+    /**
+     * Return the monotonic time in milliseconds as of the current turn of the event loop, like uv_now.
+     * This is a double because that is what scripts want.
+     */
+    public double getLoopTime() {
+        return loopTime;
+    }
+
+    /**
+     * Return the number of seconds since this script started, using the monotonic clock.
+     */
+    public double getUptime() {
+        return (System.nanoTime() - startNanos) / 1000000000.0;
+    }
+
+    /**
+     * Return the monotonic clock for process.hrtime, as seconds and nanoseconds. We split it here
+     * because a double cannot hold the whole value with nanosecond precision.
+     */
+    public double[] getHrtime()
+    {
+        long nanos = System.nanoTime();
+        return new double[] { Math.floorDiv(nanos, 1000000000L), Math.floorMod(nanos, 1000000000L) };
+    }
+
+    /**
+     * Internal: Set the runner for the current thread, for event loops that run many scripts.
+     */
+    static void setCurrent(ScriptRunner r)
+    {
+        if (r == null) {
+            threadRunner.remove();
+        } else {
+            threadRunner.set(r);
         }
     }
 
@@ -177,6 +309,10 @@ public class ScriptRunner
 
     public void close()
     {
+        if (loop != null) {
+            // The selector belongs to the loop
+            return;
+        }
         try {
             selector.close();
         } catch (IOException ioe) {
@@ -291,6 +427,20 @@ public class ScriptRunner
     @SuppressWarnings("unused")
     public void setSubmitTick(JSObject submit) {
         this.submitTick = submit;
+        this.tickCallback = null;
+    }
+
+    /**
+     * Called when the "domain" module is loaded. Until then, we can deliver callbacks without going
+     * through "submitTick".
+     */
+    @SuppressWarnings("unused")
+    public void setUsingDomains(boolean using) {
+        this.usingDomains = using;
+    }
+
+    public boolean isUsingDomains() {
+        return usingDomains;
     }
 
     public JSObject getSubmitTick() {
@@ -421,7 +571,7 @@ public class ScriptRunner
         Callback cb = new Callback(f, thisObj, args);
         cb.setDomain(domain);
         tickFunctions.offer(cb);
-        selector.wakeup();
+        wakeup.wakeup();
     }
 
     /**
@@ -432,7 +582,7 @@ public class ScriptRunner
     {
         Task t = new Task(task);
         tickFunctions.offer(t);
-        selector.wakeup();
+        wakeup.wakeup();
     }
 
     /**
@@ -443,13 +593,18 @@ public class ScriptRunner
         Task t = new Task(task);
         t.setDomain(domain);
         tickFunctions.offer(t);
-        selector.wakeup();
+        wakeup.wakeup();
     }
 
     @Override
     public void executeScriptTask(Runnable task, Object domain)
     {
-        enqueueTask(() -> task.run(), domain);
+        // This is how every I/O completion gets back to the script, so queue the Runnable itself
+        // rather than wrapping it again.
+        RunnableTask t = new RunnableTask(task);
+        t.setDomain(domain);
+        tickFunctions.offer(t);
+        wakeup.wakeup();
     }
 
     /**
@@ -461,7 +616,7 @@ public class ScriptRunner
                                 Consumer<Object> task, Object target)
     {
         Task t = new Task(() -> task.accept(target));
-        long timeout = System.currentTimeMillis() + delay;
+        long timeout = loopTime + delay;
         int seq = timerSequence++;
 
         if (log.isDebugEnabled()) {
@@ -473,8 +628,8 @@ public class ScriptRunner
             t.setInterval(repeatInterval);
             t.setRepeating(true);
         }
-        timerQueue.add(t);
-        selector.wakeup();
+        // We are on the script thread, so the loop will see this before it next goes to sleep
+        timerWheel.add(t);
         return t;
     }
 
@@ -482,7 +637,8 @@ public class ScriptRunner
     {
         final RunnableTask t = new RunnableTask(r);
         t.setDomain(domain);
-        t.setTimeout(System.currentTimeMillis() + unit.toMillis(delay));
+        // This may be called from any thread, so read the clock rather than using the loop time
+        t.setTimeout(monotonicMillis() + unit.toMillis(delay));
         t.setRepeating(repeating);
         if (repeating) {
             t.setInterval(delay);
@@ -495,8 +651,7 @@ public class ScriptRunner
             {
                 if (!t.isCancelled()) {
                     t.setId(timerSequence++);
-                    timerQueue.add(t);
-                    selector.wakeup();
+                    timerWheel.add(t);
                 }
             }
         });
@@ -592,19 +747,42 @@ public class ScriptRunner
         throws NodeException
     {
         threadRunner.set(this);
-        ScriptStatus status;
+        ScriptStatus status = startScript();
+        if (status == null) {
+            try {
+                status = mainLoop();
+            } catch (IOException ioe) {
+                log.debug("I/O exception processing script: {}", ioe);
+                status = new ScriptStatus(ioe);
+            }
+        }
+        return finishScript(status);
+    }
 
+    /**
+     * Set up the global object and "process," and then run "trireme.js," which in turn runs the main
+     * script. Return null if the script should go on to run its event loop, or the final status if it is
+     * already done.
+     */
+    ScriptStatus startScript()
+    {
+        if (watchdog != null) {
+            watchdog.register(this);
+        }
+        if (env.isExportLoopStats()) {
+            registerStats();
+        }
         try {
-            engine = engineManager.getEngineByName("nashorn");
-            assert(engine instanceof Compilable);
-            assert(engine instanceof Invocable);
-            invocableEngine = (Invocable)engine;
-
-            context = engine.getContext();
-
             // Lazy first-time init of the node version.
             registry.load();
 
+            // All scripts for the same version share one engine, which holds the compiled code.
+            // Each gets its own global object, which is what gives it its own set of built-in
+            // objects and is why we never use the default context of the engine. The context
+            // may come from a pool and already has "trireme.js" linked in.
+            engine = registry.getScriptEngine();
+            context = registry.takeContext();
+
             try {
                 initGlobals();
             } catch (NodeException ne) {
@@ -613,20 +791,19 @@ public class ScriptRunner
                 initialized.countDown();
             }
 
-            // Run "trireme.js," which is our equivalent of "node.js". It returns a function that takes
+            // Run "trireme.js," which is our equivalent of "node.js". It defines a function that takes
             // "process". When done, we may have ticks to execute.
-            String mainScript = registry.getMainScriptSource();
-            CompiledScript mainCompiled =
-                ((Compilable)engine).compile(mainScript);
-            mainCompiled.eval();
-            //engine.eval(mainScript);
+            JSObject main = (JSObject)context.getAttribute("_triremeMain", ScriptContext.ENGINE_SCOPE);
 
+            // Setting up the globals may have taken a while, so don't start the timers from a stale time
+            loopTime = monotonicMillis();
+            // The time limit does not apply until "trireme.js" calls "mainStarted"
+            bootstrapping = true;
             boolean timing = startTiming();
             try {
                 // Pass the bindings (the globals) to the main function because it has to set its
                 // "global" variables in there.
-                invocableEngine.invokeFunction("_triremeMain", process,
-                                               engine.getBindings(ScriptContext.ENGINE_SCOPE));
+                main.call(null, process, context.getBindings(ScriptContext.ENGINE_SCOPE));
             } catch (Throwable t) {
                 boolean handled = handleScriptException(t);
                 if (!handled) {
@@ -636,26 +813,37 @@ public class ScriptRunner
                 if (timing) {
                     endTiming();
                 }
+                bootstrapping = false;
             }
+            return null;
 
-            status = mainLoop();
-
-        } catch (NodeExitException ne) {
-            // This exception is thrown by process.exit()
-            status = ne.getStatus();
-        } catch (IOException ioe) {
-            log.debug("I/O exception processing script: {}", ioe);
-            status = new ScriptStatus(ioe);
         } catch (Throwable t) {
-            if (exitCode >= 0) {
-                return new ScriptStatus(exitCode);
-            }
-            log.debug("Unexpected script error: {}", t);
-            status = new ScriptStatus(t);
+            return errorStatus(t);
         }
+    }
 
+    /**
+     * Fire the "exit" event, if it has not fired yet, and clean up everything that the script left open.
+     */
+    ScriptStatus finishScript(ScriptStatus s)
+    {
+        if (watchdog != null) {
+            synchronized (tickLock) {
+                watchdog.unregister(this);
+                tickStart = 0L;
+            }
+        }
+        if (statsName != null) {
+            unregisterStats();
+        }
+        ScriptStatus status = s;
         log.debug("Script exiting with exit code {}", status.getExitCode());
 
+        if (process == null) {
+            // We never got far enough to have anything to clean up
+            return status;
+        }
+
         if (!status.hasCause() && !Boolean.TRUE.equals(process.getMember("_exiting"))) {
             // Fire the exit callback, but only if we aren't exiting due to an unhandled exception, and "exit"
             // wasn't already fired because we called "exit"
@@ -703,73 +891,288 @@ public class ScriptRunner
     private ScriptStatus mainLoop()
         throws IOException
     {
-        // Exit if there's no work do to but only if we're not pinned by a module.
-        // We might exit if there are events on the timer queue if they are not also pinned.
-        while (!tickFunctions.isEmpty() || (pinCount.get() > 0) || needTickCallback || needImmediateCallback) {
-            try {
-                if ((future != null) && future.isCancelled()) {
-                    return ScriptStatus.CANCELLED;
-                }
-
-                // Call tick functions scheduled by process.nextTick. Node.js docs for
-                // process.nextTick say that these things run before anything else in the event loop
-                executeNextTicks();
+        while (true) {
+            ScriptStatus status = runTicks();
+            if (status != null) {
+                return status;
+            }
 
-                // Call tick functions scheduled by Java code.
-                executeTicks();
+            // Calculate how long we will wait in the call to select, taking into consideration
+            // what is on the timer queue and if there are pending ticks or immediate tasks.
+            // Like libuv, we use the time from when the loop last woke up.
+            long pollTimeout = getPollTimeout(loopTime);
 
-                // If necessary, call into the timer module to fire all the tasks set up with "setImmediate."
-                // Again, like regular Node, the docs say that these run before all I/O activity and all timers.
-                executeImmediateCallbacks();
-
-                // Calculate how long we will wait in the call to select, taking into consideration
-                // what is on the timer queue and if there are pending ticks or immediate tasks.
-                long now = System.currentTimeMillis();
-                long pollTimeout;
-                if (!tickFunctions.isEmpty() || needImmediateCallback || needTickCallback || (pinCount.get() == 0)) {
-                    // Immediate work -- need to keep spinning
-                    // Also keep spinning if we have no reason to keep the loop open
-                    pollTimeout = 0L;
-                } else if (timerQueue.isEmpty()) {
-                    pollTimeout = DEFAULT_DELAY;
-                } else {
-                    Activity nextActivity = timerQueue.peek();
-                    pollTimeout = (nextActivity.timeout - now);
+            // Check for network I/O and also sleep if necessary.
+            // A task queued from another thread will wake up the selector, but only if we are asleep,
+            // so look at the queue once more after saying that we are about to sleep.
+            long selectStart = System.nanoTime();
+            if (pollTimeout > 0L) {
+                if (log.isDebugEnabled()) {
+                    log.debug("mainLoop: sleeping for {} pinCount = {}", pollTimeout, pinCount.get());
                 }
-
-                // Check for network I/O and also sleep if necessary.
-                // Any new timer or tick will wake up the selector immediately
-                if (pollTimeout > 0L) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("mainLoop: sleeping for {} pinCount = {}", pollTimeout, pinCount.get());
-                    }
+                wakeup.prepareToSleep();
+                if (tickFunctions.isEmpty()) {
                     selector.select(pollTimeout);
                 } else {
-                    if (log.isDebugEnabled()) {
-                        log.debug("mainLoop: not sleeping");
-                    }
                     selector.selectNow();
                 }
+                wakeup.awake();
+            } else {
+                if (log.isDebugEnabled()) {
+                    log.debug("mainLoop: not sleeping");
+                }
+                selector.selectNow();
+            }
+            long selectEnd = System.nanoTime();
+            loopTime = selectEnd / 1000000L;
+            stats.recordIteration(selectEnd - selectStart);
+
+            // Fire the selected I/O functions, up to the network quantum
+            status = runSelectedKeys();
+            if (status != null) {
+                return status;
+            }
+
+            // Check the timer queue for all expired timers
+            status = runTimers(loopTime);
+            if (status != null) {
+                return status;
+            }
+        }
+    }
+
+    /**
+     * Fire the handlers for the keys that the last select chose, and those left over from earlier turns,
+     * until we run out or hit the network quantum. Keys that we don't get to stay in "readyKeys," in the order
+     * they were selected, and go first on the next turn. The selector keeps their ready operations up to date
+     * in the meantime, and a key that is selected again keeps its place.
+     */
+    private ScriptStatus runSelectedKeys()
+    {
+        Set<SelectionKey> selected = selector.selectedKeys();
+        readyKeys.addAll(selected);
+        selected.clear();
+        startNetworkPhase();
+        Iterator<SelectionKey> keys = readyKeys.iterator();
+        while (keys.hasNext()) {
+            SelectionKey selKey = keys.next();
+            if (!selKey.isValid()) {
+                // Closed by an earlier callback
+                keys.remove();
+                continue;
+            }
+            if (!canRunNetworkCallback()) {
+                break;
+            }
+            keys.remove();
+            ScriptStatus status = runNetworkCallback(selKey);
+            if (status != null) {
+                return status;
+            }
+        }
+        return null;
+    }
 
-                // Fire any selected I/O functions
-                executeNetworkCallbacks();
+    /**
+     * Start counting this script's network callbacks against the network quantum for a new turn of the loop.
+     */
+    void startNetworkPhase()
+    {
+        networkCount = 0;
+        networkNanos = 0L;
+        networkQuantumHit = false;
+    }
 
-                // Check the timer queue for all expired timers
-                executeTimerTasks(now);
+    /**
+     * Return true if the script may run another network callback on this turn. If it may not, that counts
+     * once as a hit of the network quantum, since the caller has a selected key that has to wait.
+     */
+    boolean canRunNetworkCallback()
+    {
+        if ((networkCount < networkQuantum) &&
+            ((networkQuantumNanos <= 0L) || (networkNanos < networkQuantumNanos))) {
+            return true;
+        }
+        if (!networkQuantumHit) {
+            networkQuantumHit = true;
+            stats.recordNetworkQuantumHit();
+        }
+        return false;
+    }
 
-            } catch (NodeExitException ne) {
-                // This exception is thrown by process.exit()
-                return ne.getStatus();
-            } catch (Throwable t) {
-                // All domain and process-wide error handling happened before we got here, so
-                // if we get a RhinoException here, then we know that it is fatal.
-                if (exitCode >= 0) {
-                    return new ScriptStatus(exitCode);
-                }
-                return new ScriptStatus(t);
+    /**
+     * Return true if another thread has queued a task for this script that it has not run yet.
+     */
+    boolean hasPendingTasks()
+    {
+        return !tickFunctions.isEmpty();
+    }
+
+    @Override
+    public EventLoopStats getLoopStats() {
+        return stats;
+    }
+
+    @Override
+    public NetworkStats getNetworkStats() {
+        return networkStats;
+    }
+
+    /**
+     * Internal: Return the number of timers waiting to fire. It may be a bit stale if called from
+     * another thread.
+     */
+    public int getTimerQueueSize() {
+        return timerWheel.size() + (expiredTimers.size() - expiredIndex);
+    }
+
+    /**
+     * Internal: Return the number of times that another thread had to wake up the event loop to run a task.
+     * When a loop is shared by many scripts, this is the count for the whole loop.
+     */
+    public long getWakeupCount() {
+        return wakeup.getWakeups();
+    }
+
+    /**
+     * Return true if the script still has a reason to run its event loop. We exit if there's no work to do,
+     * but only if we're not pinned by a module. We might exit if there are events on the timer queue
+     * if they are not also pinned.
+     */
+    boolean isAlive()
+    {
+        return !tickFunctions.isEmpty() || (pinCount.get() > 0) || needTickCallback || needImmediateCallback;
+    }
+
+    /**
+     * The first part of each turn of the event loop. Run the "nextTick" functions, the tasks on the tick queue
+     * up to the tick quantum, and the "setImmediate" tasks. Return the final status of the script if it is done,
+     * or null if it should keep running.
+     */
+    ScriptStatus runTicks()
+    {
+        if (timedOut) {
+            return timeoutStatus();
+        }
+        if (!isAlive()) {
+            return ScriptStatus.OK;
+        }
+        if ((future != null) && future.isCancelled()) {
+            return ScriptStatus.CANCELLED;
+        }
+        try {
+            // Call tick functions scheduled by process.nextTick. Node.js docs for
+            // process.nextTick say that these things run before anything else in the event loop
+            long start = System.nanoTime();
+            executeNextTicks();
+
+            // Call tick functions scheduled by Java code.
+            int depth = executeTicks(tickQuantum, tickQuantumNanos);
+            long ticksDone = System.nanoTime();
+            stats.recordTicks(ticksDone - start, depth);
+
+            // If necessary, call into the timer module to fire all the tasks set up with "setImmediate."
+            // Again, like regular Node, the docs say that these run before all I/O activity and all timers.
+            if (needImmediateCallback && !timedOut) {
+                executeImmediateCallbacks();
+                stats.recordImmediates(System.nanoTime() - ticksDone);
+            }
+            return (timedOut ? timeoutStatus() : null);
+
+        } catch (Throwable t) {
+            return errorStatus(t);
+        }
+    }
+
+    /**
+     * Return how long the event loop may wait for I/O before this script has something else to do.
+     */
+    long getPollTimeout(long now)
+    {
+        if (!tickFunctions.isEmpty() || needImmediateCallback || needTickCallback || (pinCount.get() == 0) ||
+            hasExpiredTimers() || !readyKeys.isEmpty()) {
+            // Immediate work -- need to keep spinning
+            // Also keep spinning if we have no reason to keep the loop open
+            return 0L;
+        }
+        if (timerWheel.isEmpty()) {
+            return DEFAULT_DELAY;
+        }
+        return timerWheel.getNextEventTime() - now;
+    }
+
+    /**
+     * Fire the handler for a selected key that belongs to this script.
+     */
+    ScriptStatus runNetworkCallback(SelectionKey selKey)
+    {
+        if (timedOut) {
+            return timeoutStatus();
+        }
+        long start = System.nanoTime();
+        boolean timed = startTiming();
+        networkCount++;
+        try {
+            ((SelectorHandler)selKey.attachment()).selected(selKey);
+            return (timedOut ? timeoutStatus() : null);
+        } catch (Throwable t) {
+            if (handleScriptException(t)) {
+                return null;
+            }
+            return errorStatus(t);
+        } finally {
+            if (timed) {
+                endTiming();
             }
+            long elapsed = System.nanoTime() - start;
+            networkNanos += elapsed;
+            stats.recordNetwork(elapsed);
+        }
+    }
+
+    /**
+     * The last part of each turn of the event loop: fire all the timers that expired as of "now."
+     */
+    ScriptStatus runTimers(long now)
+    {
+        loopTime = now;
+        if (timedOut) {
+            return timeoutStatus();
+        }
+        if (timerWheel.isEmpty() && !hasExpiredTimers()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            executeTimerTasks(now, start / 1000000L);
+            return (timedOut ? timeoutStatus() : null);
+        } catch (Throwable t) {
+            return errorStatus(t);
+        } finally {
+            stats.recordTimers(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Turn an exception that escaped all the handlers in to the final status of the script.
+     */
+    private ScriptStatus errorStatus(Throwable t)
+    {
+        if (timedOut) {
+            // Whatever went wrong, it was probably because the watchdog interrupted us
+            return timeoutStatus();
+        }
+        if (t instanceof NodeExitException) {
+            // This exception is thrown by process.exit()
+            return ((NodeExitException)t).getStatus();
         }
-        return ScriptStatus.OK;
+        // All domain and process-wide error handling happened before we got here, so
+        // if we get an exception here, then we know that it is fatal.
+        if (exitCode >= 0) {
+            return new ScriptStatus(exitCode);
+        }
+        log.debug("Unexpected script error: {}", t);
+        return new ScriptStatus(t);
     }
 
     private boolean handleScriptException(Throwable se)
@@ -780,6 +1183,10 @@ public class ScriptRunner
         if (exitCode >= 0) {
             return false;
         }
+        if (timedOut) {
+            // Don't let "uncaughtException" handlers keep a runaway script going
+            return false;
+        }
 
         // Stop script timing before we run this, so that we don't end up timing out the script twice!
         endTiming();
@@ -807,29 +1214,53 @@ public class ScriptRunner
      */
     public void executeTicks()
     {
-        Activity nextCall;
-        do {
-            nextCall = tickFunctions.poll();
-            if (nextCall != null) {
-                boolean timing = startTiming();
-                try {
-                    nextCall.execute();
-                } catch (Throwable t) {
-                    boolean handled = handleScriptException(t);
-                    if (!handled) {
-                        throw t;
-                    } else {
-                        // We can't keep looping here, because all these errors could cause starvation.
-                        // Let timers and network I/O run instead.
-                        return;
-                    }
-                } finally {
-                    if (timing) {
-                        endTiming();
-                    }
+        executeTicks(Integer.MAX_VALUE, 0L);
+    }
+
+    /**
+     * Execute at most "limit" ticks, for at most "maxNanos" if it is not zero, and leave the rest for the
+     * next turn of the loop. Return the number that we ran.
+     */
+    private int executeTicks(int limit, long maxNanos)
+    {
+        int count = 0;
+        long start = (maxNanos > 0L ? System.nanoTime() : 0L);
+        while (count < limit) {
+            if ((maxNanos > 0L) && (count > 0) && ((System.nanoTime() - start) >= maxNanos)) {
+                break;
+            }
+            if (timedOut) {
+                // Leave the rest -- the caller will end the script
+                return count;
+            }
+            Activity nextCall = tickFunctions.poll();
+            if (nextCall == null) {
+                return count;
+            }
+            count++;
+            boolean timing = startTiming();
+            try {
+                nextCall.execute();
+            } catch (Throwable t) {
+                boolean handled = handleScriptException(t);
+                if (!handled) {
+                    throw t;
+                } else {
+                    // We can't keep looping here, because all these errors could cause starvation.
+                    // Let timers and network I/O run instead.
+                    return count;
+                }
+            } finally {
+                if (timing) {
+                    endTiming();
                 }
             }
-        } while (nextCall != null);
+        }
+        // We used up the quantum -- it only counts if that left something for the next turn
+        if (!tickFunctions.isEmpty()) {
+            stats.recordTickQuantumHit();
+        }
+        return count;
     }
 
     /**
@@ -885,62 +1316,66 @@ public class ScriptRunner
         }
     }
 
-    /**
-     * Execute everything that the selector has told is is ready.
-     */
-    private void executeNetworkCallbacks()
+    private boolean hasExpiredTimers()
     {
-        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
-        while (keys.hasNext()) {
-            SelectionKey selKey = keys.next();
-            boolean timed = startTiming();
-            try {
-                ((SelectorHandler)selKey.attachment()).selected(selKey);
-            } catch (Throwable t) {
-                boolean handled = handleScriptException(t);
-                if (!handled) {
-                    throw t;
-                }
-            } finally {
-                if (timed) {
-                    endTiming();
-                }
-            }
-            keys.remove();
-        }
+        return expiredIndex < expiredTimers.size();
     }
 
-    private void executeTimerTasks(long now)
+    /**
+     * Fire expired timers until we run out or hit the timer quantum. Timers that expired but that we did not
+     * get to stay in "expiredTimers," and go first on the next turn.
+     */
+    private void executeTimerTasks(long now, long actualNow)
     {
-        Activity timed = timerQueue.peek();
-        while ((timed != null) && (timed.timeout <= now)) {
-            timerQueue.poll();
-            if (!timed.cancelled) {
-                boolean timing = startTiming();
-                try {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Executing timer {}", timed.id);
-                    }
-                    timed.execute();
-                } catch (Throwable t) {
-                    boolean handled = handleScriptException(t);
-                    if (!handled) {
-                        throw t;
-                    }
-                } finally {
-                    if (timing) {
-                        endTiming();
-                    }
+        if (!hasExpiredTimers()) {
+            expiredTimers.clear();
+            expiredIndex = 0;
+            timerWheel.expire(now, expiredTimers);
+        }
+        long start = (timerQuantumNanos > 0L ? System.nanoTime() : 0L);
+        int fired = 0;
+        try {
+            while (hasExpiredTimers() && !timedOut) {
+                if ((fired >= timerQuantum) ||
+                    ((timerQuantumNanos > 0L) && (fired > 0) && ((System.nanoTime() - start) >= timerQuantumNanos))) {
+                    stats.recordTimerQuantumHit();
+                    return;
                 }
-                if (timed.repeating && !timed.cancelled) {
-                    timed.timeout = now + timed.interval;
-                    if (log.isDebugEnabled()) {
-                        log.debug("Re-registering {} to fire at {}", timed.id, timed.timeout);
+                Activity timed = (Activity)expiredTimers.get(expiredIndex++);
+                // An earlier timer in this batch may have cancelled this one
+                if (!timed.cancelled) {
+                    fired++;
+                    stats.recordLag(actualNow - timed.timeout);
+                    boolean timing = startTiming();
+                    try {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Executing timer {}", timed.id);
+                        }
+                        timed.execute();
+                    } catch (Throwable t) {
+                        boolean handled = handleScriptException(t);
+                        if (!handled) {
+                            throw t;
+                        }
+                    } finally {
+                        if (timing) {
+                            endTiming();
+                        }
+                    }
+                    if (timed.repeating && !timed.cancelled) {
+                        timed.timeout = now + timed.interval;
+                        if (log.isDebugEnabled()) {
+                            log.debug("Re-registering {} to fire at {}", timed.id, timed.timeout);
+                        }
+                        timerWheel.add(timed);
                     }
-                    timerQueue.add(timed);
                 }
             }
-            timed = timerQueue.peek();
+        } catch (Throwable t) {
+            // The script is about to exit, so don't bother with the rest
+            expiredTimers.clear();
+            expiredIndex = 0;
+            throw t;
         }
     }
 
@@ -957,15 +1392,11 @@ public class ScriptRunner
 
         // Bootstrap the whole thing with "process," which is our own internal JS/Java code
         // This is implemented by the "process" internal module in each node implementation
-        Object exp = initializeModule("process", true, null, bootstrapModule, exports, "process.js");
-        try {
-            process = (JSObject)invocableEngine.invokeMethod(exp, "createProcess",
-                                                             new Object[] { this });
-        } catch (ScriptException|NoSuchMethodException e) {
-            throw new NodeException(e);
-        }
+        JSObject exp = (JSObject)initializeModule("process", true, null, bootstrapModule, exports, "process.js");
+        JSObject createProcess = (JSObject)exp.getMember("createProcess");
+        process = (JSObject)createProcess.call(exp, this);
 
-        engine.getBindings(ScriptContext.ENGINE_SCOPE).put("global", new DefaultScriptObject());
+        context.getBindings(ScriptContext.ENGINE_SCOPE).put("global", new DefaultScriptObject());
 
         // The buffer module needs special handling because of the "charsWritten" variable
         // TODO
@@ -984,21 +1415,39 @@ public class ScriptRunner
             return mod.getExports(this);
         }
 
-        String source = registry.getModuleSource(modName, internal);
-        if (source == null) {
+        JSObject func = (JSObject)getModuleFunction(modName, internal);
+        if (func == null) {
+            return null;
+        }
+        func.call(null, exports, require, module, fileName);
+        return ((JSObject)module).getMember("exports");
+    }
+
+    /**
+     * Return a function that, when called with "exports, require, module, __filename," and "__dirname,"
+     * will initialize a built-in module implemented in JavaScript. The module is compiled only once
+     * for all the scripts that share the registry, and then bound to the global object of this script.
+     */
+    public Object getModuleFunction(String modName, boolean internal)
+    {
+        CompiledScript compiled = registry.getModule(modName, internal);
+        if (compiled == null) {
             return null;
         }
         try {
-            engine.eval(registry.wrapSource(source, modName, modName));
+            return compiled.eval(context);
         } catch (ScriptException se) {
             throw new NodeException("Error initializing module: " + se, se);
         }
+    }
 
-        try {
-            return invocableEngine.invokeFunction('_' + modName + "Module", require, module, exports, fileName);
-        } catch (ScriptException|NoSuchMethodException e) {
-            throw new NodeException(e);
-        }
+    /**
+     * Compile a script using the engine and the class cache shared with other scripts. The result
+     * may be evaluated using the context of this script to run it in our global scope.
+     */
+    public CompiledScript compileScript(String source, String fileName)
+    {
+        return registry.compile(source, fileName);
     }
 
     /**
@@ -1013,6 +1462,30 @@ public class ScriptRunner
         return mod.getExports(this);
     }
 
+    /**
+     * Called by "NativeModule.require" and "process.binding" after each built-in module is loaded for
+     * the first time, with the value of System.nanoTime() from just before the load started.
+     */
+    @SuppressWarnings("unused")
+    public void recordModuleLoad(String name, long startTime)
+    {
+        long elapsed = System.nanoTime() - startTime;
+        synchronized (moduleLoadTimes) {
+            moduleLoadTimes.put(name, elapsed);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Loaded {} in {} us", name, TimeUnit.NANOSECONDS.toMicros(elapsed));
+        }
+    }
+
+    @Override
+    public Map<String, Long> getModuleLoadTimes()
+    {
+        synchronized (moduleLoadTimes) {
+            return new LinkedHashMap<>(moduleLoadTimes);
+        }
+    }
+
     /**
      * Simply return a native module's source code for direct loading into the script engine.
      */
@@ -1030,34 +1503,185 @@ public class ScriptRunner
         throws IllegalAccessException, InstantiationException
     {
         return (registry.getJavaModule(name, false) != null) ||
-               (registry.getModule(name, engine, false) != null);
+               registry.hasModule(name, false);
     }
 
+    /**
+     * Mark the start of a tick, so that the watchdog can see how long it runs, and so that we can count
+     * its CPU time. Return true if the caller needs to call "endTiming."
+     */
     private boolean startTiming()
     {
-        /* Here is where we could time script execution and stop it -- not supported in Nashorn
-        if (env != null) {
-            long tl = env.getScriptTimeLimit();
-            if (tl > 0L) {
-                cx.putThreadLocal(TIMEOUT_TIMESTAMP_KEY, System.currentTimeMillis() + tl);
-                return true;
-            }
+        if (!timingEnabled || (tickStart != 0L)) {
+            return false;
         }
-        */
-        return false;
+        if (cpuTimeSupported) {
+            tickCpuStart = threadMx.getCurrentThreadCpuTime();
+        }
+        tickThread = Thread.currentThread();
+        tickStart = System.nanoTime();
+        return true;
     }
 
+    /**
+     * Mark the end of a tick. This may be called more than once for the same tick. If the tick ran over the
+     * time limit, then the script is marked as timed out here even if the watchdog has not looked yet, so
+     * that no more of its callbacks run.
+     */
     private void endTiming()
     {
-        // Not suported in Nashorn yet
-        //cx.removeThreadLocal(TIMEOUT_TIMESTAMP_KEY);
+        long start = tickStart;
+        if (start == 0L) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (tickLock) {
+            tickStart = 0L;
+            if ((watchdog != null) && !timedOut && !bootstrapping &&
+                ((now - start) >= watchdog.getLimit(TimeUnit.NANOSECONDS))) {
+                markTimedOut();
+            }
+        }
+        if (cpuTimeSupported) {
+            cpuTime += threadMx.getCurrentThreadCpuTime() - tickCpuStart;
+        }
+        if (timedOut) {
+            // Don't let the watchdog's interrupt leak in to the code that cleans up after us
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Called by "trireme.js" when it has set up "process" and the rest of the runtime and is about to run the
+     * main script. That setup is our work, not the script's, and on a cold JVM it can take longer than a
+     * reasonable time limit, so the limit for the first tick only counts from here.
+     */
+    @SuppressWarnings("unused")
+    public void mainStarted()
+    {
+        synchronized (tickLock) {
+            if (tickStart != 0L) {
+                tickStart = System.nanoTime();
+            }
+            bootstrapping = false;
+        }
+    }
+
+    /**
+     * Called by the watchdog thread. If the current tick started before "now" minus the limit, then
+     * mark the script as timed out, and interrupt its thread if it has one to itself. The script exits as
+     * soon as the tick returns. Nashorn has no way to break in to a script that is stuck in a loop, and
+     * stopping its thread could leave the engine, or an event loop that other scripts share, in a broken
+     * state. So if the same tick is still running after another whole limit has passed, we give up on it
+     * instead: its future fails with a timeout right away, and if it is on an event loop, no new scripts
+     * are sent to that loop.
+     */
+    void checkTimeLimit(long now, long limitNanos)
+    {
+        long start = tickStart;
+        if ((start == 0L) || bootstrapping || abandoned || ((now - start) < limitNanos)) {
+            return;
+        }
+        synchronized (tickLock) {
+            // Holding the lock means the tick cannot end while we decide what to do
+            if ((tickStart != start) || bootstrapping) {
+                return;
+            }
+            if (!timedOut) {
+                markTimedOut();
+                if (loop == null) {
+                    // Break out of any blocking call. An event loop thread belongs to other scripts too,
+                    // and interrupting it would close their channels.
+                    tickThread.interrupt();
+                }
+                return;
+            }
+            if ((now - start) < (limitNanos * 2L)) {
+                return;
+            }
+            abandoned = true;
+        }
+        abandon();
+    }
+
+    /**
+     * Must be called with "tickLock" held.
+     */
+    private void markTimedOut()
+    {
+        timedOut = true;
+        watchdog.recordTimeout();
+        log.warn("Script has spent more than {} milliseconds in one tick and will be stopped",
+                 watchdog.getLimit(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Give up on a script whose tick ignored the time limit and the interrupt. Its thread keeps running the
+     * tick, and if the tick ever returns, the script exits then as it would have anyway.
+     */
+    private void abandon()
+    {
+        log.warn("Script did not return from a tick that ran over the time limit -- abandoning thread {}",
+                 tickThread.getName());
+        if (loop != null) {
+            loop.retire();
+        }
+        if (future != null) {
+            future.complete(timeoutStatus());
+        }
+    }
+
+    private void registerStats()
+    {
+        try {
+            ObjectName name =
+                new ObjectName("io.apigee.rowboat:type=EventLoop,name=script-" + lastScriptId.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, name);
+            statsName = name;
+        } catch (JMException je) {
+            log.warn("Cannot register event loop statistics: {}", je);
+        }
+    }
+
+    private void unregisterStats()
+    {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(statsName);
+        } catch (JMException je) {
+            log.debug("Cannot unregister event loop statistics: {}", je);
+        }
+        statsName = null;
+    }
+
+    private ScriptStatus timeoutStatus()
+    {
+        return new ScriptStatus(new ScriptTimeoutException(
+            "Script exceeded the time limit of " + env.getScriptTimeLimit() + " milliseconds"));
+    }
+
+    @Override
+    public long getCpuTime()
+    {
+        if (!timingEnabled || !cpuTimeSupported) {
+            return -1L;
+        }
+        long total = cpuTime;
+        Thread t = tickThread;
+        if ((tickStart != 0L) && (t != null)) {
+            // Count the tick that is running now too, which may be one that never returned
+            long threadCpu = threadMx.getThreadCpuTime(t.getId());
+            if (threadCpu > tickCpuStart) {
+                total += threadCpu - tickCpuStart;
+            }
+        }
+        return total;
     }
 
     public abstract class Activity
+        extends TimerWheel.Entry
         implements Comparable<Activity>
     {
         protected int id;
-        protected long timeout;
         protected long interval;
         protected boolean repeating;
         protected boolean cancelled;
@@ -1103,6 +1727,11 @@ public class ScriptRunner
 
         public void setCancelled(boolean cancelled) {
             this.cancelled = cancelled;
+            // Take it off the timer wheel now rather than when it would have fired, but only from the
+            // script thread, since the wheel is not thread-safe.
+            if (cancelled && isScheduled() && (threadRunner.get() == ScriptRunner.this)) {
+                timerWheel.remove(this);
+            }
         }
 
         public Object getDomain() {
@@ -1141,13 +1770,23 @@ public class ScriptRunner
         }
 
         /**
-         * Submit the tick, with support for domains handled in JavaScript.
-         * This is also necessary because not everything that we do is a "top level function" in JS
-         * and we cannot invoke those functions directly from Java code.
+         * Submit the tick, with support for domains handled in JavaScript. Until domains are in use,
+         * "submitTick" would only call the function and then "process._tickCallback," so we do that
+         * ourselves and pass the arguments straight through instead of copying them twice.
          */
         @Override
         void execute()
         {
+            if (!usingDomains) {
+                function.call(thisObj, (args == null ? EMPTY_ARGS : args));
+                // node.cc always re-calls the ticks after executing a callback.
+                if (tickCallback == null) {
+                    tickCallback = (JSObject)process.getMember("_tickCallback");
+                }
+                tickCallback.call(process, EMPTY_ARGS);
+                return;
+            }
+
             Object[] callArgs =
                 new Object[(args == null ? 0 : args.length) + 3];
             callArgs[0] = function;
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ *     Enforces the script time limit for a NodeEnvironment. Every script that is running registers here, and
+ *     a single thread looks at all of them a few times per time limit to see if any has spent too long in one
+ *     tick. It is up to ScriptRunner to decide how to stop a script that has.
+ * </p>
+ * <p>
+ *     Nashorn has no way to interrupt a script in the middle of a loop, like Rhino's instruction observer.
+ *     So a script that runs over is marked and interrupted, and it exits when the tick returns. Thread.stop
+ *     could leave the shared engine or event loop broken, so it is never used. If the tick is still running
+ *     after another whole limit has passed, as it will be in a "while (true)," the script's future fails
+ *     with a timeout, and its event loop, if it has one, is replaced for new scripts. The thread itself
+ *     keeps running the tick until it returns.
+ * </p>
+ */
+public class ScriptWatchdog
+{
+    private static final Logger log = LoggerFactory.getLogger(ScriptWatchdog.class);
+
+    private static final long MIN_INTERVAL_MS = 10L;
+    private static final long MAX_INTERVAL_MS = 250L;
+
+    private final long limitNanos;
+    private final Set<ScriptRunner> runners = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService checker;
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public ScriptWatchdog(long limit, TimeUnit unit)
+    {
+        this.limitNanos = unit.toNanos(limit);
+        long interval =
+            Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, unit.toMillis(limit) / 4L));
+
+        this.checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Rowboat Script Watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public long getLimit(TimeUnit unit) {
+        return unit.convert(limitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Return the number of ticks that ran over the time limit.
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    void register(ScriptRunner r)
+    {
+        runners.add(r);
+    }
+
+    void unregister(ScriptRunner r)
+    {
+        runners.remove(r);
+    }
+
+    void recordTimeout()
+    {
+        timeouts.incrementAndGet();
+    }
+
+    public void close()
+    {
+        checker.shutdownNow();
+        runners.clear();
+    }
+
+    private void check()
+    {
+        long now = System.nanoTime();
+        for (ScriptRunner r : runners) {
+            try {
+                r.checkTimeLimit(now, limitNanos);
+            } catch (Throwable t) {
+                // Don't let one bad script stop us from watching the others
+                log.warn("Error checking script time limit: {}", t);
+            }
+        }
+    }
+}
@@ -61,9 +61,22 @@ public class SoftClassCache
         cache.put(key, new SoftReference<CompiledScript>(script));
     }
 
+    @Override
+    public long getBytesHeld()
+    {
+        long total = 0L;
+        for (SoftReference<CompiledScript> ref : cache.values()) {
+            CompiledScript s = ref.get();
+            if (s instanceof CachedScript) {
+                total += ((CachedScript)s).getSize();
+            }
+        }
+        return total;
+    }
+
     @Override
     public String toString()
     {
-        return "SoftClassCache [ ops = " + totalOps + " hits = " + hits + " ]";
+        return "SoftClassCache [ ops = " + totalOps + " hits = " + hits + " bytes = " + getBytesHeld() + " ]";
     }
 }
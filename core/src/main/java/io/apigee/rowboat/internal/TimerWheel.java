@@ -0,0 +1,338 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.internal;
+
+import java.util.List;
+
+/**
+ * <p>
+ *     A hierarchical timing wheel that holds the timers for a single script. It is not thread-safe, and is
+ *     only touched from the script thread. Adding and removing a timer takes constant time, and a cancelled
+ *     timer is unlinked right away, so a socket that resets its idle timeout on every request does not leave
+ *     a trail of dead timers behind like it would in a priority queue.
+ * </p>
+ * <p>
+ *     Time is measured in milliseconds. The first level has one slot per millisecond for the next 256
+ *     milliseconds. Each of the four levels above that has 64 slots, each one covering 64 times as much time
+ *     as a slot on the level below it, which covers about 49 days in all. Whenever the first level wraps
+ *     around, the timers in the next slot of the level above are "cascaded" down into the lower levels, as
+ *     in the classic Linux kernel timer wheel. Bitmaps of the non-empty slots make it cheap to find out
+ *     how long the event loop may sleep.
+ * </p>
+ */
+public class TimerWheel
+{
+    private static final int L0_BITS = 8;
+    private static final int L0_SIZE = 1 << L0_BITS;
+    private static final int L0_MASK = L0_SIZE - 1;
+    private static final int LN_BITS = 6;
+    private static final int LN_SIZE = 1 << LN_BITS;
+    private static final int LN_MASK = LN_SIZE - 1;
+    private static final int LEVELS = 5;
+    private static final long MAX_DELTA = (1L << (L0_BITS + (LN_BITS * (LEVELS - 1)))) - 1L;
+
+    private final Entry[][] slots = new Entry[LEVELS][];
+    private final long[] l0Bits = new long[L0_SIZE / 64];
+    private final long[] lnBits = new long[LEVELS];
+
+    /** The next tick that has not been processed yet. */
+    private long currentTick;
+    private int count;
+
+    public TimerWheel(long now)
+    {
+        this.currentTick = now;
+        slots[0] = new Entry[L0_SIZE];
+        for (int i = 1; i < LEVELS; i++) {
+            slots[i] = new Entry[LN_SIZE];
+        }
+    }
+
+    /**
+     * Anything that may be put on the wheel. The wheel links entries together using fields in the entry
+     * itself, so that nothing is allocated to add or remove one.
+     */
+    public abstract static class Entry
+    {
+        protected long timeout;
+
+        Entry wheelPrev;
+        Entry wheelNext;
+        int wheelLevel = -1;
+        int wheelSlot;
+
+        public boolean isScheduled() {
+            return (wheelLevel >= 0);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return (count == 0);
+    }
+
+    /**
+     * Add an entry that will expire at its "timeout." If it is already on the wheel it is moved.
+     */
+    public void add(Entry e)
+    {
+        if (e.isScheduled()) {
+            remove(e);
+        }
+        place(e);
+        count++;
+    }
+
+    /**
+     * Remove an entry. This does nothing if it is not on the wheel.
+     */
+    public void remove(Entry e)
+    {
+        if (!e.isScheduled()) {
+            return;
+        }
+        unlink(e);
+        count--;
+    }
+
+    /**
+     * Return the earliest time at which anything on the wheel might expire, or Long.MAX_VALUE if the wheel
+     * is empty. This may be earlier than the timeout of any entry, since it includes the times when
+     * entries on the higher levels are moved down a level, but it is never later.
+     */
+    public long getNextEventTime()
+    {
+        if (count == 0) {
+            return Long.MAX_VALUE;
+        }
+
+        long next = Long.MAX_VALUE;
+        int idx = (int)(currentTick & L0_MASK);
+        long base = currentTick - idx;
+        int s = nextL0Slot(idx, L0_SIZE);
+        if (s >= 0) {
+            next = base + s;
+        } else {
+            s = nextL0Slot(0, idx);
+            if (s >= 0) {
+                next = base + L0_SIZE + s;
+            }
+        }
+
+        for (int level = 1; level < LEVELS; level++) {
+            long bits = lnBits[level];
+            if (bits == 0L) {
+                continue;
+            }
+            int shift = levelShift(level);
+            long hi = currentTick >> shift;
+            boolean aligned = ((currentTick & ((1L << shift) - 1L)) == 0L);
+            long rotated = Long.rotateRight(bits, (int)(hi & LN_MASK));
+            int d;
+            if (aligned) {
+                d = Long.numberOfTrailingZeros(rotated);
+            } else if ((rotated & ~1L) != 0L) {
+                d = Long.numberOfTrailingZeros(rotated & ~1L);
+            } else {
+                // Only the current slot is used, and it is for the next time around
+                d = LN_SIZE;
+            }
+            next = Math.min(next, (hi + d) << shift);
+        }
+        return next;
+    }
+
+    /**
+     * Remove every entry whose timeout is at or before "now" and add them to "expired," in order.
+     */
+    public void expire(long now, List<Entry> expired)
+    {
+        while (currentTick <= now) {
+            if (count == 0) {
+                currentTick = now + 1L;
+                return;
+            }
+            long next = getNextEventTime();
+            if (next > now) {
+                // Nothing happens in between, including moving entries down a level
+                currentTick = now + 1L;
+                return;
+            }
+            currentTick = next;
+
+            int idx = (int)(currentTick & L0_MASK);
+            if (idx == 0) {
+                cascade();
+            }
+            Entry e = slots[0][idx];
+            while (e != null) {
+                Entry n = e.wheelNext;
+                unlink(e);
+                count--;
+                expired.add(e);
+                e = n;
+            }
+            currentTick++;
+        }
+    }
+
+    /**
+     * At the start of each turn of the first level, move the entries from the next slot of the second level
+     * down. If that was the first slot of the second level, do the same for the third level, and so on.
+     */
+    private void cascade()
+    {
+        for (int level = 1; level < LEVELS; level++) {
+            int idx = (int)((currentTick >> levelShift(level)) & LN_MASK);
+            Entry e = slots[level][idx];
+            while (e != null) {
+                Entry n = e.wheelNext;
+                unlink(e);
+                place(e);
+                e = n;
+            }
+            if (idx != 0) {
+                break;
+            }
+        }
+    }
+
+    private static int levelShift(int level)
+    {
+        return L0_BITS + (LN_BITS * (level - 1));
+    }
+
+    private void place(Entry e)
+    {
+        long expires = e.timeout;
+        long delta = expires - currentTick;
+        if (delta < 0L) {
+            // Already expired -- fire on the next tick
+            expires = currentTick;
+            delta = 0L;
+        } else if (delta > MAX_DELTA) {
+            expires = currentTick + MAX_DELTA;
+            delta = MAX_DELTA;
+        }
+
+        int level;
+        int slot;
+        if (delta < L0_SIZE) {
+            level = 0;
+            slot = (int)(expires & L0_MASK);
+        } else {
+            level = 1;
+            while (delta >= (1L << (levelShift(level) + LN_BITS))) {
+                level++;
+            }
+            slot = (int)((expires >> levelShift(level)) & LN_MASK);
+        }
+        link(e, level, slot);
+    }
+
+    private void link(Entry e, int level, int slot)
+    {
+        Entry[] row = slots[level];
+        Entry head = row[slot];
+        e.wheelLevel = level;
+        e.wheelSlot = slot;
+        e.wheelNext = null;
+        if (head == null) {
+            // The head's "prev" points to the tail so that we can append in constant time
+            e.wheelPrev = e;
+            row[slot] = e;
+            setBit(level, slot);
+        } else {
+            Entry tail = head.wheelPrev;
+            tail.wheelNext = e;
+            e.wheelPrev = tail;
+            head.wheelPrev = e;
+        }
+    }
+
+    private void unlink(Entry e)
+    {
+        Entry[] row = slots[e.wheelLevel];
+        Entry head = row[e.wheelSlot];
+        if (e == head) {
+            row[e.wheelSlot] = e.wheelNext;
+            if (e.wheelNext == null) {
+                clearBit(e.wheelLevel, e.wheelSlot);
+            } else {
+                e.wheelNext.wheelPrev = e.wheelPrev;
+            }
+        } else {
+            e.wheelPrev.wheelNext = e.wheelNext;
+            if (e.wheelNext == null) {
+                head.wheelPrev = e.wheelPrev;
+            } else {
+                e.wheelNext.wheelPrev = e.wheelPrev;
+            }
+        }
+        e.wheelPrev = null;
+        e.wheelNext = null;
+        e.wheelLevel = -1;
+    }
+
+    private void setBit(int level, int slot)
+    {
+        if (level == 0) {
+            l0Bits[slot >> 6] |= (1L << slot);
+        } else {
+            lnBits[level] |= (1L << slot);
+        }
+    }
+
+    private void clearBit(int level, int slot)
+    {
+        if (level == 0) {
+            l0Bits[slot >> 6] &= ~(1L << slot);
+        } else {
+            lnBits[level] &= ~(1L << slot);
+        }
+    }
+
+    /**
+     * Return the first non-empty slot on the first level from "start" up to but not including "end,"
+     * or -1 if there is none.
+     */
+    private int nextL0Slot(int start, int end)
+    {
+        for (int w = start >> 6; w < l0Bits.length; w++) {
+            long bits = l0Bits[w];
+            if (w == (start >> 6)) {
+                bits &= (-1L << start);
+            }
+            if (bits != 0L) {
+                int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                return (s < end ? s : -1);
+            }
+            if (((w + 1) << 6) >= end) {
+                break;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,200 @@
+package io.apigee.rowboat.internal.test;
+
+import io.apigee.rowboat.BufferPoolStats;
+import io.apigee.rowboat.internal.BufferPool;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class BufferPoolTest
+{
+    @Test
+    public void testBorrow()
+    {
+        assumeTrue(BufferPool.VIEWS_KEEP_PARENT);
+        BufferPool pool = new BufferPool(1024L * 1024L);
+        ByteBuffer small = pool.borrow(100);
+        assertTrue(small.isDirect());
+        assertEquals(0, small.position());
+        assertEquals(100, small.limit());
+        assertEquals(100, small.capacity());
+
+        ByteBuffer big = pool.borrow(BufferPool.MAX_SIZE);
+        assertTrue(big.isDirect());
+        assertEquals(BufferPool.MAX_SIZE, big.capacity());
+
+        // Too big for any size class
+        ByteBuffer huge = pool.borrow(BufferPool.MAX_SIZE + 1);
+        assertFalse(huge.isDirect());
+        assertEquals(BufferPool.MAX_SIZE + 1, huge.capacity());
+
+        BufferPoolStats stats = pool.getStats();
+        assertEquals(2L, stats.getHits());
+        assertEquals(1L, stats.getMisses());
+        assertEquals(2L, stats.getOutstanding());
+        assertEquals(1024L + BufferPool.MAX_SIZE, stats.getBytesInUse());
+        assertEquals(2L * BufferPool.SLAB_SIZE, stats.getCapacity());
+    }
+
+    /**
+     * Where the JVM can't tell us when a lent buffer is free, reads get heap buffers, but scratch buffers
+     * still come from the pool.
+     */
+    @Test
+    public void testNoDirectLoans()
+    {
+        BufferPool pool = new BufferPool(1024L * 1024L, false);
+        assertFalse(pool.borrow(100).isDirect());
+        assertFalse(pool.borrow(BufferPool.MAX_SIZE).isDirect());
+        ByteBuffer s = pool.takeScratch();
+        assertTrue(s.isDirect());
+        pool.returnScratch(s);
+
+        BufferPoolStats stats = pool.getStats();
+        assertEquals(2L, stats.getMisses());
+        assertEquals(1L, stats.getHits());
+        assertEquals(0L, stats.getOutstanding());
+        assertEquals((long)BufferPool.MAX_SIZE, stats.getCapacity());
+
+        // A pool only lends direct buffers by default where it can tell when they are free
+        assertEquals(BufferPool.VIEWS_KEEP_PARENT, new BufferPool(1024L * 1024L).borrow(100).isDirect());
+    }
+
+    /**
+     * Once the pool has allocated all the memory that it may, reads get heap buffers.
+     */
+    @Test
+    public void testFull()
+    {
+        assumeTrue(BufferPool.VIEWS_KEEP_PARENT);
+        BufferPool pool = new BufferPool(64L * 1024L);
+        ByteBuffer[] held = new ByteBuffer[2];
+        held[0] = pool.borrow(BufferPool.MAX_SIZE);
+        held[1] = pool.borrow(BufferPool.MAX_SIZE);
+        assertTrue(held[0].isDirect());
+        assertTrue(held[1].isDirect());
+        assertFalse(pool.borrow(BufferPool.MAX_SIZE).isDirect());
+        assertFalse(pool.borrow(10).isDirect());
+        assertEquals(64L * 1024L, pool.getStats().getCapacity());
+        assertEquals(2L, pool.getStats().getMisses());
+    }
+
+    /**
+     * A buffer comes back when nothing can reach it, but not while a view of it is still around.
+     */
+    @Test
+    public void testReturn()
+        throws InterruptedException
+    {
+        assumeTrue(BufferPool.VIEWS_KEEP_PARENT);
+        BufferPool pool = new BufferPool(BufferPool.MAX_SIZE);
+        ByteBuffer buf = pool.borrow(BufferPool.MAX_SIZE);
+        buf.put(0, (byte)1);
+        ByteBuffer view = buf.duplicate();
+        buf = null;
+
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(10L);
+            assertFalse(pool.borrow(BufferPool.MAX_SIZE).isDirect());
+        }
+        assertEquals(1, view.get(0));
+        assertEquals(0L, pool.getStats().getReturns());
+
+        view = null;
+        ByteBuffer again = null;
+        for (int i = 0; (i < 100) && (again == null); i++) {
+            System.gc();
+            Thread.sleep(10L);
+            ByteBuffer b = pool.borrow(BufferPool.MAX_SIZE);
+            if (b.isDirect()) {
+                again = b;
+            }
+        }
+        assertNotNull(again);
+        assertEquals(1L, pool.getStats().getReturns());
+        assertEquals(1L, pool.getStats().getOutstanding());
+
+        pool.close();
+        assertEquals(1L, pool.getStats().getLeaked());
+        assertEquals(0L, pool.getStats().getCapacity());
+        assertFalse(pool.borrow(100).isDirect());
+    }
+
+    /**
+     * Scratch buffers come out of the same memory as everything else, and go back for the next reader.
+     */
+    @Test
+    public void testScratch()
+    {
+        BufferPool pool = new BufferPool(BufferPool.MAX_SIZE);
+        ByteBuffer s1 = pool.takeScratch();
+        assertTrue(s1.isDirect());
+        assertEquals(BufferPool.MAX_SIZE, s1.capacity());
+        assertEquals(BufferPool.MAX_SIZE, pool.getStats().getCapacity());
+        assertFalse(pool.borrow(10).isDirect());
+
+        // The limit is reached, so a second reader at the same time gets heap memory
+        ByteBuffer s2 = pool.takeScratch();
+        assertFalse(s2.isDirect());
+        pool.returnScratch(s2);
+
+        s1.put((byte)1);
+        pool.returnScratch(s1);
+        ByteBuffer again = pool.takeScratch();
+        assertSame(s1, again);
+        assertEquals(0, again.position());
+        assertEquals(BufferPool.MAX_SIZE, pool.getStats().getCapacity());
+        pool.returnScratch(again);
+
+        pool.close();
+        assertEquals(0L, pool.getStats().getCapacity());
+    }
+
+    /**
+     * Memory that comes back while one thread is borrowing must still be there for other threads after
+     * that thread goes away.
+     */
+    @Test
+    public void testShortLivedThreads()
+        throws InterruptedException
+    {
+        assumeTrue(BufferPool.VIEWS_KEEP_PARENT);
+        BufferPool pool = new BufferPool(2L * BufferPool.MAX_SIZE);
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    ByteBuffer s = pool.takeScratch();
+                    pool.returnScratch(s);
+                    ByteBuffer buf = null;
+                    for (int j = 0; (j < 100) && (buf == null); j++) {
+                        ByteBuffer b = pool.borrow(BufferPool.MAX_SIZE);
+                        if (b.isDirect()) {
+                            buf = b;
+                        } else {
+                            System.gc();
+                            Thread.sleep(10L);
+                        }
+                    }
+                    if (buf == null) {
+                        failures.incrementAndGet();
+                    }
+                } catch (InterruptedException ie) {
+                    failures.incrementAndGet();
+                }
+            });
+            t.start();
+            t.join();
+        }
+
+        assertEquals(0, failures.get());
+        // One scratch buffer and one region for each thread
+        assertEquals(40L, pool.getStats().getHits());
+        assertEquals(2L * BufferPool.MAX_SIZE, pool.getStats().getCapacity());
+    }
+}
@@ -0,0 +1,110 @@
+package io.apigee.rowboat.internal.test;
+
+import io.apigee.rowboat.internal.LoopWakeup;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LoopWakeupTest
+{
+    private static final int TASKS = 20000;
+    private static final long SLEEP_MILLIS = 10000L;
+
+    /**
+     * A producer may see that the loop is asleep, and then set its flag and wake the selector just after the
+     * loop has called "awake." If the loop then polls with "selectNow," which uses up that wakeup, then the
+     * next producer must still wake the loop once it goes back to sleep.
+     */
+    @Test
+    public void testLateWakeup()
+        throws IOException
+    {
+        Selector selector = Selector.open();
+        LoopWakeup wakeup = new LoopWakeup(selector);
+        try {
+            // Leave the state that a late producer leaves behind: the flag is set but the loop is awake
+            wakeup.prepareToSleep();
+            wakeup.wakeup();
+            assertEquals(1L, wakeup.getWakeups());
+            selector.selectNow();
+
+            wakeup.prepareToSleep();
+            wakeup.wakeup();
+            assertEquals(2L, wakeup.getWakeups());
+            long start = System.nanoTime();
+            selector.select(SLEEP_MILLIS);
+            wakeup.awake();
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(SLEEP_MILLIS / 2));
+        } finally {
+            selector.close();
+        }
+    }
+
+    /**
+     * Run a loop that polls with "selectNow" on every turn before it sleeps, as the real loops do whenever
+     * they have more work. One thread keeps calling "wakeup" so that some of its calls land just after the
+     * loop is awake again, and another queues tasks one at a time. Every task must run long before the
+     * loop would have woken up by itself.
+     */
+    @Test
+    public void testWakeupAfterPoll()
+        throws IOException, InterruptedException
+    {
+        final Selector selector = Selector.open();
+        final LoopWakeup wakeup = new LoopWakeup(selector);
+        final ConcurrentLinkedQueue<Integer> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicInteger received = new AtomicInteger();
+
+        Thread loop = new Thread(() -> {
+            try {
+                while (received.get() < TASKS) {
+                    while (tasks.poll() != null) {
+                        received.incrementAndGet();
+                    }
+                    selector.selectNow();
+                    wakeup.prepareToSleep();
+                    if (tasks.isEmpty()) {
+                        selector.select(SLEEP_MILLIS);
+                    } else {
+                        selector.selectNow();
+                    }
+                    wakeup.awake();
+                }
+            } catch (IOException ioe) {
+                throw new AssertionError(ioe);
+            }
+        });
+        Thread noise = new Thread(() -> {
+            while (received.get() < TASKS) {
+                wakeup.wakeup();
+                Thread.yield();
+            }
+        });
+        loop.start();
+        noise.start();
+
+        try {
+            for (int i = 0; i < TASKS; i++) {
+                tasks.offer(i);
+                wakeup.wakeup();
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2L);
+                while (received.get() <= i) {
+                    assertTrue("Task " + i + " was not picked up", System.nanoTime() < deadline);
+                    Thread.yield();
+                }
+            }
+        } finally {
+            received.set(TASKS);
+            selector.wakeup();
+            loop.join();
+            noise.join();
+            selector.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.apigee.rowboat.internal.test;
+
+import io.apigee.rowboat.internal.MpscQueue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MpscQueueTest
+{
+    @Test
+    public void testBasic()
+    {
+        MpscQueue<String> q = new MpscQueue<>();
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+        q.offer("one");
+        q.offer("two");
+        assertFalse(q.isEmpty());
+        assertEquals("one", q.poll());
+        assertEquals("two", q.poll());
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+        q.offer("three");
+        assertEquals("three", q.poll());
+        assertTrue(q.isEmpty());
+    }
+
+    /**
+     * Every item from every producer must come out exactly once, and in the order that each producer
+     * added them.
+     */
+    @Test
+    public void testProducers()
+        throws InterruptedException
+    {
+        final int producers = 4;
+        final int count = 100000;
+        MpscQueue<long[]> q = new MpscQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    q.offer(new long[] { id, i });
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        long[] next = new long[producers];
+        int taken = 0;
+        while (taken < (producers * count)) {
+            long[] item = q.poll();
+            if (item != null) {
+                assertEquals(next[(int)item[0]], item[1]);
+                next[(int)item[0]]++;
+                taken++;
+            }
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(q.poll());
+        assertTrue(q.isEmpty());
+    }
+}
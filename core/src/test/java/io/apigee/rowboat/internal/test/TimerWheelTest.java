@@ -0,0 +1,184 @@
+package io.apigee.rowboat.internal.test;
+
+import io.apigee.rowboat.internal.TimerWheel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest
+{
+    private static final long START = 1400000000123L;
+
+    private static final class Timer
+        extends TimerWheel.Entry
+    {
+        Timer(long timeout)
+        {
+            this.timeout = timeout;
+        }
+
+        long getTimeout() {
+            return timeout;
+        }
+    }
+
+    @Test
+    public void testExpireInOrder()
+    {
+        TimerWheel wheel = new TimerWheel(START);
+        Timer late = new Timer(START + 100000L);
+        Timer early = new Timer(START + 10L);
+        Timer middle = new Timer(START + 300L);
+        wheel.add(late);
+        wheel.add(early);
+        wheel.add(middle);
+        assertEquals(3, wheel.size());
+        assertTrue(wheel.getNextEventTime() <= START + 10L);
+
+        List<TimerWheel.Entry> expired = new ArrayList<>();
+        wheel.expire(START + 9L, expired);
+        assertTrue(expired.isEmpty());
+        wheel.expire(START + 1000L, expired);
+        assertEquals(2, expired.size());
+        assertSame(early, expired.get(0));
+        assertSame(middle, expired.get(1));
+        assertFalse(early.isScheduled());
+        assertTrue(late.isScheduled());
+
+        expired.clear();
+        wheel.expire(START + 99999L, expired);
+        assertTrue(expired.isEmpty());
+        wheel.expire(START + 100000L, expired);
+        assertEquals(1, expired.size());
+        assertSame(late, expired.get(0));
+        assertTrue(wheel.isEmpty());
+        assertEquals(Long.MAX_VALUE, wheel.getNextEventTime());
+    }
+
+    @Test
+    public void testRemove()
+    {
+        TimerWheel wheel = new TimerWheel(START);
+        Timer a = new Timer(START + 5L);
+        Timer b = new Timer(START + 5L);
+        Timer c = new Timer(START + 5L);
+        wheel.add(a);
+        wheel.add(b);
+        wheel.add(c);
+        wheel.remove(b);
+        wheel.remove(b);
+        assertEquals(2, wheel.size());
+
+        List<TimerWheel.Entry> expired = new ArrayList<>();
+        wheel.expire(START + 5L, expired);
+        assertEquals(2, expired.size());
+        assertSame(a, expired.get(0));
+        assertSame(c, expired.get(1));
+    }
+
+    @Test
+    public void testExpiredOnAdd()
+    {
+        TimerWheel wheel = new TimerWheel(START);
+        List<TimerWheel.Entry> expired = new ArrayList<>();
+        wheel.expire(START + 1000L, expired);
+        Timer t = new Timer(START);
+        wheel.add(t);
+        wheel.expire(START + 1001L, expired);
+        assertEquals(1, expired.size());
+    }
+
+    /**
+     * The event loop clock comes from System.nanoTime, which may be negative.
+     */
+    @Test
+    public void testNegativeTime()
+    {
+        long start = -1000000L - 17L;
+        TimerWheel wheel = new TimerWheel(start);
+        Timer a = new Timer(start + 500000L);
+        Timer b = new Timer(start + 100L);
+        wheel.add(a);
+        wheel.add(b);
+        List<TimerWheel.Entry> expired = new ArrayList<>();
+        wheel.expire(start + 99L, expired);
+        assertTrue(expired.isEmpty());
+        wheel.expire(start + 100L, expired);
+        assertEquals(1, expired.size());
+        assertTrue(wheel.getNextEventTime() <= start + 500000L);
+        wheel.expire(start + 499999L, expired);
+        assertEquals(1, expired.size());
+        wheel.expire(start + 500000L, expired);
+        assertEquals(2, expired.size());
+        assertSame(a, expired.get(1));
+    }
+
+    /**
+     * Compare the wheel to a brute-force list for lots of random timeouts, restarts, and cancellations,
+     * including ones far enough out to use every level of the wheel.
+     */
+    @Test
+    public void testRandom()
+    {
+        Random rand = new Random(42L);
+        TimerWheel wheel = new TimerWheel(START);
+        Set<Timer> pending = new HashSet<>();
+        List<TimerWheel.Entry> expired = new ArrayList<>();
+        long now = START;
+
+        for (int i = 0; i < 20000; i++) {
+            int op = rand.nextInt(10);
+            if ((op < 6) || pending.isEmpty()) {
+                long delay;
+                switch (rand.nextInt(4)) {
+                case 0:
+                    delay = rand.nextInt(300);
+                    break;
+                case 1:
+                    delay = rand.nextInt(20000);
+                    break;
+                case 2:
+                    delay = rand.nextInt(2000000);
+                    break;
+                default:
+                    delay = (long)rand.nextInt(Integer.MAX_VALUE) * 8L;
+                    break;
+                }
+                Timer t = new Timer(now + delay);
+                wheel.add(t);
+                pending.add(t);
+            } else if (op < 8) {
+                Timer t = pending.iterator().next();
+                wheel.remove(t);
+                pending.remove(t);
+            } else {
+                long next = wheel.getNextEventTime();
+                long earliest = Long.MAX_VALUE;
+                for (Timer t : pending) {
+                    // Anything already due when it was added fires on the next tick
+                    earliest = Math.min(earliest, Math.max(t.getTimeout(), now + 1L));
+                }
+                assertTrue(next <= earliest);
+
+                now += (rand.nextBoolean() ? rand.nextInt(500) : rand.nextInt(5000000));
+                expired.clear();
+                wheel.expire(now, expired);
+                for (TimerWheel.Entry e : expired) {
+                    Timer t = (Timer)e;
+                    assertTrue(t.getTimeout() <= now);
+                    assertTrue(pending.remove(t));
+                }
+                for (Timer t : pending) {
+                    assertTrue(t.getTimeout() > now);
+                }
+            }
+            assertEquals(pending.size(), wheel.size());
+        }
+    }
+}
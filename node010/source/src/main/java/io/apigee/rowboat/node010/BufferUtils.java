@@ -10,11 +10,39 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.function.IntConsumer;
 
 public class BufferUtils
 {
     private static final BufferUtils myself = new BufferUtils();
+    private static final int FILL_CHUNK = 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64 =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64_VALUES[BASE64[i]] = i;
+        }
+        // Node also accepts the URL-safe alphabet
+        BASE64_VALUES['-'] = 62;
+        BASE64_VALUES['_'] = 63;
+    }
+
+    // Encoders and count buffers for the other charsets, which are reused on each thread
+    private static final ThreadLocal<IdentityHashMap<Charset, CharsetEncoder>> encoders =
+        ThreadLocal.withInitial(IdentityHashMap::new);
+    private static final ThreadLocal<ByteBuffer> countBuffer =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+    // Room to build short hex and base64 strings before we turn them into a String
+    private static final int SCRATCH_SIZE = 8192;
+    private static final ThreadLocal<byte[]> scratch =
+        ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
 
     private BufferUtils()
     {
@@ -40,25 +68,63 @@ public class BufferUtils
         return ret;
     }
 
+    /**
+     * Make a new buffer that covers "length" bytes of "bb" starting at offset, and that starts at position 0.
+     * Unlike "sliceBuffer," this does not depend on or change the position or limit of "bb," and when the
+     * offset is zero it makes only one new object.
+     */
+    @SuppressWarnings("unused")
+    public ByteBuffer viewBuffer(ByteBuffer bb, int offset, int length)
+    {
+        ByteBuffer ret = bb.duplicate();
+        if (offset == 0) {
+            ret.limit(length).position(0);
+            return ret;
+        }
+        ret.limit(offset + length).position(offset);
+        return ret.slice();
+    }
+
+    /**
+     * Count the bytes that "s" takes up in the given encoding. The encodings that Node uses the most are
+     * counted directly from the characters, without encoding anything.
+     */
     @SuppressWarnings("unused")
     public int getByteLength(String s, String encoding)
     {
-        // Use CharSequence here to avoid an extra copy of the string that we don't need
         Charset cs = Charsets.get().resolveCharset(encoding);
         //assert(cs != null);
         if (cs == null) {
             throw new AssertionError("Encoding not found: " + encoding);
         }
-        CharsetEncoder encoder = cs.newEncoder();
-        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
-        if (encoder.maxBytesPerChar() == 1.0f) {
-            // Optimize for ascii
+        return getByteLength(s, cs);
+    }
+
+    /**
+     * Count the bytes that "s" takes up in the given character set, as "write" would encode it.
+     */
+    public int getByteLength(String s, Charset cs)
+    {
+        if (cs == Charsets.UTF8) {
+            return utf8Length(s);
+        }
+        if ((cs == Charsets.ASCII) || (cs == Charsets.NODE_BINARY)) {
             return s.length();
         }
+        if (cs == Charsets.NODE_HEX) {
+            return s.length() / 2;
+        }
+        if (cs == Charsets.BASE64) {
+            return base64Decode(s, null, 0, 0, null);
+        }
 
         // Encode the string to a temporary buffer so that we can count
+        CharsetEncoder encoder = getEncoder(cs);
+        if (encoder.maxBytesPerChar() == 1.0f) {
+            return s.length();
+        }
         CharBuffer chars = CharBuffer.wrap(s);
-        ByteBuffer tmp = ByteBuffer.allocate(256);
+        ByteBuffer tmp = countBuffer.get();
         int total = 0;
         CoderResult result;
         do {
@@ -89,8 +155,20 @@ public class BufferUtils
             throw new OSException(ErrorCodes.EINVAL);
         }
 
-        for (int i = start; i < end; i++) {
-            buf.put(i, toFill);
+        if ((end - start) < FILL_CHUNK) {
+            for (int i = start; i < end; i++) {
+                buf.put(i, toFill);
+            }
+            return;
+        }
+
+        // Copy in chunks, which is much faster than a byte at a time, especially for direct buffers
+        byte[] chunk = new byte[FILL_CHUNK];
+        Arrays.fill(chunk, toFill);
+        ByteBuffer tmp = buf.duplicate();
+        tmp.limit(end).position(start);
+        while (tmp.hasRemaining()) {
+            tmp.put(chunk, 0, Math.min(chunk.length, tmp.remaining()));
         }
     }
 
@@ -113,9 +191,32 @@ public class BufferUtils
     @SuppressWarnings("unused")
     public String toString(ByteBuffer buf, int start, int end, Charset charset)
     {
-        // Will need changing if we ever support direct buffers
-        assert(buf.hasArray());
-        return new String(buf.array(), buf.arrayOffset() + start, end - start, charset);
+        if (charset == Charsets.NODE_HEX) {
+            return hexString(buf, start, end);
+        }
+        if (charset == Charsets.BASE64) {
+            return base64String(buf, start, end);
+        }
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, end - start, charset);
+        }
+        byte[] bytes = new byte[end - start];
+        ByteBuffer tmp = buf.duplicate();
+        tmp.limit(end).position(start);
+        tmp.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Copy the remaining bytes of a buffer, such as a direct buffer, into a new heap buffer.
+     */
+    @SuppressWarnings("unused")
+    public ByteBuffer toHeap(ByteBuffer buf)
+    {
+        ByteBuffer ret = ByteBuffer.allocate(buf.remaining());
+        ret.put(buf.duplicate());
+        ret.flip();
+        return ret;
     }
 
     @SuppressWarnings("unused")
@@ -127,13 +228,30 @@ public class BufferUtils
             return 0;
         }
 
+        String s = str.toString();
+        int end = offset + len;
+        if (cs == Charsets.UTF8) {
+            return utf8Encode(s, buf, offset, end, updateWriteCount);
+        }
+        if (cs == Charsets.ASCII) {
+            return latin1Encode(s, buf, offset, end, true, updateWriteCount);
+        }
+        if (cs == Charsets.NODE_BINARY) {
+            return latin1Encode(s, buf, offset, end, false, updateWriteCount);
+        }
+        if (cs == Charsets.NODE_HEX) {
+            return hexDecode(s, buf, offset, end, updateWriteCount);
+        }
+        if (cs == Charsets.BASE64) {
+            return base64Decode(s, buf, offset, end, updateWriteCount);
+        }
+
         ByteBuffer writeBuf = buf.duplicate();
         writeBuf.position(offset);
-        writeBuf.limit(offset + len);
+        writeBuf.limit(end);
 
-        CharBuffer chars = CharBuffer.wrap(str);
-        CharsetEncoder encoder = cs.newEncoder();
-        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.wrap(s);
+        CharsetEncoder encoder = getEncoder(cs);
 
         // Encode as much as we can and stop if we fail. Ignore overflow.
         encoder.encode(chars, writeBuf, true);
@@ -142,4 +260,366 @@ public class BufferUtils
 
         return writeBuf.position() - offset;
     }
+
+    /*
+     * Codecs for the encodings that Node uses the most. These replace the CharsetEncoders and decoders
+     * that we used to create on every call. They work one character at a time using absolute offsets,
+     * allocate nothing but the strings that they return, and stop before a character that won't fit,
+     * reporting how many characters they consumed.
+     */
+
+    private static CharsetEncoder getEncoder(Charset cs)
+    {
+        IdentityHashMap<Charset, CharsetEncoder> cache = encoders.get();
+        CharsetEncoder encoder = cache.get(cs);
+        if (encoder == null) {
+            encoder = cs.newEncoder();
+            encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+            cache.put(cs, encoder);
+        } else {
+            encoder.reset();
+        }
+        return encoder;
+    }
+
+    /**
+     * Count the UTF-8 bytes in "s." An unpaired surrogate becomes U+FFFD, which takes three bytes.
+     */
+    private static int utf8Length(String s)
+    {
+        int n = s.length();
+        int total = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    total += 1;
+                } else if (Character.isHighSurrogate(c) && ((i + 1) < n) &&
+                           Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // Four bytes for two chars
+                    total += 2;
+                    i++;
+                } else {
+                    total += 2;
+                }
+            }
+        }
+        return total;
+    }
+
+    private static int utf8Encode(String s, ByteBuffer buf, int offset, int end, IntConsumer charsWritten)
+    {
+        int n = s.length();
+        int i = 0;
+        int pos = offset;
+
+        // Most strings, like HTTP headers, are all ASCII
+        while ((i < n) && (pos < end)) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            buf.put(pos++, (byte)c);
+            i++;
+        }
+
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (pos >= end) {
+                    break;
+                }
+                buf.put(pos++, (byte)c);
+                i++;
+            } else if (c < 0x800) {
+                if ((end - pos) < 2) {
+                    break;
+                }
+                buf.put(pos++, (byte)(0xc0 | (c >> 6)));
+                buf.put(pos++, (byte)(0x80 | (c & 0x3f)));
+                i++;
+            } else if (Character.isHighSurrogate(c) && ((i + 1) < n) &&
+                       Character.isLowSurrogate(s.charAt(i + 1))) {
+                if ((end - pos) < 4) {
+                    break;
+                }
+                int cp = Character.toCodePoint(c, s.charAt(i + 1));
+                buf.put(pos++, (byte)(0xf0 | (cp >> 18)));
+                buf.put(pos++, (byte)(0x80 | ((cp >> 12) & 0x3f)));
+                buf.put(pos++, (byte)(0x80 | ((cp >> 6) & 0x3f)));
+                buf.put(pos++, (byte)(0x80 | (cp & 0x3f)));
+                i += 2;
+            } else {
+                if ((end - pos) < 3) {
+                    break;
+                }
+                if (Character.isSurrogate(c)) {
+                    c = '\ufffd';
+                }
+                buf.put(pos++, (byte)(0xe0 | (c >> 12)));
+                buf.put(pos++, (byte)(0x80 | ((c >> 6) & 0x3f)));
+                buf.put(pos++, (byte)(0x80 | (c & 0x3f)));
+                i++;
+            }
+        }
+
+        charsWritten.accept(i);
+        return pos - offset;
+    }
+
+    /**
+     * Write one byte per char. For "binary" that is the low eight bits, and for "ascii" anything outside
+     * of ASCII becomes "?" as it did with the US-ASCII charset.
+     */
+    private static int latin1Encode(String s, ByteBuffer buf, int offset, int end, boolean ascii,
+                                    IntConsumer charsWritten)
+    {
+        int n = Math.min(s.length(), end - offset);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (ascii && (c >= 0x80)) {
+                c = '?';
+            }
+            buf.put(offset + i, (byte)c);
+        }
+        charsWritten.accept(n);
+        return n;
+    }
+
+    /**
+     * Decode pairs of hex digits into the buffer. Only ASCII hex digits count -- Character.digit would also
+     * take digits from other scripts. Return -1 if we find anything else, and let the caller throw.
+     */
+    private static int hexDecode(String s, ByteBuffer buf, int offset, int end, IntConsumer charsWritten)
+    {
+        int n = Math.min(s.length() / 2, end - offset);
+        for (int i = 0; i < n; i++) {
+            int hi = hexDigit(s.charAt(i * 2));
+            int lo = hexDigit(s.charAt((i * 2) + 1));
+            if ((hi < 0) || (lo < 0)) {
+                return -1;
+            }
+            buf.put(offset + i, (byte)((hi << 4) | lo));
+        }
+        charsWritten.accept(n * 2);
+        return n;
+    }
+
+    private static int hexDigit(char c)
+    {
+        if ((c >= '0') && (c <= '9')) {
+            return c - '0';
+        }
+        if ((c >= 'a') && (c <= 'f')) {
+            return c - 'a' + 10;
+        }
+        if ((c >= 'A') && (c <= 'F')) {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static String hexString(ByteBuffer buf, int start, int end)
+    {
+        int len = (end - start) * 2;
+        byte[] out = getScratch(len);
+        int o = 0;
+        for (int i = start; i < end; i++) {
+            int b = buf.get(i);
+            out[o++] = HEX[(b >> 4) & 0xf];
+            out[o++] = HEX[b & 0xf];
+        }
+        return new String(out, 0, len, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decode base64 into "buf" between "offset" and "end," or just count the bytes if "buf" is null.
+     * As the kernel's charset did, this skips whitespace and "=", treats any other unknown character as
+     * zero, and writes a last partial byte only if it has bits set.
+     */
+    private static int base64Decode(String s, ByteBuffer buf, int offset, int end, IntConsumer charsWritten)
+    {
+        int n = s.length();
+        int pos = offset;
+        int bits = 0;
+        int count = 0;
+        int consumed = 0;
+        boolean full = false;
+
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            int v = (c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1);
+            if (v < 0) {
+                if ((c == '=') || Character.isWhitespace(c)) {
+                    continue;
+                }
+                v = 0;
+            }
+            bits = (bits << 6) | v;
+            if (++count == 4) {
+                if (buf != null) {
+                    if ((end - pos) < 3) {
+                        full = true;
+                        break;
+                    }
+                    buf.put(pos, (byte)(bits >> 16));
+                    buf.put(pos + 1, (byte)(bits >> 8));
+                    buf.put(pos + 2, (byte)bits);
+                }
+                pos += 3;
+                bits = 0;
+                count = 0;
+                consumed = i + 1;
+            }
+        }
+
+        if (!full && (count > 1)) {
+            int tail;
+            int b0;
+            int b1;
+            if (count == 2) {
+                b0 = bits >> 4;
+                b1 = (bits & 0xf) << 4;
+                tail = (b1 == 0 ? 1 : 2);
+            } else {
+                b0 = bits >> 10;
+                b1 = (bits >> 2) & 0xff;
+                tail = ((bits & 0x3) == 0 ? 2 : 3);
+            }
+            if (buf == null) {
+                pos += tail;
+            } else if ((end - pos) >= tail) {
+                buf.put(pos++, (byte)b0);
+                if (tail > 1) {
+                    buf.put(pos++, (byte)b1);
+                }
+                if (tail > 2) {
+                    buf.put(pos++, (byte)((bits & 0x3) << 6));
+                }
+                consumed = n;
+            }
+        } else if (!full) {
+            consumed = n;
+        }
+
+        if (charsWritten != null) {
+            charsWritten.accept(consumed);
+        }
+        return pos - offset;
+    }
+
+    private static String base64String(ByteBuffer buf, int start, int end)
+    {
+        int outLen = ((end - start + 2) / 3) * 4;
+        byte[] out = getScratch(outLen);
+        int o = 0;
+        int i = start;
+        for (; (end - i) >= 3; i += 3) {
+            int bits = ((buf.get(i) & 0xff) << 16) | ((buf.get(i + 1) & 0xff) << 8) | (buf.get(i + 2) & 0xff);
+            out[o++] = BASE64[bits >> 18];
+            out[o++] = BASE64[(bits >> 12) & 0x3f];
+            out[o++] = BASE64[(bits >> 6) & 0x3f];
+            out[o++] = BASE64[bits & 0x3f];
+        }
+        if ((end - i) == 1) {
+            int bits = buf.get(i) & 0xff;
+            out[o++] = BASE64[bits >> 2];
+            out[o++] = BASE64[(bits << 4) & 0x3f];
+            out[o++] = '=';
+            out[o] = '=';
+        } else if ((end - i) == 2) {
+            int bits = ((buf.get(i) & 0xff) << 8) | (buf.get(i + 1) & 0xff);
+            out[o++] = BASE64[bits >> 10];
+            out[o++] = BASE64[(bits >> 4) & 0x3f];
+            out[o++] = BASE64[(bits << 2) & 0x3f];
+            out[o] = '=';
+        }
+        return new String(out, 0, outLen, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] getScratch(int len)
+    {
+        return (len <= SCRATCH_SIZE ? scratch.get() : new byte[len]);
+    }
+
+    /*
+     * Typed reads and writes for Buffer. The offset is an absolute index into "buf," and the caller has
+     * already checked it. Every buffer that we make is big-endian, so little-endian values are byte-swapped.
+     */
+
+    @SuppressWarnings("unused")
+    public int readUInt16(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        short v = buf.getShort(offset);
+        return (littleEndian ? Short.reverseBytes(v) : v) & 0xffff;
+    }
+
+    @SuppressWarnings("unused")
+    public int readInt16(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        short v = buf.getShort(offset);
+        return (littleEndian ? Short.reverseBytes(v) : v);
+    }
+
+    @SuppressWarnings("unused")
+    public double readUInt32(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        int v = buf.getInt(offset);
+        return (littleEndian ? Integer.reverseBytes(v) : v) & 0xffffffffL;
+    }
+
+    @SuppressWarnings("unused")
+    public int readInt32(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        int v = buf.getInt(offset);
+        return (littleEndian ? Integer.reverseBytes(v) : v);
+    }
+
+    @SuppressWarnings("unused")
+    public double readFloat(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        int v = buf.getInt(offset);
+        return Float.intBitsToFloat(littleEndian ? Integer.reverseBytes(v) : v);
+    }
+
+    @SuppressWarnings("unused")
+    public double readDouble(ByteBuffer buf, int offset, boolean littleEndian)
+    {
+        long v = buf.getLong(offset);
+        return Double.longBitsToDouble(littleEndian ? Long.reverseBytes(v) : v);
+    }
+
+    /**
+     * Write the low 16 bits of "value," which works for both signed and unsigned values.
+     */
+    @SuppressWarnings("unused")
+    public void writeInt16(ByteBuffer buf, int offset, int value, boolean littleEndian)
+    {
+        short v = (short)value;
+        buf.putShort(offset, littleEndian ? Short.reverseBytes(v) : v);
+    }
+
+    /**
+     * Write the low 32 bits of "value," which may be anything from -2^31 to 2^32 - 1.
+     */
+    @SuppressWarnings("unused")
+    public void writeInt32(ByteBuffer buf, int offset, double value, boolean littleEndian)
+    {
+        int v = (int)(long)value;
+        buf.putInt(offset, littleEndian ? Integer.reverseBytes(v) : v);
+    }
+
+    @SuppressWarnings("unused")
+    public void writeFloat(ByteBuffer buf, int offset, double value, boolean littleEndian)
+    {
+        int v = Float.floatToRawIntBits((float)value);
+        buf.putInt(offset, littleEndian ? Integer.reverseBytes(v) : v);
+    }
+
+    @SuppressWarnings("unused")
+    public void writeDouble(ByteBuffer buf, int offset, double value, boolean littleEndian)
+    {
+        long v = Double.doubleToRawLongBits(value);
+        buf.putLong(offset, littleEndian ? Long.reverseBytes(v) : v);
+    }
 }
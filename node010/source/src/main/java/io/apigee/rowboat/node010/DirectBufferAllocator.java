@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.node010;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+
+/**
+ * Allocate direct memory for large Buffers and keep track of how much of it is still in use, so that
+ * "process.memoryUsage" can report it. Every slice and duplicate of a direct buffer refers back to the buffer
+ * it came from, so a PhantomReference to the original is enqueued at the same time that the JDK frees the
+ * memory. There is one of these for each script, and it is only used from the script's thread.
+ */
+public class DirectBufferAllocator
+{
+    private final int threshold;
+    private final ReferenceQueue<ByteBuffer> freed = new ReferenceQueue<>();
+    // A PhantomReference that is not reachable itself is never enqueued, so hold on to all of them
+    private final HashSet<Allocation> allocations = new HashSet<>();
+    private long allocatedBytes;
+
+    /**
+     * Buffers of at least "threshold" bytes will be direct. If it is zero or less, none will be.
+     */
+    public DirectBufferAllocator(int threshold)
+    {
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Allocate a buffer of "length" bytes, which is direct if it is at least as big as the threshold.
+     */
+    public ByteBuffer allocate(int length)
+    {
+        if ((threshold <= 0) || (length < threshold)) {
+            return ByteBuffer.allocate(length);
+        }
+        reclaim();
+        ByteBuffer buf = ByteBuffer.allocateDirect(length);
+        allocations.add(new Allocation(buf, length, freed));
+        allocatedBytes += length;
+        return buf;
+    }
+
+    /**
+     * Return the number of bytes of direct memory that are still reachable.
+     */
+    public long getAllocatedBytes()
+    {
+        reclaim();
+        return allocatedBytes;
+    }
+
+    /**
+     * Return the number of direct buffers that are still reachable.
+     */
+    public int getAllocatedCount()
+    {
+        reclaim();
+        return allocations.size();
+    }
+
+    private void reclaim()
+    {
+        Allocation a;
+        while ((a = (Allocation)freed.poll()) != null) {
+            allocations.remove(a);
+            allocatedBytes -= a.length;
+        }
+    }
+
+    private static final class Allocation
+        extends PhantomReference<ByteBuffer>
+    {
+        final int length;
+
+        Allocation(ByteBuffer buf, int length, ReferenceQueue<ByteBuffer> queue)
+        {
+            super(buf, queue);
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.node010;
+
+import io.apigee.rowboat.internal.BufferPool;
+import io.apigee.trireme.kernel.Charsets;
+import io.apigee.trireme.kernel.ErrorCodes;
+import io.apigee.trireme.kernel.GenericNodeRuntime;
+import io.apigee.trireme.kernel.OSException;
+import io.apigee.trireme.kernel.handles.AbstractHandle;
+import io.apigee.trireme.kernel.handles.IOCompletionHandler;
+import io.apigee.trireme.kernel.handles.NIOSocketHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.function.IntConsumer;
+
+/**
+ * A socket handle that can write several buffers at once with a single gathering write, which is how
+ * "writev" on a TCP handle is implemented. It also encodes strings straight into direct buffers rather than
+ * into a new buffer for each write, and it collects small string writes so that they go to the socket
+ * together. Sockets that it accepts are of the same class, so that both sides of a server can use it.
+ * <p>
+ * The buffers for string writes come from the environment's pool of write buffers and go back as soon as
+ * they have been written, so the direct memory that all the sockets hold is bounded.
+ * </p>
+ */
+public class GatheringSocketHandle
+    extends NIOSocketHandle
+{
+    private static final Logger log = LoggerFactory.getLogger(GatheringSocketHandle.class);
+
+    private static final IOCompletionHandler<Integer> NO_COMPLETION = (err, len) -> {};
+    private static final IntConsumer IGNORE_CHARS = (c) -> {};
+    private static final BufferUtils utils = BufferUtils.get();
+
+    /**
+     * The longest string, in bytes, that we encode ourselves. Longer ones are encoded by NIOSocketHandle.
+     */
+    public static final int MAX_STRING_WRITE = BufferPool.MAX_SIZE;
+
+    protected final BufferPool writePool;
+    private final Runnable flusher = this::flushStrings;
+    private IOCompletionHandler<AbstractHandle> connectionHandler;
+    // Strings written since the last flush, encoded one after the other, and their handlers
+    private ByteBuffer outbound;
+    private ArrayList<StringWrite> outboundWrites = new ArrayList<>();
+    private boolean flushScheduled;
+    private long socketWrites;
+
+    public GatheringSocketHandle(GenericNodeRuntime runtime, BufferPool writePool)
+    {
+        super(runtime);
+        this.writePool = writePool;
+    }
+
+    public GatheringSocketHandle(GenericNodeRuntime runtime, SocketChannel channel, BufferPool writePool)
+        throws IOException, OSException
+    {
+        super(runtime, channel);
+        this.writePool = writePool;
+    }
+
+    /**
+     * Make the handle for a socket that this server accepted. Subclasses override this so that
+     * the new handle is of their own class.
+     */
+    protected GatheringSocketHandle createChild(SocketChannel child)
+        throws IOException, OSException
+    {
+        return new GatheringSocketHandle(runtime, child, writePool);
+    }
+
+    @Override
+    public void listen(int backlog, IOCompletionHandler<AbstractHandle> handler)
+        throws OSException
+    {
+        this.connectionHandler = handler;
+        super.listen(backlog, handler);
+    }
+
+    @Override
+    protected void serverSelected(SelectionKey key)
+    {
+        if (!key.isValid() || !key.isAcceptable()) {
+            return;
+        }
+
+        ServerSocketChannel server = (ServerSocketChannel)key.channel();
+        SocketChannel child;
+        do {
+            try {
+                child = server.accept();
+            } catch (ClosedChannelException cce) {
+                log.debug("Server channel has been closed");
+                return;
+            } catch (IOException ioe) {
+                log.error("Error accepting a new socket: {}", ioe);
+                return;
+            }
+            if (child != null) {
+                accept(child);
+            }
+        } while (child != null);
+    }
+
+    private void accept(SocketChannel child)
+    {
+        if (log.isDebugEnabled()) {
+            log.debug("Accepted new socket {}", child);
+        }
+        boolean success = false;
+        try {
+            runtime.registerCloseable(child);
+            GatheringSocketHandle handle = createChild(child);
+            connectionHandler.ioComplete(0, handle);
+            success = true;
+        } catch (IOException | OSException e) {
+            log.error("Error accepting a new socket: {}", e);
+        } finally {
+            if (!success) {
+                runtime.unregisterCloseable(child);
+                try {
+                    child.close();
+                } catch (IOException ioe) {
+                    log.debug("Error closing channel that might be closed: {}", ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write all the buffers, in order, and call the handler once when all of them have been written.
+     * Strings that were written before go first. If nothing else is waiting to be written, then we try to
+     * write all of them with one gathering write. Whatever the socket won't take right away goes on the write
+     * queue behind them, one buffer at a time, just as "write" would have queued it.
+     */
+    public int writev(ByteBuffer[] bufs, IOCompletionHandler<Integer> handler)
+    {
+        if (bufs.length == 0) {
+            handler.ioComplete(0, 0);
+            return 0;
+        }
+
+        flushStrings();
+        int length = 0;
+        for (ByteBuffer buf : bufs) {
+            length += buf.remaining();
+        }
+
+        if (writeQueue.isEmpty()) {
+            SocketChannel channel = (SocketChannel)selKey.channel();
+            long written;
+            try {
+                socketWrites++;
+                written = channel.write(bufs);
+            } catch (IOException ioe) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Write error: {}", ioe.toString());
+                }
+                handler.ioComplete(ErrorCodes.EIO, 0);
+                return length;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Wrote {} of {} in {} buffers to {}", written, length, bufs.length, channel);
+            }
+            if (written == length) {
+                handler.ioComplete(0, length);
+                return length;
+            }
+            writeReady = false;
+        }
+
+        int last = bufs.length - 1;
+        for (int i = 0; i <= last; i++) {
+            if ((i == last) || bufs[i].hasRemaining()) {
+                queueWrite(new QueuedWrite(bufs[i], (i == last) ? handler : NO_COMPLETION));
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Write a string without encoding it into a new buffer first. We encode it into the handle's outbound
+     * buffer, after any other strings that were written since the last flush, and flush them all together
+     * once the current callback returns, in a task on the script's own queue. That way a script that writes
+     * lots of small strings in one callback makes one write to the socket rather than one for each. Once
+     * written, the buffer goes back to the pool, unless the socket won't take all of it right away, in which
+     * case it waits on the write queue, and goes back once the socket is ready and it has been written.
+     * <p>
+     * Strings in the outbound buffer don't count in "getWritesOutstanding." If they did, net.Socket would
+     * hold every write after the first until that one completed, which is just what we are trying to avoid.
+     * There are never more than MAX_STRING_WRITE bytes of them, since a full buffer is flushed right away,
+     * and once they are on the write queue they count as usual.
+     * </p>
+     */
+    @Override
+    public int write(String s, Charset cs, IOCompletionHandler<Integer> handler)
+    {
+        if ((cs != Charsets.UTF8) && (cs != Charsets.ASCII)) {
+            flushStrings();
+            return super.write(s, cs, handler);
+        }
+        int length = utils.getByteLength(s, cs);
+        if ((length == 0) || (length > MAX_STRING_WRITE)) {
+            flushStrings();
+            return super.write(s, cs, handler);
+        }
+
+        if ((outbound != null) && (outbound.remaining() < length)) {
+            flushStrings();
+        }
+        if (outbound == null) {
+            outbound = writePool.takeScratch();
+        }
+        int pos = outbound.position();
+        utils.write(outbound, s, pos, length, cs, IGNORE_CHARS);
+        outbound.position(pos + length);
+        outboundWrites.add(new StringWrite(handler, length));
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            runtime.executeScriptTask(flusher, null);
+        }
+        return length;
+    }
+
+    @Override
+    public int write(ByteBuffer buf, IOCompletionHandler<Integer> handler)
+    {
+        flushStrings();
+        return super.write(buf, handler);
+    }
+
+    @Override
+    public void shutdown(IOCompletionHandler<Integer> handler)
+    {
+        flushStrings();
+        super.shutdown(handler);
+    }
+
+    /**
+     * Closing the socket drops whatever is still on the write queue without calling it back, so we give the
+     * buffers for any strings on it back to the pool here.
+     */
+    @Override
+    public void close()
+    {
+        flushStrings();
+        super.close();
+        for (QueuedWrite qw : writeQueue) {
+            if (qw.getHandler() instanceof FlushedStrings) {
+                ((FlushedStrings)qw.getHandler()).release();
+            }
+        }
+    }
+
+    /**
+     * Return the number of times that this handle has written to its socket, counting all the writes that
+     * it makes when the socket is ready for more of the write queue as one.
+     */
+    public long getSocketWrites()
+    {
+        return socketWrites;
+    }
+
+    @Override
+    protected void processWrites()
+    {
+        socketWrites++;
+        super.processWrites();
+    }
+
+    /**
+     * Send all the strings that have been written since the last flush. If nothing else is waiting to be
+     * written, then we write them right away. Whatever the socket won't take goes on the write queue,
+     * behind anything that was already there.
+     */
+    private void flushStrings()
+    {
+        flushScheduled = false;
+        ByteBuffer buf = outbound;
+        if (buf == null) {
+            return;
+        }
+        outbound = null;
+        buf.flip();
+        FlushedStrings flushed = new FlushedStrings(buf, outboundWrites);
+        outboundWrites = new ArrayList<>();
+
+        if (writeQueue.isEmpty()) {
+            SocketChannel channel = (SocketChannel)selKey.channel();
+            try {
+                socketWrites++;
+                channel.write(buf);
+            } catch (IOException ioe) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Write error: {}", ioe.toString());
+                }
+                flushed.ioComplete(ErrorCodes.EIO, 0);
+                return;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Wrote {} of {} in {} strings to {}", buf.position(), buf.limit(),
+                          flushed.writes.size(), channel);
+            }
+            if (!buf.hasRemaining()) {
+                flushed.ioComplete(0, buf.limit());
+                return;
+            }
+            writeReady = false;
+        }
+        queueWrite(new QueuedWrite(buf, flushed));
+    }
+
+    private static final class StringWrite
+    {
+        final IOCompletionHandler<Integer> handler;
+        final int length;
+
+        StringWrite(IOCompletionHandler<Integer> handler, int length)
+        {
+            this.handler = handler;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Gives the buffer for a batch of strings back to the pool once it has been written, and then calls
+     * back each of the strings in order.
+     */
+    private final class FlushedStrings
+        implements IOCompletionHandler<Integer>
+    {
+        private final ByteBuffer buf;
+        private final ArrayList<StringWrite> writes;
+        private boolean released;
+
+        FlushedStrings(ByteBuffer buf, ArrayList<StringWrite> writes)
+        {
+            this.buf = buf;
+            this.writes = writes;
+        }
+
+        void release()
+        {
+            if (!released) {
+                released = true;
+                writePool.returnScratch(buf);
+            }
+        }
+
+        @Override
+        public void ioComplete(int errCode, Integer value)
+        {
+            release();
+            for (StringWrite w : writes) {
+                w.handler.ioComplete(errCode, (errCode == 0) ? w.length : 0);
+            }
+        }
+    }
+}
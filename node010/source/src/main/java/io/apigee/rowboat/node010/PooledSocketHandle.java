@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.rowboat.node010;
+
+import io.apigee.rowboat.internal.BufferPool;
+import io.apigee.trireme.kernel.ErrorCodes;
+import io.apigee.trireme.kernel.GenericNodeRuntime;
+import io.apigee.trireme.kernel.OSException;
+import io.apigee.trireme.kernel.handles.IOCompletionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A socket handle that delivers each read in a buffer borrowed from the environment's BufferPool,
+ * instead of in a new heap buffer. It reads into a scratch buffer taken from the pool and copies the data
+ * into a pooled buffer of the right size, just as NIOSocketHandle copies it into a new one. Sockets that
+ * it accepts are pooled too.
+ */
+public class PooledSocketHandle
+    extends GatheringSocketHandle
+{
+    private static final Logger log = LoggerFactory.getLogger(PooledSocketHandle.class);
+
+    private final BufferPool pool;
+    private boolean reading;
+
+    public PooledSocketHandle(GenericNodeRuntime runtime, BufferPool pool, BufferPool writePool)
+    {
+        super(runtime, writePool);
+        this.pool = pool;
+    }
+
+    public PooledSocketHandle(GenericNodeRuntime runtime, SocketChannel channel, BufferPool pool,
+                              BufferPool writePool)
+        throws IOException, OSException
+    {
+        super(runtime, channel, writePool);
+        this.pool = pool;
+    }
+
+    @Override
+    protected GatheringSocketHandle createChild(SocketChannel child)
+        throws IOException, OSException
+    {
+        return new PooledSocketHandle(runtime, child, pool, writePool);
+    }
+
+    @Override
+    public void startReading(IOCompletionHandler<ByteBuffer> handler)
+    {
+        super.startReading(handler);
+        reading = true;
+    }
+
+    @Override
+    public void stopReading()
+    {
+        super.stopReading();
+        reading = false;
+    }
+
+    @Override
+    protected void processReads()
+    {
+        if (!reading) {
+            return;
+        }
+
+        SocketChannel channel = (SocketChannel)selKey.channel();
+        ByteBuffer scratch = pool.takeScratch();
+        try {
+            int read;
+            do {
+                try {
+                    read = channel.read(scratch);
+                } catch (IOException ioe) {
+                    log.debug("Error reading from channel: {}", ioe, ioe);
+                    read = -1;
+                }
+
+                if (read > 0) {
+                    scratch.flip();
+                    ByteBuffer buf = pool.borrow(read);
+                    buf.put(scratch);
+                    buf.flip();
+                    scratch.clear();
+                    getReadHandler().ioComplete(0, buf);
+                } else if (read < 0) {
+                    removeInterest(SelectionKey.OP_READ);
+                    getReadHandler().ioComplete(ErrorCodes.EOF, null);
+                }
+            } while (reading && (read > 0));
+        } finally {
+            pool.returnScratch(scratch);
+        }
+    }
+}
@@ -104,6 +104,10 @@ function WritableState(options, stream) {
   this.writelen = 0;
 
   this.buffer = [];
+
+  // Rowboat: Backported from later versions of Node. While this is more than zero, every write is
+  // buffered until "uncork" is called as many times as "cork" was.
+  this.corked = 0;
 }
 
 function Writable(options, isDuplex) {
@@ -206,20 +210,23 @@ function writeOrBuffer(stream, state, chunk, encoding, cb) {
   var ret = state.length < state.highWaterMark;
   state.needDrain = !ret;
 
-  if (state.writing)
+  if (state.writing || state.corked)
     state.buffer.push(new WriteReq(chunk, encoding, cb));
   else
-    doWrite(stream, state, len, chunk, encoding, cb);
+    doWrite(stream, state, false, len, chunk, encoding, cb);
 
   return ret;
 }
 
-function doWrite(stream, state, len, chunk, encoding, cb) {
+function doWrite(stream, state, writev, len, chunk, encoding, cb) {
   state.writelen = len;
   state.writecb = cb;
   state.writing = true;
   state.sync = true;
-  stream._write(chunk, encoding, state.onwrite);
+  if (writev)
+    stream._writev(chunk, state.onwrite);
+  else
+    stream._write(chunk, encoding, state.onwrite);
   state.sync = false;
 }
 
@@ -254,7 +261,8 @@ function onwrite(stream, er) {
     // Check if we're actually ready to finish, but don't emit yet
     var finished = needFinish(stream, state);
 
-    if (!finished && !state.bufferProcessing && state.buffer.length)
+    if (!finished && !state.corked && !state.bufferProcessing &&
+        state.buffer.length)
       clearBuffer(stream, state);
 
     if (sync) {
@@ -290,6 +298,18 @@ function onwriteDrain(stream, state) {
 function clearBuffer(stream, state) {
   state.bufferProcessing = true;
 
+  if (stream._writev && state.buffer.length > 1) {
+    // Rowboat: Write everything at once, and call back for each chunk when it's done
+    var buffer = state.buffer;
+    state.buffer = [];
+    doWrite(stream, state, true, state.length, buffer, '', function(er) {
+      for (var i = 0; i < buffer.length; i++)
+        buffer[i].callback(er);
+    });
+    state.bufferProcessing = false;
+    return;
+  }
+
   for (var c = 0; c < state.buffer.length; c++) {
     var entry = state.buffer[c];
     var chunk = entry.chunk;
@@ -297,7 +317,7 @@ function clearBuffer(stream, state) {
     var cb = entry.callback;
     var len = state.objectMode ? 1 : chunk.length;
 
-    doWrite(stream, state, len, chunk, encoding, cb);
+    doWrite(stream, state, false, len, chunk, encoding, cb);
 
     // if we didn't call the onwrite immediately, then
     // it means that we need to wait until it does.
@@ -320,6 +340,26 @@ Writable.prototype._write = function(chunk, encoding, cb) {
   cb(new Error('not implemented'));
 };
 
+// Rowboat: Backported from later versions of Node. Buffer writes until "uncork," so that a stream
+// with a "_writev" method can write all of them at once.
+Writable.prototype.cork = function() {
+  var state = this._writableState;
+  state.corked++;
+};
+
+Writable.prototype.uncork = function() {
+  var state = this._writableState;
+  if (state.corked) {
+    state.corked--;
+    if (!state.writing &&
+        !state.corked &&
+        !state.finished &&
+        !state.bufferProcessing &&
+        state.buffer.length)
+      clearBuffer(this, state);
+  }
+};
+
 Writable.prototype.end = function(chunk, encoding, cb) {
   var state = this._writableState;
 
@@ -335,6 +375,12 @@ Writable.prototype.end = function(chunk, encoding, cb) {
   if (typeof chunk !== 'undefined' && chunk !== null)
     this.write(chunk, encoding);
 
+  // Rowboat: end() fully uncorks
+  if (state.corked) {
+    state.corked = 1;
+    this.uncork();
+  }
+
   // ignore unnecessary end() calls.
   if (!state.ending && !state.finished)
     endWritable(this, state, cb);
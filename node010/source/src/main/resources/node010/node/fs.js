@@ -39,6 +39,13 @@ var Writable = Stream.Writable;
 
 var kMinPoolSpace = 128;
 
+// Rowboat: Collect files of unknown size without a list of chunks. Buffer is loaded lazily, so don't
+// look it up until we need it.
+function newAggregator() {
+  var BufferAggregator = require('buffer')._BufferAggregator;
+  return new BufferAggregator();
+}
+
 var O_APPEND = constants.O_APPEND || 0;
 var O_CREAT = constants.O_CREAT || 0;
 var O_DIRECTORY = constants.O_DIRECTORY || 0;
@@ -198,7 +205,7 @@ fs.readFile = function(path, options, callback_) {
   // first, stat the file, so we know the size.
   var size;
   var buffer; // single buffer with file data
-  var buffers; // list for when size is unknown
+  var buffers; // aggregator for when size is unknown
   var pos = 0;
   var fd;
 
@@ -213,7 +220,7 @@ fs.readFile = function(path, options, callback_) {
       if (size === 0) {
         // the kernel lies about many files.
         // Go ahead and try to read some bytes.
-        buffers = [];
+        buffers = newAggregator();
         return read();
       }
 
@@ -224,7 +231,8 @@ fs.readFile = function(path, options, callback_) {
 
   function read() {
     if (size === 0) {
-      buffer = new Buffer(8192);
+      // Rowboat: Read straight into the end of the aggregator
+      buffer = buffers.reserve(8192);
       fs.read(fd, buffer, 0, 8192, -1, afterRead);
     } else {
       fs.read(fd, buffer, pos, size - pos, -1, afterRead);
@@ -248,7 +256,7 @@ fs.readFile = function(path, options, callback_) {
       else read();
     } else {
       // unknown size, just read until we don't get bytes.
-      buffers.push(buffer.slice(0, bytesRead));
+      buffers.commit(bytesRead);
       read();
     }
   }
@@ -256,8 +264,8 @@ fs.readFile = function(path, options, callback_) {
   function close() {
     fs.close(fd, function(er) {
       if (size === 0) {
-        // collected the data into the buffers list.
-        buffer = Buffer.concat(buffers, pos);
+        // collected the data into the aggregator.
+        buffer = buffers.toBuffer();
       } else if (pos < size) {
         buffer = buffer.slice(0, pos);
       }
@@ -294,10 +302,10 @@ fs.readFileSync = function(path, options) {
 
   var pos = 0;
   var buffer; // single buffer with file data
-  var buffers; // list for when size is unknown
+  var buffers; // aggregator for when size is unknown
 
   if (size === 0) {
-    buffers = [];
+    buffers = newAggregator();
   } else {
     buffer = new Buffer(size);
   }
@@ -311,11 +319,10 @@ fs.readFileSync = function(path, options) {
       } else {
         // the kernel lies about many files.
         // Go ahead and try to read some bytes.
-        buffer = new Buffer(8192);
+        // Rowboat: Read straight into the end of the aggregator
+        buffer = buffers.reserve(8192);
         var bytesRead = fs.readSync(fd, buffer, 0, 8192);
-        if (bytesRead) {
-          buffers.push(buffer.slice(0, bytesRead));
-        }
+        buffers.commit(bytesRead);
       }
       threw = false;
     } finally {
@@ -329,8 +336,8 @@ fs.readFileSync = function(path, options) {
   fs.closeSync(fd);
 
   if (size === 0) {
-    // data was collected into the buffers list.
-    buffer = Buffer.concat(buffers, pos);
+    // data was collected into the aggregator.
+    buffer = buffers.toBuffer();
   } else if (pos < size) {
     buffer = buffer.slice(0, pos);
   }
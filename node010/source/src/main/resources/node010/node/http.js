@@ -525,9 +525,15 @@ OutgoingMessage.prototype._writeRaw = function(data, encoding) {
       this.connection.writable &&
       !this.connection.destroyed) {
     // There might be pending data in the this.output buffer.
+    // Rowboat: Cork the socket so that it and the new data go out in one write.
+    var corked = (this.output.length > 0);
+    if (corked) {
+      this.connection.cork();
+    }
     while (this.output.length) {
       if (!this.connection.writable) {
         this._buffer(data, encoding);
+        this.connection.uncork();
         return false;
       }
       var c = this.output.shift();
@@ -536,7 +542,11 @@ OutgoingMessage.prototype._writeRaw = function(data, encoding) {
     }
 
     // Directly write to socket.
-    return this.connection.write(data, encoding);
+    var ret = this.connection.write(data, encoding);
+    if (corked) {
+      this.connection.uncork();
+    }
+    return ret;
   } else if (this.connection && this.connection.destroyed) {
     // The socket was destroyed.  If we're still trying to write to it,
     // then we haven't gotten the 'close' event yet.
@@ -759,92 +769,6 @@ Object.defineProperty(OutgoingMessage.prototype, 'headersSent', {
 });
 
 
-// Convert a number in the range 0-15 to a lowercase hexadecimal digit.
-function hex(val) {
-  // The comparison and bit hacks are deliberate. We could look up the
-  // value in a buffer with hexdigits[val & 15] but that adds a couple
-  // of bounds checks to each conversion.
-  return val <= 9 ? (val | 48) : ((val - 9) | 96);
-}
-
-
-function chunkify(chunk, headers, trailers, last) {
-  var chunklen = chunk.length;
-  var buflen = chunklen + 4;  // '\r\n' + chunk + '\r\n'
-  var offset = 0;
-  var octets = 1;
-
-  // Skip expensive Buffer.byteLength() calls; only ISO-8859-1 characters
-  // are allowed in HTTP headers, therefore:
-  //
-  //   headers.length == Buffer.byteLength(headers.length)
-  //   trailers.length == Buffer.byteLength(trailers.length)
-  //
-  // Note: the actual encoding that is used is ASCII. That's de jure
-  // a violation of the spec but de facto correct because many HTTP
-  // clients get confused by non-ASCII headers.
-  if (last === true) buflen += 5;  // '0\r\n\r\n'
-  if (headers !== '') buflen += headers.length;
-  if (trailers !== '') buflen += trailers.length;
-
-  if (chunklen & 0xf0000000) octets += 7;
-  else if (chunklen & 0xf000000) octets += 6;
-  else if (chunklen & 0xf00000) octets += 5;
-  else if (chunklen & 0xf0000) octets += 4;
-  else if (chunklen & 0xf000) octets += 3;
-  else if (chunklen & 0xf00) octets += 2;
-  else if (chunklen & 0xf0) octets += 1;
-  buflen += octets;
-
-  var buf = new Buffer(buflen);
-
-  if (headers !== '') {
-    buf.write(headers, 0, headers.length, 'ascii');
-    offset = headers.length;
-  }
-
-  // Write chunk length in hex to buffer. This effectively limits us
-  // to 4 GB chunks but that's okay because buffers are max 1 GB anyway.
-  switch (octets) {
-    case 8: buf[offset++] = hex((chunklen >>> 28) & 15);
-    case 7: buf[offset++] = hex((chunklen >>> 24) & 15);
-    case 6: buf[offset++] = hex((chunklen >>> 20) & 15);
-    case 5: buf[offset++] = hex((chunklen >>> 16) & 15);
-    case 4: buf[offset++] = hex((chunklen >>> 12) & 15);
-    case 3: buf[offset++] = hex((chunklen >>> 8) & 15);
-    case 2: buf[offset++] = hex((chunklen >>> 4) & 15);
-  }
-  buf[offset++] = hex(chunklen & 15);
-
-  // Add '\r\n'.
-  buf[offset++] = 13;
-  buf[offset++] = 10;
-
-  // Copy buffer.
-  chunk.copy(buf, offset);
-  offset += chunklen;
-
-  // Add trailing '\r\n'.
-  buf[offset++] = 13;
-  buf[offset++] = 10;
-
-  if (last === true) {
-    // Add trailing '0\r\n\r\n'.
-    buf[offset++] = 48;
-    buf[offset++] = 13;
-    buf[offset++] = 10;
-    buf[offset++] = 13;
-    buf[offset++] = 10;
-  }
-
-  if (trailers !== '') {
-    buf.write(trailers, offset, trailers.length, 'ascii');
-  }
-
-  return buf;
-}
-
-
 OutgoingMessage.prototype.write = function(chunk, encoding) {
   if (!this._header) {
     this._implicitHeader();
@@ -873,8 +797,14 @@ OutgoingMessage.prototype.write = function(chunk, encoding) {
       chunk = len.toString(16) + CRLF + chunk + CRLF;
       ret = this._send(chunk, encoding);
     } else if (Buffer.isBuffer(chunk)) {
-      var buf = chunkify(chunk, '', '', false);
-      ret = this._send(buf, encoding);
+      // Rowboat: Write the chunk header, chunk, and CRLF together without copying the chunk
+      var corked = this._corkConnection();
+      this._send(chunk.length.toString(16) + CRLF, 'ascii');
+      this._send(chunk);
+      ret = this._send(CRLF);
+      if (corked) {
+        this.connection.uncork();
+      }
     } else {
       // Non-toString-friendly encoding.
       if (typeof chunk === 'string')
@@ -895,6 +825,19 @@ OutgoingMessage.prototype.write = function(chunk, encoding) {
 };
 
 
+// Rowboat: Cork the socket if we are about to write straight to it, and return whether we did.
+OutgoingMessage.prototype._corkConnection = function() {
+  if (this.connection &&
+      this.connection._httpMessage === this &&
+      this.connection.writable &&
+      !this.connection.destroyed) {
+    this.connection.cork();
+    return true;
+  }
+  return false;
+};
+
+
 OutgoingMessage.prototype.addTrailers = function(headers) {
   this._trailer = '';
   var keys = Object.keys(headers);
@@ -942,14 +885,6 @@ OutgoingMessage.prototype.end = function(data, encoding) {
             this.connection.writable &&
             this.connection._httpMessage === this;
 
-  // The benefits of the hot-path optimization below start to fall
-  // off when the buffer size gets up near 128KB, because the cost
-  // of the copy is more than the cost of the extra write() call.
-  // Switch to the write/end method at that point.  Heuristics and
-  // magic numbers are awful, but slow http responses are worse.
-  if (hot && Buffer.isBuffer(data) && data.length > 120 * 1024)
-    hot = false;
-
   // Can't concatenate safely with hex or base64 encodings.
   if (encoding === 'hex' || encoding === 'base64')
     hot = false;
@@ -970,16 +905,18 @@ OutgoingMessage.prototype.end = function(data, encoding) {
         ret = this.connection.write(this._header + data, encoding);
       }
     } else if (Buffer.isBuffer(data)) {
+      // Rowboat: Rather than copy the header and body into one Buffer, write them to the corked socket,
+      // which writes them at once without a copy no matter how big the body is.
+      this.connection.cork();
       if (this.chunkedEncoding) {
-        var buf = chunkify(data, this._header, this._trailer, true);
-        ret = this.connection.write(buf);
+        this.connection.write(this._header + data.length.toString(16) + CRLF, 'ascii');
+        this.connection.write(data);
+        ret = this.connection.write('\r\n0\r\n' + this._trailer + '\r\n', 'ascii');
       } else {
-        var header_len = this._header.length;
-        var buf = new Buffer(header_len + data.length);
-        buf.write(this._header, 0, header_len, 'ascii');
-        data.copy(buf, header_len);
-        ret = this.connection.write(buf);
+        this.connection.write(this._header, 'ascii');
+        ret = this.connection.write(data);
       }
+      this.connection.uncork();
     } else {
       throw new TypeError('first argument must be a string or Buffer');
     }
@@ -987,6 +924,8 @@ OutgoingMessage.prototype.end = function(data, encoding) {
 
   } else if (data) {
     // Normal body write.
+    // Rowboat: Cork until the last chunk has been written too, so that they go out together.
+    var corked = this._corkConnection();
     ret = this.write(data, encoding);
   }
 
@@ -997,6 +936,9 @@ OutgoingMessage.prototype.end = function(data, encoding) {
       // Force a flush, HACK.
       ret = this._send('');
     }
+    if (corked) {
+      this.connection.uncork();
+    }
   }
 
   this.finished = true;
@@ -544,6 +544,8 @@ function onread(buffer, offset, length) {
     // Optimization: emit the original buffer with end points
     var ret = true;
     if (self.ondata) self.ondata(buffer, offset, end);
+    // Rowboat: the handle passes a Buffer that covers exactly what was read, so don't slice it again.
+    else if (offset === 0 && end === buffer.length) ret = self.push(buffer);
     else ret = self.push(buffer.slice(offset, end));
 
     if (handle.reading && !ret) {
@@ -652,6 +654,81 @@ Socket.prototype._write = function(data, encoding, cb) {
     writeReq.cb = cb;
 };
 
+// Rowboat: Backported from later versions of Node, along with "cork" and "uncork" in Writable. When more
+// than one chunk is waiting to be written, Writable passes all of them here, and we hand them to the
+// handle as one gathering write with one completion.
+Socket.prototype._writev = function(chunks, cb) {
+  if (this._connecting) {
+    this._pendingData = chunks;
+    this._pendingEncoding = '';
+    this.once('connect', function() {
+      this._writev(chunks, cb);
+    });
+    return;
+  }
+  this._pendingData = null;
+  this._pendingEncoding = '';
+
+  timers._unrefActive(this);
+
+  if (!this._handle) {
+    this._destroy(new Error('This socket is closed.'), cb);
+    return false;
+  }
+
+  // Rowboat: Join strings that are next to each other and in the same encoding, so that the handle
+  // encodes them into one buffer. If that leaves a single string, then write it like any other.
+  var joined = [];
+  for (var i = 0; i < chunks.length; i++) {
+    var entry = chunks[i];
+    var prev = joined[joined.length - 1];
+    if (prev && canJoin(prev, entry)) {
+      joined[joined.length - 1] = {
+        chunk: prev.chunk + entry.chunk,
+        encoding: entry.encoding
+      };
+    } else {
+      joined.push(entry);
+    }
+  }
+
+  var writeReq;
+  if (joined.length === 1) {
+    writeReq = createWriteReq(this._handle, joined[0].chunk, joined[0].encoding);
+  } else {
+    var bufs = new Array(joined.length);
+    for (var j = 0; j < joined.length; j++) {
+      var c = joined[j];
+      bufs[j] = Buffer.isBuffer(c.chunk) ? c.chunk : new Buffer(c.chunk, c.encoding);
+    }
+    writeReq = this._handle.writev(bufs);
+  }
+
+  if (!writeReq || typeof writeReq !== 'object')
+    return this._destroy(errnoException(process._errno, 'write'), cb);
+
+  writeReq.oncomplete = afterWrite;
+  this._bytesDispatched += writeReq.bytes;
+
+  if (this._handle.writeQueueSize === 0)
+    cb();
+  else
+    writeReq.cb = cb;
+};
+
+// Only join small strings, since a big one is encoded into a buffer of its own anyway.
+// Two base64 strings, for instance, can't be decoded as one.
+var MAX_JOINED_STRING = 16384;
+
+function canJoin(a, b) {
+  return typeof a.chunk === 'string' &&
+         typeof b.chunk === 'string' &&
+         (a.chunk.length + b.chunk.length) <= MAX_JOINED_STRING &&
+         a.encoding === b.encoding &&
+         a.encoding !== 'hex' &&
+         a.encoding !== 'base64';
+}
+
 function createWriteReq(handle, data, encoding) {
   switch (encoding) {
     case 'buffer':
@@ -688,7 +765,15 @@ Socket.prototype._getBytesWritten = function () {
       bytes += Buffer.byteLength(el.chunk, el.encoding);
   });
 
-  if (data) {
+  if (Array.isArray(data)) {
+    // Chunks waiting for "_writev"
+    data.forEach(function(el) {
+      if (Buffer.isBuffer(el.chunk))
+        bytes += el.chunk.length;
+      else
+        bytes += Buffer.byteLength(el.chunk, el.encoding);
+    });
+  } else if (data) {
     if (Buffer.isBuffer(data))
       bytes += data.length;
     else
@@ -50,7 +50,7 @@ var lists = {};
 // the main function - creates lists on demand and the watchers associated
 // with them.
 function insert(item, msecs) {
-  item._idleStart = Date.now();
+  item._idleStart = Timer.now();
   item._idleTimeout = msecs;
 
   if (msecs < 0) return;
@@ -80,7 +80,7 @@ function listOnTimeout() {
 
   debug('timeout callback ' + msecs);
 
-  var now = Date.now();
+  var now = Timer.now();
   debug('now: ' + now);
 
   var first;
@@ -179,7 +179,7 @@ exports.active = function(item) {
     if (!list || L.isEmpty(list)) {
       insert(item, msecs);
     } else {
-      item._idleStart = Date.now();
+      item._idleStart = Timer.now();
       L.append(list, item);
     }
   }
@@ -291,7 +291,7 @@ var Timeout = function(after) {
 
 Timeout.prototype.unref = function() {
   if (!this._handle) {
-    var now = Date.now();
+    var now = Timer.now();
     if (!this._idleStart) this._idleStart = now;
     var delay = this._idleStart + this._idleTimeout - now;
     if (delay < 0) delay = 0;
@@ -391,7 +391,7 @@ var unrefList, unrefTimer;
 
 
 function unrefTimeout() {
-  var now = Date.now();
+  var now = Timer.now();
 
   debug('unrefTimer fired');
 
@@ -450,7 +450,7 @@ exports._unrefActive = function(item) {
     unrefTimer.ontimeout = unrefTimeout;
   }
 
-  var now = Date.now();
+  var now = Timer.now();
   item._idleStart = now;
 
   if (L.isEmpty(unrefList)) {
@@ -26,6 +26,7 @@
  */
 
 var SlowBuffer = process.binding('buffer').SlowBuffer;
+var bufUtils = Java.type('io.apigee.rowboat.node010.BufferUtils').get();
 var assert = require('assert');
 
 exports.INSPECT_MAX_BYTES = 50;
@@ -238,8 +239,18 @@ function Buffer(subject, encoding, offset) {
   SlowBuffer.makeFastBuffer(this.parent, this, this.offset, this.length);
 }
 
+// Wrap a ByteBuffer that nothing else will change, such as the result of a socket read, in a Buffer.
+// The Buffer shares the bytes and covers all of them, so callers don't need to slice it again.
 Buffer.fromJava = function(nioBuf) {
-  return new SlowBuffer(nioBuf);
+  var parent = new SlowBuffer(nioBuf);
+  return new Buffer(parent, parent.length, 0);
+};
+
+// Convert the buffer to a new ByteBuffer that represents only its own content, so that Java code can
+// change its position and limit without affecting us. We make it here rather than in the constructor
+// because most buffers are never passed to Java.
+Buffer.prototype.toJava = function() {
+  return this.parent.javaView(this.offset, this.length);
 };
 
 function isArrayIsh(subject) {
@@ -513,6 +524,59 @@ Buffer.concat = function(list, length) {
 };
 
 
+// Rowboat: Collects chunks into one block of memory that doubles in size when it runs out, so that
+// building up a large Buffer a chunk at a time takes linear rather than quadratic time. Use it instead of
+// "body = Buffer.concat([body, chunk])" where we control both ends. "toBuffer" returns a view of the
+// memory rather than a copy, but since chunks only ever go after the end, it never changes once returned.
+// "reserve" hands out the free space at the end so that reads can go straight into it, and "commit"
+// keeps however much of it they filled. Nothing else may be added in between, since that may move the
+// memory.
+// Only fs.readFile and fs.readFileSync use it, for files that don't report their size. Buffer.concat
+// does not return one, and there is no composite Buffer: Readable streams keep a list of chunks and
+// concat it once when it is read, and http.IncomingMessage never collects a body, so neither of them
+// copies the same bytes more than once. A script that concats each chunk on to everything so far is
+// still quadratic, as it is in Node.
+function BufferAggregator(size) {
+  this.parent = new SlowBuffer(size > 0 ? size : Buffer.poolSize);
+  this.length = 0;
+}
+exports._BufferAggregator = BufferAggregator;
+
+BufferAggregator.prototype.append = function(buf) {
+  this.ensure(buf.length);
+  buf.copy(this.parent, this.length);
+  this.length += buf.length;
+  return this;
+};
+
+BufferAggregator.prototype.reserve = function(n) {
+  this.ensure(n);
+  return new Buffer(this.parent, n, this.length);
+};
+
+BufferAggregator.prototype.commit = function(n) {
+  if (this.length + n > this.parent.length) {
+    throw new RangeError('commit beyond the reserved space');
+  }
+  this.length += n;
+};
+
+BufferAggregator.prototype.ensure = function(n) {
+  if (this.length + n > this.parent.length) {
+    var grown = new SlowBuffer(Math.max(this.length + n, this.parent.length * 2));
+    this.parent.copy(grown, 0, 0, this.length);
+    this.parent = grown;
+  }
+};
+
+BufferAggregator.prototype.toBuffer = function() {
+  if (this.length === 0) {
+    return new Buffer(0);
+  }
+  return new Buffer(this.parent, this.length, 0);
+};
+
+
 
 
 // copy(targetBuffer, targetStart=0, sourceStart=0, sourceEnd=buffer.length)
@@ -593,6 +657,9 @@ function checkOffset(offset, ext, length) {
 }
 
 
+// Rowboat: The 16-bit, 32-bit, float and double reads and writes go straight to the ByteBuffer,
+// which is much faster than putting them together a byte at a time.
+
 Buffer.prototype.readUInt8 = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 1, this.length);
@@ -603,36 +670,28 @@ Buffer.prototype.readUInt8 = function(offset, noAssert) {
 Buffer.prototype.readUInt16LE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 2, this.length);
-  return this[offset] | (this[offset + 1] << 8);
+  return bufUtils.readUInt16(this.parent._buf, this.offset + offset, true);
 };
 
 
 Buffer.prototype.readUInt16BE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 2, this.length);
-  return (this[offset] << 8) | this[offset + 1];
+  return bufUtils.readUInt16(this.parent._buf, this.offset + offset, false);
 };
 
 
 Buffer.prototype.readUInt32LE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 4, this.length);
-
-  return ((this[offset]) |
-      (this[offset + 1] << 8) |
-      (this[offset + 2] << 16)) +
-      (this[offset + 3] * 0x1000000);
+  return bufUtils.readUInt32(this.parent._buf, this.offset + offset, true);
 };
 
 
 Buffer.prototype.readUInt32BE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 4, this.length);
-
-  return (this[offset] * 0x1000000) +
-      ((this[offset + 1] << 16) |
-      (this[offset + 2] << 8) |
-      this[offset + 3]);
+  return bufUtils.readUInt32(this.parent._buf, this.offset + offset, false);
 };
 
 
@@ -648,65 +707,55 @@ Buffer.prototype.readInt8 = function(offset, noAssert) {
 Buffer.prototype.readInt16LE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 2, this.length);
-  var val = this[offset] | (this[offset + 1] << 8);
-  return (val & 0x8000) ? val | 0xFFFF0000 : val;
+  return bufUtils.readInt16(this.parent._buf, this.offset + offset, true);
 };
 
 
 Buffer.prototype.readInt16BE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 2, this.length);
-  var val = this[offset + 1] | (this[offset] << 8);
-  return (val & 0x8000) ? val | 0xFFFF0000 : val;
+  return bufUtils.readInt16(this.parent._buf, this.offset + offset, false);
 };
 
 
 Buffer.prototype.readInt32LE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 4, this.length);
-
-  return (this[offset]) |
-      (this[offset + 1] << 8) |
-      (this[offset + 2] << 16) |
-      (this[offset + 3] << 24);
+  return bufUtils.readInt32(this.parent._buf, this.offset + offset, true);
 };
 
 
 Buffer.prototype.readInt32BE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 4, this.length);
-
-  return (this[offset] << 24) |
-      (this[offset + 1] << 16) |
-      (this[offset + 2] << 8) |
-      (this[offset + 3]);
+  return bufUtils.readInt32(this.parent._buf, this.offset + offset, false);
 };
 
 Buffer.prototype.readFloatLE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 4, this.length);
-  return this.parent.readFloatLE(this.offset + offset, !!noAssert);
+  return bufUtils.readFloat(this.parent._buf, this.offset + offset, true);
 };
 
 
 Buffer.prototype.readFloatBE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 4, this.length);
-  return this.parent.readFloatBE(this.offset + offset, !!noAssert);
+  return bufUtils.readFloat(this.parent._buf, this.offset + offset, false);
 };
 
 
 Buffer.prototype.readDoubleLE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 8, this.length);
-  return this.parent.readDoubleLE(this.offset + offset, !!noAssert);
+  return bufUtils.readDouble(this.parent._buf, this.offset + offset, true);
 };
 
 
 Buffer.prototype.readDoubleBE = function(offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 8, this.length);
-  return this.parent.readDoubleBE(this.offset + offset, !!noAssert);
+  return bufUtils.readDouble(this.parent._buf, this.offset + offset, false);
 };
 
 
@@ -730,36 +779,28 @@ Buffer.prototype.writeUInt8 = function(value, offset, noAssert) {
 Buffer.prototype.writeUInt16LE = function(value, offset, noAssert) {
   if (!noAssert)
     checkInt(this, value, offset, 2, 0xffff, 0);
-  this[offset] = value;
-  this[offset + 1] = (value >>> 8);
+  bufUtils.writeInt16(this.parent._buf, this.offset + offset, value, true);
 };
 
 
 Buffer.prototype.writeUInt16BE = function(value, offset, noAssert) {
   if (!noAssert)
     checkInt(this, value, offset, 2, 0xffff, 0);
-  this[offset] = (value >>> 8);
-  this[offset + 1] = value;
+  bufUtils.writeInt16(this.parent._buf, this.offset + offset, value, false);
 };
 
 
 Buffer.prototype.writeUInt32LE = function(value, offset, noAssert) {
   if (!noAssert)
     checkInt(this, value, offset, 4, 0xffffffff, 0);
-  this[offset + 3] = (value >>> 24);
-  this[offset + 2] = (value >>> 16);
-  this[offset + 1] = (value >>> 8);
-  this[offset] = value;
+  bufUtils.writeInt32(this.parent._buf, this.offset + offset, value, true);
 };
 
 
 Buffer.prototype.writeUInt32BE = function(value, offset, noAssert) {
   if (!noAssert)
     checkInt(this, value, offset, 4, 0xffffffff, 0);
-  this[offset] = (value >>> 24);
-  this[offset + 1] = (value >>> 16);
-  this[offset + 2] = (value >>> 8);
-  this[offset + 3] = value;
+  bufUtils.writeInt32(this.parent._buf, this.offset + offset, value, false);
 };
 
 
@@ -774,62 +815,54 @@ Buffer.prototype.writeInt8 = function(value, offset, noAssert) {
 Buffer.prototype.writeInt16LE = function(value, offset, noAssert) {
   if (!noAssert)
     checkInt(this, value, offset, 2, 0x7fff, -0x8000);
-  this[offset] = value;
-  this[offset + 1] = (value >>> 8);
+  bufUtils.writeInt16(this.parent._buf, this.offset + offset, value, true);
 };
 
 
 Buffer.prototype.writeInt16BE = function(value, offset, noAssert) {
   if (!noAssert)
     checkInt(this, value, offset, 2, 0x7fff, -0x8000);
-  this[offset] = (value >>> 8);
-  this[offset + 1] = value;
+  bufUtils.writeInt16(this.parent._buf, this.offset + offset, value, false);
 };
 
 
 Buffer.prototype.writeInt32LE = function(value, offset, noAssert) {
   if (!noAssert)
     checkInt(this, value, offset, 4, 0x7fffffff, -0x80000000);
-  this[offset] = value;
-  this[offset + 1] = (value >>> 8);
-  this[offset + 2] = (value >>> 16);
-  this[offset + 3] = (value >>> 24);
+  bufUtils.writeInt32(this.parent._buf, this.offset + offset, value, true);
 };
 
 
 Buffer.prototype.writeInt32BE = function(value, offset, noAssert) {
   if (!noAssert)
     checkInt(this, value, offset, 4, 0x7fffffff, -0x80000000);
-  this[offset] = (value >>> 24);
-  this[offset + 1] = (value >>> 16);
-  this[offset + 2] = (value >>> 8);
-  this[offset + 3] = value;
+  bufUtils.writeInt32(this.parent._buf, this.offset + offset, value, false);
 };
 
 
 Buffer.prototype.writeFloatLE = function(value, offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 4, this.length);
-  this.parent.writeFloatLE(value, this.offset + offset, !!noAssert);
+  bufUtils.writeFloat(this.parent._buf, this.offset + offset, value, true);
 };
 
 
 Buffer.prototype.writeFloatBE = function(value, offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 4, this.length);
-  this.parent.writeFloatBE(value, this.offset + offset, !!noAssert);
+  bufUtils.writeFloat(this.parent._buf, this.offset + offset, value, false);
 };
 
 
 Buffer.prototype.writeDoubleLE = function(value, offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 8, this.length);
-  this.parent.writeDoubleLE(value, this.offset + offset, !!noAssert);
+  bufUtils.writeDouble(this.parent._buf, this.offset + offset, value, true);
 };
 
 
 Buffer.prototype.writeDoubleBE = function(value, offset, noAssert) {
   if (!noAssert)
     checkOffset(offset, 8, this.length);
-  this.parent.writeDoubleBE(value, this.offset + offset, !!noAssert);
+  bufUtils.writeDouble(this.parent._buf, this.offset + offset, value, false);
 };
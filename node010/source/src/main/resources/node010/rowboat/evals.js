@@ -19,28 +19,29 @@ function wrapCode(code, fileName) {
   return code + '//# sourceURL=' + fileName;
 }
 
+// The engine is shared by all scripts, so always pass our own context, which holds our global object.
+// Everything is compiled by the runtime so that it may use the class cache.
+
 NodeScript.runInThisContext = function(code, fileName) {
-  var engine = process.getRuntime().getScriptEngine();
+  var runtime = process.getRuntime();
   if (debugEnabled) {
     debug('Evaluating code from ' + fileName + ' in global context');
   }
-  // _nashornLoad({ script:  code, name: fileName });
-  return engine.eval(wrapCode(code, fileName));
+  var compiled = runtime.compileScript(wrapCode(code, fileName), fileName);
+  return compiled.eval(runtime.getScriptContext());
 };
 
 NodeScript.runInNewContext = function(code, sandbox, fileName) {
   // Need to use the sandbox, so wrap the code manually
-  var engine = process.getRuntime().getScriptEngine();
-  // TODO change if we want to use compiled class cache
   if (debugEnabled) {
     debug('Evaluating code from ' + fileName + ' in ' + sandbox);
   }
-  return engine.eval(wrapCode(code, fileName), sandbox);
+  var compiled = process.getRuntime().compileScript(wrapCode(code, fileName), fileName);
+  return compiled.eval(sandbox);
 };
 
 function CompiledScript(code, fileName) {
-  var engine = process.getRuntime().getScriptEngine();
-  this.compiled = engine.compile(wrapCode(code, fileName));
+  this.compiled = process.getRuntime().compileScript(wrapCode(code, fileName), fileName);
 }
 
 NodeScript.compile = function(code, fileName) {
@@ -54,7 +55,7 @@ NodeScript.run = function(context, compiled) {
   if (context) {
     return compiled.compiled.eval(context);
   }
-  return compiled.compiled.eval();
+  return compiled.compiled.eval(process.getRuntime().getScriptContext());
 };
 
 NodeScript.createContext = function() {
@@ -62,5 +63,5 @@ NodeScript.createContext = function() {
 };
 
 NodeScript.getGlobalContext = function() {
-  return process.getRuntime().getScriptEngine().getBindings(ScriptContext.ENGINE_SCOPE);
+  return process.getRuntime().getScriptContext().getBindings(ScriptContext.ENGINE_SCOPE);
 };
@@ -1,5 +1,8 @@
 var ByteBuffer =         Java.type('java.nio.ByteBuffer');
 var HTTPParsingMachine = Java.type('io.apigee.trireme.kernel.http.HTTPParsingMachine');
+var BufferUtils =        Java.type('io.apigee.rowboat.node010.BufferUtils');
+
+var bufUtils = BufferUtils.get();
 
 var REQUEST = 1;
 var RESPONSE = 2;
@@ -59,6 +62,10 @@ HTTPParser.prototype.execute = function(buf, offset, length) {
   var bBuf = buf.toJava();
   bBuf.position(bBuf.position() + offset);
   bBuf.limit(bBuf.position() + length);
+  if (bBuf.isDirect()) {
+    // Pooled socket reads are direct, and the parser only works with heap buffers
+    bBuf = bufUtils.toHeap(bBuf);
+  }
 
   return execute(this, bBuf);
 };
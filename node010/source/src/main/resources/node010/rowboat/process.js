@@ -36,7 +36,7 @@ var NodeExitException =      Java.type('io.apigee.rowboat.internal.NodeExitExcep
 var OSException =            Java.type('io.apigee.trireme.kernel.OSException');
 var Version =                Java.type('io.apigee.rowboat.internal.Version');
 
-var NANO = 100000000;
+var NANO = 1000000000;
 var TITLE = "rowboat";
 var PLATFORM = "java";
 var EXECUTABLE = "./node";
@@ -48,7 +48,6 @@ function Process(runtime) {
   this._tickInfoBox[0] = null;
   this._tickInfoBox[1] = null;
   this._tickInfoBox[2] = null;
-  this._startTime = System.currentTimeMillis();
   this.moduleLoadList = [];
 
   this.title = TITLE;
@@ -215,8 +214,9 @@ Process.prototype.setDomain = function(domain) {
   this._runtime.setDomain(domain);
 };
 
-Process.prototype.setSubmitTick = function(submit) {
+Process.prototype.setSubmitTick = function(submit, usingDomains) {
   this._runtime.setSubmitTick(submit);
+  this._runtime.setUsingDomains(!!usingDomains);
 };
 
 Process.prototype.binding = function(module) {
@@ -226,15 +226,15 @@ Process.prototype.binding = function(module) {
 
   var mod = { exports: {} };
   this._bindingCache[module] = mod;
+  var start = System.nanoTime();
 
   var javaMod = this._runtime.getJavaModule(module, true);
   if (javaMod === null) {
-    var source = this._runtime.getModuleSource(module, true);
-    if (source === null) {
+    // The function is compiled once and shared by every script
+    var f = this._runtime.getModuleFunction(module, true);
+    if (f === null) {
       return null;
     }
-    var toLoad = { script: this._nativeModule.wrap(source), name: module };
-    var f = _nashornLoad(toLoad);
     f.call(null, mod.exports, this._nativeModule.require, mod, module);
 
   } else {
@@ -242,9 +242,19 @@ Process.prototype.binding = function(module) {
   }
 
   mod.loaded = true;
+  this.moduleLoadList.push('Binding ' + module);
+  this._runtime.recordModuleLoad('Binding ' + module, start);
   return mod.exports;
 };
 
+Process.prototype._moduleLoadStart = function() {
+  return System.nanoTime();
+};
+
+Process.prototype._moduleLoadEnd = function(name, start) {
+  this._runtime.recordModuleLoad(name, start);
+};
+
 Process.prototype.isNativeModule = function(name) {
   return this._runtime.isNativeModule(name);
 };
@@ -260,6 +270,10 @@ Process.prototype.getNativeModuleSource = function(name) {
   return this._runtime.getModuleSource(name, false);
 };
 
+Process.prototype.getNativeModuleFunction = function(name) {
+  return this._runtime.getModuleFunction(name, false);
+};
+
 Process.prototype.abort = function() {
   throw new NodeExitException(NodeExitException.Reason.FATAL);
 };
@@ -289,14 +303,21 @@ Process.prototype.send = function(msg) {
 };
 
 Process.prototype.memoryUsage = function() {
-  var runtime = Java.type('java.lang.Runtime');
+  var runtime = Java.type('java.lang.Runtime').getRuntime();
+  // Direct memory used by large buffers is outside the heap, so count it separately as Node does
+  var external = process.binding('buffer').SlowBuffer._getExternalMemory();
   return {
-    rss: runtime.totalMemory(),
-    heapTotal: runtime.maxMemory(),
-    heapUsed: runtime.totalMemory()
+    rss: runtime.totalMemory() + external,
+    heapTotal: runtime.totalMemory(),
+    heapUsed: runtime.totalMemory() - runtime.freeMemory(),
+    external: external
   };
 };
 
+Process.prototype._getNetworkStats = function() {
+  return this._runtime.getNetworkStats();
+};
+
 Process.prototype._needTickCallback = function() {
   this._runtime.setNeedTickCallback(true);
 };
@@ -342,23 +363,24 @@ Process.prototype.umask = function(newMask) {
   return this._runtime.getUmask();
 };
 
+// Both of these use the monotonic clock so that they do not jump when the system time is set.
 Process.prototype.uptime = function() {
-  return (System.currentTimeMillis() - this._startTime) / 1000;
+  return this._runtime.getUptime();
 };
 
 Process.prototype.hrtime = function(time) {
-  var nanos = System.nanoTime();
+  var now = this._runtime.getHrtime();
+  var secs = now[0];
+  var nanos = now[1];
   if (time) {
-    var startSecs = time[0];
-    var startNs = time[1];
-    var startNanos = ((startSecs * NANO) + startNs);
-    nanos -= startNanos;
+    secs -= time[0];
+    nanos -= time[1];
+    if (nanos < 0) {
+      secs--;
+      nanos += NANO;
+    }
   }
-
-  var ret = [];
-  ret[0] = nanos / NANO;
-  ret[1] = nanos % NANO;
-  return ret;
+  return [secs, nanos];
 };
 
 /*
@@ -4,10 +4,17 @@
  */
 
 var BufferUtils = Java.type('io.apigee.rowboat.node010.BufferUtils');
-var ByteBuffer = Java.type('java.nio.ByteBuffer');
+var DirectBufferAllocator = Java.type('io.apigee.rowboat.node010.DirectBufferAllocator');
 var Charsets = Java.type('io.apigee.trireme.kernel.Charsets');
 
 var bufUtils = BufferUtils.get();
+var directBuffers =
+  new DirectBufferAllocator(process.getRuntime().getEnvironment().getDirectBufferThreshold());
+var bufDescriptor = {
+  value: undefined,
+  writable: false,
+  enumerable: false
+};
 
 function SlowBuffer(lengthOrBuffer) {
   if (!(this instanceof SlowBuffer)) {
@@ -16,7 +23,7 @@ function SlowBuffer(lengthOrBuffer) {
 
   var buf;
   if (typeof lengthOrBuffer === 'number') {
-    buf = ByteBuffer.allocate(lengthOrBuffer)
+    buf = directBuffers.allocate(lengthOrBuffer);
   } else {
     buf = lengthOrBuffer;
     if (buf.position() > 0) {
@@ -25,11 +32,10 @@ function SlowBuffer(lengthOrBuffer) {
     }
   }
 
-  Object.defineProperty(this, '_buf', {
-    value: buf,
-    writable: false,
-    enumerable: false
-  });
+  // Reuse one descriptor so that there is one less object to allocate for every buffer
+  bufDescriptor.value = buf;
+  Object.defineProperty(this, '_buf', bufDescriptor);
+  bufDescriptor.value = undefined;
 
   // This is a mostly-undocumented Nashorn feature that lets the array indexing of this object go to the buffer
   Object.setIndexedPropertiesToExternalArrayData(this, buf);
@@ -51,17 +57,24 @@ SlowBuffer.makeFastBuffer = function(parent, buf, offset, length) {
     throw new RangeError('offset or length out of range');
   }
 
-  var bb = bufUtils.sliceBuffer(parent._buf, offset, length);
+  var bb;
+  if ((offset === 0) && (length === parent._buf.capacity())) {
+    // The parent's buffer always starts at position zero, so a view of all of it can share it.
+    // This is the case for every buffer that comes from a socket read.
+    bb = parent._buf;
+  } else {
+    bb = bufUtils.sliceBuffer(parent._buf, offset, length);
+  }
   Object.setIndexedPropertiesToExternalArrayData(buf, bb);
-
-  buf.toJava = function() {
-    // Make sure that changes to position, limit, etc don't affect us.
-    return bb.duplicate();
-  };
 };
 
 SlowBuffer._charsWritten = 0;
 
+// The number of bytes of direct memory that this script's buffers are using, for "process.memoryUsage"
+SlowBuffer._getExternalMemory = function() {
+  return directBuffers.getAllocatedBytes();
+};
+
 SlowBuffer.byteLength = function(str, encoding) {
   return bufUtils.getByteLength(str, encoding);
 };
@@ -72,6 +85,12 @@ SlowBuffer.prototype.toJava = function() {
   return this._buf;
 };
 
+// Return a new ByteBuffer that covers part of this one. Since it is new, the caller may change its
+// position and limit, as the socket and file code do.
+SlowBuffer.prototype.javaView = function(offset, length) {
+  return bufUtils.viewBuffer(this._buf, offset, length);
+};
+
 SlowBuffer.prototype.fill = function(value, start, end) {
   checkSliceBounds(this._buf, start, end);
   bufUtils.fill(this._buf, value, start, end);
@@ -141,10 +160,14 @@ function updateCharsWritten(c) {
 
 // These decode the strings and copy the bytes
 SlowBuffer.prototype.hexWrite = function(str, offset, length) {
-  if ((length % 2) !== 0) {
+  if ((str.length % 2) !== 0) {
+    throw new TypeError('Invalid hex string');
+  }
+  var written = bufUtils.write(this._buf, str, offset, length, Charsets.NODE_HEX, updateCharsWritten);
+  if (written < 0) {
     throw new TypeError('Invalid hex string');
   }
-  return bufUtils.write(this._buf, str, offset, length, Charsets.NODE_HEX, updateCharsWritten);
+  return written;
 };
 
 SlowBuffer.prototype.utf8Write = function(str, offset, length) {
@@ -173,34 +196,180 @@ function stringWrite(buf, str, offset, length, charset, cb) {
   return bufUtils.write(buf, str, offset, length, charset, cb);
 }
 
+// Typed reads and writes for a SlowBuffer itself. Buffer has its own versions that add its offset.
+function checkOffset(buf, offset, ext) {
+  if ((offset % 1) !== 0 || offset < 0) {
+    throw new RangeError('offset is not uint');
+  }
+  if (offset + ext > buf.limit()) {
+    throw new RangeError('Trying to access beyond buffer length');
+  }
+}
+
+SlowBuffer.prototype.readUInt16LE = function(offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 2);
+  }
+  return bufUtils.readUInt16(this._buf, offset, true);
+};
+
+SlowBuffer.prototype.readUInt16BE = function(offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 2);
+  }
+  return bufUtils.readUInt16(this._buf, offset, false);
+};
+
+SlowBuffer.prototype.readInt16LE = function(offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 2);
+  }
+  return bufUtils.readInt16(this._buf, offset, true);
+};
+
+SlowBuffer.prototype.readInt16BE = function(offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 2);
+  }
+  return bufUtils.readInt16(this._buf, offset, false);
+};
+
+SlowBuffer.prototype.readUInt32LE = function(offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  return bufUtils.readUInt32(this._buf, offset, true);
+};
+
+SlowBuffer.prototype.readUInt32BE = function(offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  return bufUtils.readUInt32(this._buf, offset, false);
+};
+
+SlowBuffer.prototype.readInt32LE = function(offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  return bufUtils.readInt32(this._buf, offset, true);
+};
+
+SlowBuffer.prototype.readInt32BE = function(offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  return bufUtils.readInt32(this._buf, offset, false);
+};
+
 SlowBuffer.prototype.readFloatLE = function(offset, noassert) {
-  throw new Error('Not implemented');
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  return bufUtils.readFloat(this._buf, offset, true);
 };
 
 SlowBuffer.prototype.readFloatBE = function(offset, noassert) {
-  throw new Error('Not implemented');
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  return bufUtils.readFloat(this._buf, offset, false);
 };
 
 SlowBuffer.prototype.readDoubleLE = function(offset, noassert) {
-  throw new Error('Not implemented');
+  if (!noassert) {
+    checkOffset(this._buf, offset, 8);
+  }
+  return bufUtils.readDouble(this._buf, offset, true);
 };
 
 SlowBuffer.prototype.readDoubleBE = function(offset, noassert) {
-  throw new Error('Not implemented');
+  if (!noassert) {
+    checkOffset(this._buf, offset, 8);
+  }
+  return bufUtils.readDouble(this._buf, offset, false);
+};
+
+SlowBuffer.prototype.writeUInt16LE = function(value, offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 2);
+  }
+  bufUtils.writeInt16(this._buf, offset, value, true);
+};
+
+SlowBuffer.prototype.writeUInt16BE = function(value, offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 2);
+  }
+  bufUtils.writeInt16(this._buf, offset, value, false);
+};
+
+SlowBuffer.prototype.writeInt16LE = function(value, offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 2);
+  }
+  bufUtils.writeInt16(this._buf, offset, value, true);
+};
+
+SlowBuffer.prototype.writeInt16BE = function(value, offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 2);
+  }
+  bufUtils.writeInt16(this._buf, offset, value, false);
+};
+
+SlowBuffer.prototype.writeUInt32LE = function(value, offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  bufUtils.writeInt32(this._buf, offset, value, true);
+};
+
+SlowBuffer.prototype.writeUInt32BE = function(value, offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  bufUtils.writeInt32(this._buf, offset, value, false);
+};
+
+SlowBuffer.prototype.writeInt32LE = function(value, offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  bufUtils.writeInt32(this._buf, offset, value, true);
+};
+
+SlowBuffer.prototype.writeInt32BE = function(value, offset, noassert) {
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  bufUtils.writeInt32(this._buf, offset, value, false);
 };
 
 SlowBuffer.prototype.writeFloatLE = function(value, offset, noassert) {
-  throw new Error('Not implemented');
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  bufUtils.writeFloat(this._buf, offset, value, true);
 };
 
 SlowBuffer.prototype.writeFloatBE = function(value, offset, noassert) {
-  throw new Error('Not implemented');
+  if (!noassert) {
+    checkOffset(this._buf, offset, 4);
+  }
+  bufUtils.writeFloat(this._buf, offset, value, false);
 };
 
 SlowBuffer.prototype.writeDoubleLE = function(value, offset, noassert) {
-  throw new Error('Not implemented');
+  if (!noassert) {
+    checkOffset(this._buf, offset, 8);
+  }
+  bufUtils.writeDouble(this._buf, offset, value, true);
 };
 
 SlowBuffer.prototype.writeDoubleBE = function(value, offset, noassert) {
-  throw new Error('Not implemented');
+  if (!noassert) {
+    checkOffset(this._buf, offset, 8);
+  }
+  bufUtils.writeDouble(this._buf, offset, value, false);
 };
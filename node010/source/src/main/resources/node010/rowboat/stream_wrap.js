@@ -21,6 +21,7 @@
  */
 
 var Charsets = Java.type('io.apigee.trireme.kernel.Charsets');
+var ByteBufferArray = Java.type('java.nio.ByteBuffer[]');
 
 var Referenceable = process.binding('referenceable').Referenceable;
 var util = require('util');
@@ -51,6 +52,7 @@ function Stream(handle) {
   });
 
   this.bytes = 0;
+  this._completions = null;
   Referenceable.call(this);
 
   Object.defineProperty(this, "writeQueueSize", {
@@ -87,6 +89,72 @@ Stream.prototype.writeBuffer = function(buf) {
   return req;
 };
 
+// Write all the Buffers in the array, in order, and complete once when all of them have been written.
+// A socket handle does this with one gathering write. Other handles write them one at a time, and
+// complete after the last of those writes completes, with the first error that any of them had.
+Stream.prototype.writev = function(bufs) {
+  var req = {
+    _handle: this
+  };
+  var self = this;
+  var len = 0;
+  var i;
+
+  if (bufs.length === 0) {
+    req.bytes = 0;
+    onWriteComplete(self, req, 0);
+    return req;
+  }
+
+  if (this.handle.writev) {
+    var javaBufs = new ByteBufferArray(bufs.length);
+    for (i = 0; i < bufs.length; i++) {
+      javaBufs[i] = bufs[i].toJava();
+    }
+    len = this.handle.writev(javaBufs, function(errCode) {
+      onWriteComplete(self, req, errCode);
+    });
+  } else {
+    // A write may complete before "write" returns, so don't finish until all of them have been submitted
+    var outstanding = bufs.length;
+    var submitted = false;
+    var firstErr = 0;
+    var failed = 0;
+    var finish = function() {
+      if (failed > 0) {
+        // Don't count what never went out
+        req.bytes -= failed;
+        self.bytes -= failed;
+      }
+      onWriteComplete(self, req, firstErr);
+    };
+    var completer = function(length) {
+      return function(errCode) {
+        if (errCode) {
+          firstErr = firstErr || errCode;
+          failed += length;
+        }
+        if ((--outstanding === 0) && submitted) {
+          finish();
+        }
+      };
+    };
+    for (i = 0; i < bufs.length; i++) {
+      len += this.handle.write(bufs[i].toJava(), completer(bufs[i].length));
+    }
+    req.bytes = len;
+    this.bytes += len;
+    submitted = true;
+    if (outstanding === 0) {
+      finish();
+    }
+    return req;
+  }
+  req.bytes = len;
+  this.bytes += len;
+  return req;
+};
+
 Stream.prototype.writeUtf8String = function(s) {
   return writeString(this, s, Charsets.UTF8);
 };
@@ -112,12 +180,55 @@ function writeString(self, s, cs) {
 }
 
 function onWriteComplete(self, req, err) {
-  // This version of Node expects to set "oncomplete" only after write returns.
+  self._queueCompletion(req, err);
+}
+
+/*
+ * This version of Node expects to set "oncomplete" only after write returns, so completed writes and
+ * shutdowns are delivered in an immediate. Rather than schedule a new immediate for each one, keep them
+ * in a queue on the handle, in the order that they completed, and deliver all of them in one immediate.
+ * The queue holds pairs of request and error code.
+ */
+Stream.prototype._queueCompletion = function(req, err) {
+  if (this._completions) {
+    this._completions.push(req, err);
+    return;
+  }
+  this._completions = [req, err];
+  var self = this;
   setImmediate(function() {
-    if (req.oncomplete) {
-      req.oncomplete.call(self, process.convertJavaErrno(err), req._handle, req);
-    }
+    flushCompletions(self);
   });
+};
+
+function flushCompletions(self) {
+  var queue = self._completions;
+  // Anything that completes from here on goes in a new queue and a new immediate
+  self._completions = null;
+  var i = 0;
+  try {
+    while (i < queue.length) {
+      var req = queue[i];
+      var err = queue[i + 1];
+      i += 2;
+      if (req.oncomplete) {
+        req.oncomplete.call(self, process.convertJavaErrno(err), req._handle, req);
+      }
+    }
+  } finally {
+    if (i < queue.length) {
+      // A callback threw -- deliver the rest later, ahead of anything that completed since
+      var rest = queue.slice(i);
+      if (self._completions) {
+        self._completions = rest.concat(self._completions);
+      } else {
+        self._completions = rest;
+        setImmediate(function() {
+          flushCompletions(self);
+        });
+      }
+    }
+  }
 }
 
 Stream.prototype.readStart = function() {
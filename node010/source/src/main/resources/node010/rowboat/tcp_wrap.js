@@ -23,7 +23,8 @@
 var Stream = process.binding('stream_wrap').Stream;
 var util = require('util');
 
-var NIOSocketHandle = Java.type('io.apigee.trireme.kernel.handles.NIOSocketHandle');
+var GatheringSocketHandle = Java.type('io.apigee.rowboat.node010.GatheringSocketHandle');
+var PooledSocketHandle = Java.type('io.apigee.rowboat.node010.PooledSocketHandle');
 var Inet6Address = Java.type('java.net.Inet6Address');
 
 var debug;
@@ -48,7 +49,7 @@ function TCP(h) {
   }
 
   this.id = lastId++;
-  var handle = (h ? h : new NIOSocketHandle(process.getRuntime()));
+  var handle = (h ? h : createHandle());
   Stream.call(this, handle);
 
   // Unlike other types of handles, every open socket "pins" the server explicitly and keeps it
@@ -58,6 +59,17 @@ function TCP(h) {
 module.exports.TCP = TCP;
 util.inherits(TCP, Stream);
 
+function createHandle() {
+  var runtime = process.getRuntime();
+  var env = runtime.getEnvironment();
+  var pool = env.getReadBufferPool();
+  var writePool = env.getWriteBufferPool();
+  if (pool) {
+    return new PooledSocketHandle(runtime, pool, writePool);
+  }
+  return new GatheringSocketHandle(runtime, writePool);
+}
+
 TCP.prototype.toString = function() {
   return 'TCP handle ' + this.id;
 };
@@ -149,13 +161,8 @@ TCP.prototype.shutdown = function() {
 };
 
 function onShutdownComplete(self, req, errCode) {
-  // This version of Node expects to set "oncomplete" only after write returns.
-  setImmediate(function() {
-    if (req.oncomplete) {
-      var err = process.convertJavaErrno(errCode);
-      req.oncomplete.call(self, err, req._handle, req);
-    }
-  });
+  // Delivered in the same queue as the writes, so that it comes after all of them
+  self._queueCompletion(req, errCode);
 }
 
 function convertAddress(m) {
@@ -29,7 +29,16 @@ function Timer() {
 exports.Timer = Timer;
 util.inherits(Timer, Referenceable);
 
+// Like uv_now, the monotonic time in milliseconds as of the start of this turn of the event loop.
+Timer.now = function() {
+  return process.getRuntime().getLoopTime();
+};
+
 Timer.prototype.start = function(timeout, interval) {
+  if (this.activity) {
+    // Restarting a timer replaces the old timeout, as it does in libuv
+    this.activity.setCancelled(true);
+  }
   if (interval > 0) {
     this.activity = process.getRuntime().createTimer(timeout, true, interval, fire, this);
   } else {
@@ -77,6 +77,9 @@ function _triremeMain(process, topScope) {
 
     startup.processChannel();
 
+    // Rowboat: Everything up to here is our own setup, so the script time limit starts counting now
+    process._runtime.mainStarted();
+
     // Don't do this -- we rely on "node" being the process name in some cases.
     //startup.resolveArgv0();
 
@@ -186,8 +189,21 @@ function _triremeMain(process, topScope) {
     global.GLOBAL = global;
     global.root = global;
 
-    // TODO other stuff to make buffers work?
-    global.Buffer = NativeModule.require('buffer').Buffer;
+    // Rowboat: "buffer" pulls in "assert" and "util," so only load it when a script touches "Buffer."
+    var Buffer;
+    Object.defineProperty(global, 'Buffer', {
+      get: function() {
+        if (!Buffer) {
+          Buffer = NativeModule.require('buffer').Buffer;
+        }
+        return Buffer;
+      },
+      set: function(b) {
+        Buffer = b;
+      },
+      enumerable: true,
+      configurable: true
+    });
 
     process.domain = null;
     process._exiting = false;
@@ -835,12 +851,13 @@ function _triremeMain(process, topScope) {
     function usingDomains() {
       process.nextTick = process._nextDomainTick;
       process._tickCallback = process._tickDomainCallback;
-      process.setSubmitTick(submitDomainTick);
+      process.setSubmitTick(submitDomainTick, true);
     }
     process._usingDomains = usingDomains;
 
-    // Node.js inserts these things for metrics and monitoring. Right now we don't do anything
-    // like that so we are going to stub them out here.
+    // Node.js inserts these things for metrics and monitoring. We send them to the NetworkStats
+    // for the script, unless the environment turned that off. Each DTRACE_ hook comes with a COUNTER_ hook
+    // for the same event, so we count in one and leave the other one empty.
     function noMetrics() {
     }
 
@@ -857,6 +874,33 @@ function _triremeMain(process, topScope) {
     global.COUNTER_HTTP_SERVER_REQUEST = noMetrics;
     global.COUNTER_HTTP_SERVER_RESPONSE = noMetrics;
 
+    var netStats = process._getNetworkStats();
+    if (netStats) {
+      global.DTRACE_NET_SERVER_CONNECTION = function() {
+        netStats.netServerConnection();
+      };
+      global.DTRACE_NET_STREAM_END = function() {
+        netStats.netStreamEnd();
+      };
+      global.COUNTER_NET_SERVER_CONNECTION_CLOSE = function() {
+        netStats.netServerConnectionClose();
+      };
+      // The server only tells us about the connection when the response is done, so remember the start
+      // time there. With pipelining, that makes the latency of all but the last request look too short.
+      global.DTRACE_HTTP_SERVER_REQUEST = function(req, socket) {
+        socket._requestStart = netStats.httpServerRequest();
+      };
+      global.DTRACE_HTTP_SERVER_RESPONSE = function(socket) {
+        netStats.httpServerResponse(socket._requestStart || 0);
+      };
+      global.DTRACE_HTTP_CLIENT_REQUEST = function(req) {
+        req._requestStart = netStats.httpClientRequest();
+      };
+      global.DTRACE_HTTP_CLIENT_RESPONSE = function(socket, req) {
+        netStats.httpClientResponse(req._requestStart || 0);
+      };
+    }
+
     // Fix up stuff that is Nashorn-specific that could break other scripts:
     global._nashornLoad = global.load;
     delete global.load;
@@ -900,12 +944,14 @@ function _triremeMain(process, topScope) {
     }
 
     process.moduleLoadList.push('NativeModule ' + id);
+    var start = process._moduleLoadStart();
 
     var nativeModule = new NativeModule(id);
 
     nativeModule.cache();
     nativeModule.compile();
 
+    process._moduleLoadEnd('NativeModule ' + id, start);
     return nativeModule.exports;
   };
 
@@ -928,10 +974,8 @@ function _triremeMain(process, topScope) {
   ];
 
   NativeModule.prototype.compile = function() {
-    var source = process.getNativeModuleSource(this.id);
-    var toLoad = { script: NativeModule.wrap(source), name: this.filename };
-
-    var f = _nashornLoad(toLoad);
+    // Rowboat: The module was compiled once for all scripts and we just get a copy of the function here.
+    var f = process.getNativeModuleFunction(this.id);
 
     f.call(null, this.exports, NativeModule.require, this, this.filename);
     this.loaded = true;
@@ -0,0 +1,181 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeScript;
+import io.apigee.rowboat.ScriptFuture;
+import io.apigee.rowboat.ScriptStatus;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Code that the benchmarks in this package share. Most benchmark scripts time themselves with
+ * process.hrtime and pass the result to "record" using "Java.type('io.apigee.rowboat.perf.Benchmarks')",
+ * and the benchmark picks it up from "getLastNanos" after the script exits.
+ */
+public final class Benchmarks
+{
+    private static volatile double lastNanos;
+    private static volatile double lastValue;
+
+    private Benchmarks()
+    {
+    }
+
+    public static void record(double nanos)
+    {
+        record(nanos, 0.0);
+    }
+
+    /**
+     * Record the time that a script took along with one other number, such as a count of bytes allocated.
+     */
+    public static void record(double nanos, double value)
+    {
+        lastNanos = nanos;
+        lastValue = value;
+    }
+
+    public static double getLastNanos()
+    {
+        return lastNanos;
+    }
+
+    public static double getLastValue()
+    {
+        return lastValue;
+    }
+
+    /**
+     * Return the numeric argument at "index," or the default if there aren't that many.
+     */
+    public static int intArg(String[] args, int index, int defaultValue)
+    {
+        return (args.length > index ? Integer.parseInt(args[index]) : defaultValue);
+    }
+
+    /**
+     * Run the script source to completion, fail if it does not exit normally, and close it.
+     */
+    public static ScriptFuture run(NodeEnvironment env, String source)
+        throws Exception
+    {
+        NodeScript script = env.createScript("-e", source);
+        ScriptFuture future = script.execute();
+        ScriptStatus status = future.get();
+        if (!status.isOk()) {
+            throw new AssertionError("Script failed with exit code " + status.getExitCode());
+        }
+        script.close();
+        return future;
+    }
+
+    /**
+     * Run the script source to completion and return the number of nanoseconds that it recorded.
+     */
+    public static double time(NodeEnvironment env, String source)
+        throws Exception
+    {
+        run(env, source);
+        return lastNanos;
+    }
+
+    public static double perSecond(long count, double nanos)
+    {
+        return count / (nanos / 1000000000.0);
+    }
+
+    /**
+     * Return the number of bytes that the calling thread has allocated so far.
+     */
+    public static double threadAllocated()
+    {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Return the number of bytes that all the live threads in the JVM have allocated so far.
+     */
+    public static double allocated()
+    {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long total = 0L;
+        for (long a : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (a > 0L) {
+                total += a;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Return the number of "write" system calls that this process has made so far, or -1 if we can't tell.
+     */
+    public static double writeCalls()
+    {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/io"))) {
+                if (line.startsWith("syscw:")) {
+                    return Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux, or not allowed
+        }
+        return -1.0;
+    }
+
+    /**
+     * Return the heap in use after a few rounds of garbage collection.
+     */
+    public static long usedHeap()
+    {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Run the "main" method of a class in a new JVM with the same class path, and return every line that
+     * it printed that starts with the prefix, without the prefix.
+     */
+    public static List<String> runChild(Class<?> main, String prefix, String... args)
+        throws Exception
+    {
+        ArrayList<String> cmd = new ArrayList<>();
+        cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(main.getName());
+        cmd.addAll(Arrays.asList(args));
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        Process proc = pb.start();
+
+        ArrayList<String> results = new ArrayList<>();
+        try (BufferedReader rdr = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
+            String line;
+            while ((line = rdr.readLine()) != null) {
+                if (line.startsWith(prefix)) {
+                    results.add(line.substring(prefix.length()));
+                }
+            }
+        }
+        if (proc.waitFor() != 0) {
+            throw new AssertionError("Child JVM failed with exit code " + proc.exitValue());
+        }
+        return results;
+    }
+}
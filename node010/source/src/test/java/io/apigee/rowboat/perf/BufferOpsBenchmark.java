@@ -0,0 +1,61 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+
+/**
+ * Measure how long each of the typed read and write methods on Buffer takes, the way that a binary protocol
+ * parser would call them: over and over, at increasing offsets, on a slice of a larger buffer. Each method
+ * runs in its own loop, and we report nanoseconds per call. A method that fails is reported as such.
+ * <p>
+ * Arguments: [calls] [rounds]
+ * </p>
+ */
+public class BufferOpsBenchmark
+{
+    private static final String SCRIPT =
+        "var B = Java.type('io.apigee.rowboat.perf.BufferOpsBenchmark'); var n = %d; var rounds = %d;" +
+        "var buf = new Buffer(16384).slice(16, 8208); buf.fill(0x5a);" +
+        "var sizes = { UInt8: 1, Int8: 1, UInt16LE: 2, UInt16BE: 2, Int16LE: 2, Int16BE: 2," +
+        "  UInt32LE: 4, UInt32BE: 4, Int32LE: 4, Int32BE: 4, FloatLE: 4, FloatBE: 4, DoubleLE: 8, DoubleBE: 8 };" +
+        "var values = { UInt8: 200, Int8: -100, UInt16LE: 60000, UInt16BE: 60000, Int16LE: -30000, Int16BE: -30000," +
+        "  UInt32LE: 4000000000, UInt32BE: 4000000000, Int32LE: -2000000000, Int32BE: -2000000000," +
+        "  FloatLE: 1.5, FloatBE: 1.5, DoubleLE: 1.0e100, DoubleBE: 1.0e100 };" +
+        // Compile a separate loop for each method, so that each call site only ever sees one method
+        "function loop(call, size) {" +
+        "  return new Function('buf', 'n', 'value'," +
+        "    'var end = buf.length - ' + size + '; var sum = 0; var start = process.hrtime();' +" +
+        "    'for (var i = 0, o = 0; i < n; i++, o = (o + ' + size + ' < end ? o + ' + size + ' : 0)) { ' + call + ' }' +" +
+        "    'var d = process.hrtime(start); return ((d[0] * 1e9) + d[1]) / n;');" +
+        "}" +
+        "function time(f) { try { f(); var best = Infinity;" +
+        "  for (var r = 0; r < rounds; r++) { best = Math.min(best, f()); } return best; } catch (e) { return -1; } }" +
+        "Object.keys(sizes).forEach(function(name) {" +
+        "  var size = sizes[name]; var value = values[name];" +
+        "  var write = loop('buf.write' + name + '(value, o);', size);" +
+        "  var read = loop('sum += buf.read' + name + '(o);', size);" +
+        "  var w = time(function() { return write(buf, n, value); });" +
+        "  var r = time(function() { return read(buf, n); });" +
+        "  B.record(name, r, w);" +
+        "});";
+
+    public static void record(String name, double readNanos, double writeNanos)
+    {
+        System.out.printf("%-9s read %s  write %s%n", name, format(readNanos), format(writeNanos));
+    }
+
+    private static String format(double nanos)
+    {
+        return (nanos < 0.0 ? "  failed" : String.format("%5.1f ns", nanos));
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int calls = Benchmarks.intArg(args, 0, 1000000);
+        int rounds = Benchmarks.intArg(args, 1, 5);
+
+        NodeEnvironment env = new NodeEnvironment();
+        Benchmarks.run(env, String.format(SCRIPT, calls, rounds));
+        env.close();
+    }
+}
@@ -0,0 +1,71 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeRuntime;
+import io.apigee.rowboat.internal.ScriptRunner;
+import jdk.nashorn.api.scripting.JSObject;
+
+/**
+ * Measure how many callbacks per second Java code can deliver to a script. "callback" uses
+ * NodeRuntime.enqueueCallback with one argument, like an embedder would. "task" uses executeScriptTask
+ * with a script function that Nashorn has turned in to a Runnable, which is how the socket and
+ * filesystem handles deliver their results. The script times itself and hands the result back to us.
+ * <p>
+ * Arguments: [callbacks]
+ * </p>
+ */
+public class CallbackBenchmark
+{
+    private static final String SCRIPT =
+        "var n = %d; var count = 0; var B = Java.type('io.apigee.rowboat.perf.CallbackBenchmark');" +
+        "var Benchmarks = Java.type('io.apigee.rowboat.perf.Benchmarks');" +
+        "var start = process.hrtime();" +
+        "function done() { var d = process.hrtime(start); Benchmarks.record((d[0] * 1e9) + d[1]); }" +
+        "if ('%s' === 'task') {" +
+        "  B.enqueueTasks(process.getRuntime(), function() { if (++count === n) { done(); } }, n);" +
+        "} else {" +
+        "  B.enqueueCallbacks(process.getRuntime(), function(i) { if (++count === n) { done(); } }, n);" +
+        "}";
+
+    public static void enqueueCallbacks(NodeRuntime runtime, JSObject f, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            runtime.enqueueCallback(f, null, new Object[] { i });
+        }
+    }
+
+    public static void enqueueTasks(ScriptRunner runtime, Runnable r, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            runtime.executeScriptTask(r, null);
+        }
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int callbacks = Benchmarks.intArg(args, 0, 200000);
+        NodeEnvironment env = new NodeEnvironment();
+
+        // Warm up the JIT and Nashorn's compiled code
+        for (int i = 0; i < 5; i++) {
+            run(env, "callback", callbacks);
+            run(env, "task", callbacks);
+        }
+
+        report("callback", callbacks, run(env, "callback", callbacks));
+        report("task", callbacks, run(env, "task", callbacks));
+        env.close();
+    }
+
+    private static double run(NodeEnvironment env, String mode, int callbacks)
+        throws Exception
+    {
+        return Benchmarks.time(env, String.format(SCRIPT, callbacks, mode));
+    }
+
+    private static void report(String name, int callbacks, double nanos)
+    {
+        System.out.printf("%s: %.0f callbacks per second%n", name, Benchmarks.perSecond(callbacks, nanos));
+    }
+}
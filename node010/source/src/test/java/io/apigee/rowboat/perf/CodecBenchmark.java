@@ -0,0 +1,141 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.node010.BufferUtils;
+import io.apigee.trireme.kernel.Charsets;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Compare the string codecs in BufferUtils with the CharsetEncoder-based code that they replaced, which is
+ * copied here as "legacy." For each case we count bytes and encode a string the way that "new Buffer(string)"
+ * does, or turn bytes into a string the way that "toString" does, and report nanoseconds and bytes allocated
+ * per call. This runs in plain Java, without a script, so that it measures only the codecs.
+ * <p>
+ * Arguments: [calls] [rounds]
+ * </p>
+ */
+public class CodecBenchmark
+{
+    private static final String HEADERS =
+        "HTTP/1.1 200 OK\r\nContent-Type: application/json; charset=utf-8\r\nContent-Length: 1234\r\n" +
+        "Date: Sat, 17 Oct 2026 10:00:00 GMT\r\nConnection: keep-alive\r\nX-Request-Id: 0af7651916cd43dd8448eb211c80319c\r\n\r\n";
+    private static final String INTL =
+        "{\"name\":\"Zo\u00eb M\u00fcller\",\"city\":\"S\u00e3o Paulo\",\"greeting\":\"\u3053\u3093\u306b\u3061\u306f\"," +
+        "\"note\":\"\u00a1Hola! \u20ac10 \u2603\"}";
+
+    private static final BufferUtils utils = BufferUtils.get();
+    private static final IntConsumer IGNORE = (c) -> {};
+
+    private static volatile int sink;
+
+    public static void main(String[] args)
+    {
+        int calls = Benchmarks.intArg(args, 0, 200000);
+        int rounds = Benchmarks.intArg(args, 1, 5);
+
+        byte[] random = new byte[256];
+        new java.util.Random(1).nextBytes(random);
+        ByteBuffer bytes = ByteBuffer.wrap(random);
+        String hex = utils.toString(bytes, 0, random.length, Charsets.NODE_HEX);
+        String base64 = utils.toString(bytes, 0, random.length, Charsets.BASE64);
+        ByteBuffer out = ByteBuffer.allocate(4096);
+
+        encode("utf8 ascii", calls, rounds, HEADERS, "utf8", Charsets.UTF8, out);
+        encode("utf8 mixed", calls, rounds, INTL, "utf8", Charsets.UTF8, out);
+        encode("ascii", calls, rounds, HEADERS, "ascii", Charsets.ASCII, out);
+        encode("hex", calls, rounds, hex, "hex", Charsets.NODE_HEX, out);
+        encode("base64", calls, rounds, base64, "base64", Charsets.BASE64, out);
+        decode("hex", calls, rounds, bytes, Charsets.NODE_HEX);
+        decode("base64", calls, rounds, bytes, Charsets.BASE64);
+    }
+
+    private static void encode(String name, int calls, int rounds, String s, String encoding, Charset cs,
+                               ByteBuffer out)
+    {
+        run(name + " encode legacy", calls, rounds, () -> {
+            int len = legacyByteLength(s, encoding);
+            sink += legacyWrite(out, s, 0, len, cs, IGNORE);
+        });
+        run(name + " encode", calls, rounds, () -> {
+            int len = utils.getByteLength(s, encoding);
+            sink += utils.write(out, s, 0, len, cs, IGNORE);
+        });
+    }
+
+    private static void decode(String name, int calls, int rounds, ByteBuffer bytes, Charset cs)
+    {
+        run(name + " decode legacy", calls, rounds, () ->
+            sink += new String(bytes.array(), 0, bytes.limit(), cs).length());
+        run(name + " decode", calls, rounds, () ->
+            sink += utils.toString(bytes, 0, bytes.limit(), cs).length());
+    }
+
+    private static void run(String name, int calls, int rounds, Runnable r)
+    {
+        // The first round warms up the JIT
+        double best = Double.MAX_VALUE;
+        long allocated = 0L;
+        for (int round = 0; round <= rounds; round++) {
+            double startAlloc = Benchmarks.threadAllocated();
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                r.run();
+            }
+            double nanos = (double)(System.nanoTime() - start) / calls;
+            if (round > 0) {
+                best = Math.min(best, nanos);
+                allocated = (long)((Benchmarks.threadAllocated() - startAlloc) / calls);
+            }
+        }
+        System.out.printf("%-24s %8.1f ns per call, %6d bytes allocated per call%n", name, best, allocated);
+    }
+
+    private static int legacyByteLength(String s, String encoding)
+    {
+        Charset cs = Charsets.get().resolveCharset(encoding);
+        CharsetEncoder encoder = cs.newEncoder();
+        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        if (encoder.maxBytesPerChar() == 1.0f) {
+            return s.length();
+        }
+
+        CharBuffer chars = CharBuffer.wrap(s);
+        ByteBuffer tmp = ByteBuffer.allocate(256);
+        int total = 0;
+        CoderResult result;
+        do {
+            tmp.clear();
+            result = encoder.encode(chars, tmp, true);
+            total += tmp.position();
+        } while (result.isOverflow());
+        do {
+            tmp.clear();
+            result = encoder.flush(tmp);
+            total += tmp.position();
+        } while (result.isOverflow());
+        return total;
+    }
+
+    private static int legacyWrite(ByteBuffer buf, CharSequence str, int offset, int length, Charset cs,
+                                   IntConsumer updateWriteCount)
+    {
+        int len = Math.min(length, buf.limit() - offset);
+        ByteBuffer writeBuf = buf.duplicate();
+        writeBuf.position(offset);
+        writeBuf.limit(offset + len);
+
+        CharBuffer chars = CharBuffer.wrap(str);
+        CharsetEncoder encoder = cs.newEncoder();
+        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        encoder.encode(chars, writeBuf, true);
+        encoder.flush(writeBuf);
+        updateWriteCount.accept(chars.position());
+        return writeBuf.position() - offset;
+    }
+}
@@ -0,0 +1,56 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+
+/**
+ * Measure how long it takes to collect a large body out of 16K chunks. "repeated" does
+ * "body = Buffer.concat([body, chunk])" for every chunk, as a lot of code that reads a request body does,
+ * "once" keeps a list of the chunks and makes one concat at the end, and "aggregator" appends each chunk
+ * to the internal BufferAggregator. We report the best time of several rounds in milliseconds per megabyte
+ * for a few sizes of body, so a cost that grows faster than the size of the body shows up as a number
+ * that grows with it.
+ * <p>
+ * Arguments: [rounds]
+ * </p>
+ */
+public class ConcatBenchmark
+{
+    private static final String SCRIPT =
+        "var B = Java.type('io.apigee.rowboat.perf.ConcatBenchmark'); var rounds = %d;" +
+        "var BufferAggregator = require('buffer')._BufferAggregator;" +
+        "var chunk = new Buffer(16384); chunk.fill(0x61);" +
+        "function repeated(n) { var body = new Buffer(0);" +
+        "  for (var i = 0; i < n; i++) { body = Buffer.concat([body, chunk]); } return body; }" +
+        "function once(n) { var list = []; var len = 0;" +
+        "  for (var i = 0; i < n; i++) { list.push(chunk); len += chunk.length; } return Buffer.concat(list, len); }" +
+        "function aggregator(n) { var agg = new BufferAggregator();" +
+        "  for (var i = 0; i < n; i++) { agg.append(chunk); } return agg.toBuffer(); }" +
+        "function time(f, n) { var best = Infinity;" +
+        "  for (var r = 0; r <= rounds; r++) { var start = process.hrtime(); var body = f(n);" +
+        "    var d = process.hrtime(start);" +
+        "    if (body.length !== n * chunk.length || body[body.length - 1] !== 0x61) { throw new Error('Bad body'); }" +
+        "    if (r > 0) { best = Math.min(best, (d[0] * 1e3) + (d[1] / 1e6)); } }" +
+        "  return best; }" +
+        "[16, 64, 256, 1024].forEach(function(n) {" +
+        "  B.record(n * chunk.length, time(repeated, n), time(once, n), time(aggregator, n));" +
+        "});";
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int rounds = Benchmarks.intArg(args, 0, 3);
+
+        NodeEnvironment env = new NodeEnvironment();
+        Benchmarks.run(env, String.format(SCRIPT, rounds));
+        env.close();
+    }
+
+    public static void record(int size, double repeatedMillis, double onceMillis, double aggregatorMillis)
+    {
+        double mb = size / (1024.0 * 1024.0);
+        System.out.printf("%6dK body: repeated %8.2f ms (%7.2f ms per MB), once %6.2f ms (%5.2f ms per MB), " +
+                          "aggregator %6.2f ms (%5.2f ms per MB)%n",
+                          size / 1024, repeatedMillis, repeatedMillis / mb, onceMillis, onceMillis / mb,
+                          aggregatorMillis, aggregatorMillis / mb);
+    }
+}
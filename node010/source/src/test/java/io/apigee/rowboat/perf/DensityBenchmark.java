@@ -0,0 +1,96 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeScript;
+import io.apigee.rowboat.ScriptFuture;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure how much heap and metaspace each running script uses, with all the scripts sharing a single
+ * script engine ("shared") and with a private engine for each script ("isolated"). Each mode runs in
+ * a new child JVM. The scripts load a few common modules and then stay running on a timer until
+ * all of them have started and the memory has been measured.
+ * <p>
+ * Arguments: [scripts]
+ * </p>
+ */
+public class DensityBenchmark
+{
+    private static final String SCRIPT =
+        "var util = require('util'); var stream = require('stream'); var url = require('url');" +
+        "var b = new Buffer('Hello');" +
+        "Java.type('io.apigee.rowboat.perf.DensityBenchmark').STARTED.countDown();" +
+        "setInterval(function() {}, 1000000);";
+
+    public static CountDownLatch STARTED;
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        if ((args.length > 1) && "child".equals(args[0])) {
+            runChild(Boolean.parseBoolean(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+
+        int scripts = Benchmarks.intArg(args, 0, 20);
+        runParent("shared", true, scripts);
+        runParent("isolated", false, scripts);
+    }
+
+    private static void runParent(String name, boolean shared, int scripts)
+        throws Exception
+    {
+        for (String result : Benchmarks.runChild(DensityBenchmark.class, "result ", "child", String.valueOf(shared), String.valueOf(scripts))) {
+            System.out.println(name + ": " + result);
+        }
+    }
+
+    private static void runChild(boolean shared, int scripts)
+        throws Exception
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        env.setSharedScriptEngine(shared);
+
+        long baseHeap = Benchmarks.usedHeap();
+        long baseMeta = usedMetaspace();
+        long start = System.nanoTime();
+
+        STARTED = new CountDownLatch(scripts);
+        ArrayList<ScriptFuture> futures = new ArrayList<>();
+        for (int i = 0; i < scripts; i++) {
+            NodeScript script = env.createScript("-e", SCRIPT);
+            futures.add(script.execute());
+        }
+        if (!STARTED.await(10, TimeUnit.MINUTES)) {
+            throw new AssertionError("Scripts did not start");
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long heap = Benchmarks.usedHeap() - baseHeap;
+        long meta = usedMetaspace() - baseMeta;
+        System.out.printf("result %d scripts, %.1f KB heap and %.1f KB metaspace per script, %.1f ms to start%n",
+                          scripts, (heap / 1024.0) / scripts, (meta / 1024.0) / scripts,
+                          (elapsed / 1000000.0) / scripts);
+
+        for (ScriptFuture f : futures) {
+            f.cancel(true);
+        }
+        env.close();
+        System.exit(0);
+    }
+
+    private static long usedMetaspace()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                return pool.getUsage().getUsed();
+            }
+        }
+        return 0L;
+    }
+}
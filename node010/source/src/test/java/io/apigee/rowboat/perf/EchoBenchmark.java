@@ -0,0 +1,87 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+
+/**
+ * Measure how many small writes per second go through an echo server when a client in the same script
+ * writes them in bursts and waits for all the bytes to come back. Every write on both sides completes
+ * with its own callback, so this is mostly a test of how cheaply the sockets deliver write completions.
+ * It also reports how many bytes the script thread allocates for each write, which includes reading
+ * each chunk back on both sides. It runs with and without the pool of read buffers, taking turns in
+ * one environment.
+ * <p>
+ * Arguments: [writes] [rounds]
+ * </p>
+ */
+public class EchoBenchmark
+{
+    private static final String SCRIPT =
+        "var net = require('net'); var B = Java.type('io.apigee.rowboat.perf.Benchmarks');" +
+        "var n = %d; var burst = 100; var chunk = new Buffer(64); chunk.fill('x');" +
+        "var server = net.createServer(function(s) {" +
+        "  s.on('data', function(d) { s.write(d); });" +
+        "  s.on('end', function() { s.end(); });" +
+        "});" +
+        "server.listen(0, function() {" +
+        "  var c = net.connect(server.address().port, function() {" +
+        "    var start = process.hrtime(); var allocated = B.threadAllocated(); var sent = 0; var received = 0;" +
+        "    function send() {" +
+        "      for (var i = 0; i < burst && sent < n; i++, sent++) { c.write(chunk); }" +
+        "    }" +
+        "    c.on('data', function(d) {" +
+        "      received += d.length;" +
+        "      if (received === n * chunk.length) {" +
+        "        var t = process.hrtime(start); B.record((t[0] * 1e9) + t[1], B.threadAllocated() - allocated);" +
+        "        c.end(); server.close();" +
+        "      } else if (received === sent * chunk.length) {" +
+        "        send();" +
+        "      }" +
+        "    });" +
+        "    send();" +
+        "  });" +
+        "});";
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int writes = Benchmarks.intArg(args, 0, 50000);
+        int rounds = Benchmarks.intArg(args, 1, 5);
+
+        NodeEnvironment env = new NodeEnvironment();
+
+        // Warm up the JIT and Nashorn's compiled code
+        for (int i = 0; i < 3; i++) {
+            run(env, false, writes);
+            run(env, true, writes);
+        }
+
+        double offNanos = 0.0;
+        double onNanos = 0.0;
+        double offAllocated = 0.0;
+        double onAllocated = 0.0;
+        for (int i = 0; i < rounds; i++) {
+            offNanos += run(env, false, writes);
+            offAllocated += Benchmarks.getLastValue();
+            onNanos += run(env, true, writes);
+            onAllocated += Benchmarks.getLastValue();
+        }
+        report("pool off", writes * rounds, offNanos, offAllocated);
+        report("pool on", writes * rounds, onNanos, onAllocated);
+        System.out.println(env.getReadBufferPoolStats());
+        env.close();
+    }
+
+    private static double run(NodeEnvironment env, boolean pool, int writes)
+        throws Exception
+    {
+        // Each socket looks at the setting when it is created, so one environment can run both ways
+        env.setReadBufferPool(pool ? 16L * 1024L * 1024L : 0L);
+        return Benchmarks.time(env, String.format(SCRIPT, writes));
+    }
+
+    private static void report(String name, int writes, double nanos, double allocated)
+    {
+        System.out.printf("%s: %.0f writes per second, %.0f bytes allocated per write%n",
+                          name, Benchmarks.perSecond(writes, nanos), allocated / writes);
+    }
+}
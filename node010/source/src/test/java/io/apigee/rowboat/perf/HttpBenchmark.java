@@ -0,0 +1,130 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NetworkStats;
+import io.apigee.rowboat.NodeEnvironment;
+
+import java.util.Arrays;
+
+/**
+ * Measure how many HTTP requests per second a "hello, world" server can handle when a client in the same
+ * script keeps a few requests outstanding at a time, with the network statistics hooks turned on and off.
+ * The two settings take turns in one environment, so that both see the same compiled code and machine noise.
+ * Then, in a new JVM, make the same calls in to NetworkStats that the hooks make for one request, straight
+ * from Java, with a warmup and many rounds, to see what they cost by themselves.
+ * <p>
+ * Arguments: [requests] [rounds]
+ * </p>
+ */
+public class HttpBenchmark
+{
+    private static final String SCRIPT =
+        "var http = require('http'); var B = Java.type('io.apigee.rowboat.perf.Benchmarks');" +
+        "var n = %d; var concurrency = 4; var sent = 0; var done = 0;" +
+        "var agent = new http.Agent({ maxSockets: concurrency });" +
+        "var server = http.createServer(function(req, res) { res.end('Hello, World!'); });" +
+        "server.listen(0, function() {" +
+        "  var start = process.hrtime();" +
+        "  function get() {" +
+        "    sent++;" +
+        "    http.get({ port: server.address().port, path: '/', agent: agent }, function(res) {" +
+        "      res.resume();" +
+        "      res.on('end', function() {" +
+        "        if (++done === n) {" +
+        "          var d = process.hrtime(start); B.record((d[0] * 1e9) + d[1]);" +
+        "          server.close();" +
+        "        } else if (sent < n) {" +
+        "          get();" +
+        "        }" +
+        "      });" +
+        "    });" +
+        "  }" +
+        "  for (var i = 0; i < concurrency; i++) { get(); }" +
+        "});";
+
+    private static final int HOOK_CALLS = 1000000;
+    private static final int HOOK_WARMUP_ROUNDS = 10;
+    private static final int HOOK_ROUNDS = 21;
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        if ((args.length > 0) && "hooks".equals(args[0])) {
+            System.out.println("hooks " + timeHooks(HOOK_CALLS));
+            return;
+        }
+
+        int requests = Benchmarks.intArg(args, 0, 5000);
+        int rounds = Benchmarks.intArg(args, 1, 5);
+
+        // The round trips below take so long that the hooks are lost in the noise, and so does a loop of
+        // hook calls in JavaScript, so time what the hooks do from Java and take the median. That runs in a
+        // new JVM, and before anything else, so that neither the JIT nor the threads of this one get in the way.
+        double hookNanos = Double.parseDouble(Benchmarks.runChild(HttpBenchmark.class, "hooks ", "hooks").get(0));
+        System.out.printf("hooks: %.1f ns per request, %.1f ns per event (median of %d rounds of %d)%n",
+                          hookNanos, hookNanos / 4.0, HOOK_ROUNDS, HOOK_CALLS);
+
+        // Each script looks at the setting when it starts, so one environment can run both ways
+        NodeEnvironment env = new NodeEnvironment();
+
+        // Warm up the JIT and Nashorn's compiled code
+        for (int i = 0; i < 3; i++) {
+            run(env, true, requests);
+            run(env, false, requests);
+        }
+
+        double onNanos = 0.0;
+        double offNanos = 0.0;
+        for (int i = 0; i < rounds; i++) {
+            onNanos += run(env, true, requests);
+            offNanos += run(env, false, requests);
+        }
+        report("stats on", requests * rounds, onNanos);
+        report("stats off", requests * rounds, offNanos);
+        System.out.println(env.getNetworkStats());
+        env.close();
+    }
+
+    private static double run(NodeEnvironment env, boolean stats, int requests)
+        throws Exception
+    {
+        env.setNetworkStats(stats);
+        return Benchmarks.time(env, String.format(SCRIPT, requests));
+    }
+
+    /**
+     * Return the median time, in nanoseconds, of the four calls that the hooks make in to NetworkStats for one
+     * request on a new connection. The stats have a parent, just like those of a script in an environment.
+     */
+    private static double timeHooks(int calls)
+    {
+        NetworkStats stats = new NetworkStats(new NetworkStats(null));
+        for (int i = 0; i < HOOK_WARMUP_ROUNDS; i++) {
+            runHooks(stats, calls);
+        }
+        double[] samples = new double[HOOK_ROUNDS];
+        for (int i = 0; i < HOOK_ROUNDS; i++) {
+            samples[i] = (double)runHooks(stats, calls) / calls;
+        }
+        if (stats.getServerRequests() != (long)calls * (HOOK_WARMUP_ROUNDS + HOOK_ROUNDS)) {
+            throw new AssertionError("Lost some hook calls");
+        }
+        Arrays.sort(samples);
+        return samples[HOOK_ROUNDS / 2];
+    }
+
+    private static long runHooks(NetworkStats stats, int calls)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            stats.netServerConnection();
+            stats.httpServerResponse(stats.httpServerRequest());
+            stats.netServerConnectionClose();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, int requests, double nanos)
+    {
+        System.out.printf("%s: %.0f requests per second%n", name, Benchmarks.perSecond(requests, nanos));
+    }
+}
@@ -0,0 +1,113 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeRuntime;
+import io.apigee.rowboat.ScriptFuture;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start many scripts that sit idle on a long timer, then measure the number of threads, the heap used
+ * per idle script, and how long it takes for a task sent from another thread to run inside a script.
+ * Each mode runs in a new child JVM. "threads" gives each script its own thread, and "loops" runs every
+ * script on a small number of event loop threads.
+ * <p>
+ * Arguments: [scripts] [modes...]
+ * </p>
+ */
+public class IdleScriptBenchmark
+{
+    private static final String SCRIPT =
+        "Java.type('io.apigee.rowboat.perf.IdleScriptBenchmark').STARTED.countDown();" +
+        "setInterval(function() {}, 1000000);";
+    private static final int WAKEUPS = 1000;
+
+    public static CountDownLatch STARTED;
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        if ((args.length > 2) && "child".equals(args[0])) {
+            runChild(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+
+        int scripts = Benchmarks.intArg(args, 0, 1000);
+        String[] modes = (args.length > 1 ? Arrays.copyOfRange(args, 1, args.length)
+                                          : new String[] { "threads", "loops" });
+        for (String mode : modes) {
+            runParent(mode, scripts);
+        }
+    }
+
+    private static void runParent(String mode, int scripts)
+        throws Exception
+    {
+        for (String result : Benchmarks.runChild(IdleScriptBenchmark.class, "result ", "child", mode, String.valueOf(scripts))) {
+            System.out.println(mode + ": " + result);
+        }
+    }
+
+    private static void configure(NodeEnvironment env, String mode)
+    {
+        switch (mode) {
+        case "threads":
+            break;
+        case "loops":
+            env.setEventLoopThreads(NodeEnvironment.DEFAULT_EVENT_LOOP_THREADS);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+    }
+
+    private static void runChild(String mode, int scripts)
+        throws Exception
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        configure(env, mode);
+        env.setDefaultClassCache();
+
+        long baseHeap = Benchmarks.usedHeap();
+        int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        STARTED = new CountDownLatch(scripts);
+        ArrayList<ScriptFuture> futures = new ArrayList<>();
+        for (int i = 0; i < scripts; i++) {
+            futures.add(env.createScript("-e", SCRIPT).execute());
+        }
+        if (!STARTED.await(10, TimeUnit.MINUTES)) {
+            throw new AssertionError("Scripts did not start");
+        }
+
+        long heap = Benchmarks.usedHeap() - baseHeap;
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads;
+
+        // Send tasks from this thread to random scripts, one at a time, and time the round trip
+        long[] latencies = new long[WAKEUPS];
+        for (int i = 0; i < WAKEUPS; i++) {
+            NodeRuntime runtime = futures.get((i * 7919) % scripts).getRuntime();
+            CountDownLatch ran = new CountDownLatch(1);
+            long start = System.nanoTime();
+            runtime.enqueueTask(ran::countDown);
+            ran.await();
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("result %d scripts, %d threads, %.1f KB heap per script, " +
+                          "wakeup median %.1f us p99 %.1f us%n",
+                          scripts, threads, (heap / 1024.0) / scripts,
+                          latencies[WAKEUPS / 2] / 1000.0, latencies[(WAKEUPS * 99) / 100] / 1000.0);
+
+        for (ScriptFuture f : futures) {
+            f.cancel(false);
+        }
+        env.close();
+        System.exit(0);
+    }
+}
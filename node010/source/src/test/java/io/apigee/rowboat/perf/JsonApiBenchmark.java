@@ -0,0 +1,81 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+
+/**
+ * Measure a keep-alive HTTP server that answers each request with about 2K of JSON, the way a typical API
+ * does with "res.end(JSON.stringify(...))", to a client in the same script. We report requests per second
+ * and how many bytes all threads allocated per request, which includes the client and the HTTP parser as
+ * well as the string writes.
+ * <p>
+ * Arguments: [requests] [rounds]
+ * </p>
+ */
+public class JsonApiBenchmark
+{
+    private static final String SCRIPT =
+        "var http = require('http'); var B = Java.type('io.apigee.rowboat.perf.Benchmarks');" +
+        "var n = %d; var concurrency = 4; var sent = 0; var done = 0;" +
+        "var agent = new http.Agent({ maxSockets: concurrency });" +
+        "var items = [];" +
+        "for (var i = 0; i < 20; i++) {" +
+        "  items.push({ id: i, name: 'Item ' + i, price: i * 1.25, tags: ['red', 'green', 'blue']," +
+        "    description: 'Caf\\u00e9 na\\u00efve r\\u00e9sum\\u00e9, a \\u20ac price for item ' + i });" +
+        "}" +
+        "var server = http.createServer(function(req, res) {" +
+        "  var body = JSON.stringify({ count: items.length, items: items });" +
+        "  res.writeHead(200, { 'Content-Type': 'application/json', 'Content-Length': Buffer.byteLength(body) });" +
+        "  res.end(body);" +
+        "});" +
+        "server.listen(0, function() {" +
+        "  var start = process.hrtime(); var startAlloc = B.allocated();" +
+        "  function get() {" +
+        "    sent++;" +
+        "    http.get({ port: server.address().port, path: '/', agent: agent }, function(res) {" +
+        "      var chunks = [];" +
+        "      res.on('data', function(d) { chunks.push(d); });" +
+        "      res.on('end', function() {" +
+        "        if (JSON.parse(Buffer.concat(chunks).toString()).count !== 20) { throw new Error('Bad response'); }" +
+        "        if (++done === n) {" +
+        "          var d = process.hrtime(start); B.record((d[0] * 1e9) + d[1], B.allocated() - startAlloc);" +
+        "          server.close();" +
+        "        } else if (sent < n) {" +
+        "          get();" +
+        "        }" +
+        "      });" +
+        "    });" +
+        "  }" +
+        "  for (var i = 0; i < concurrency; i++) { get(); }" +
+        "});";
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int requests = Benchmarks.intArg(args, 0, 5000);
+        int rounds = Benchmarks.intArg(args, 1, 5);
+
+        NodeEnvironment env = new NodeEnvironment();
+
+        // Warm up the JIT and Nashorn's compiled code
+        for (int i = 0; i < 3; i++) {
+            run(env, requests);
+        }
+
+        double nanos = 0.0;
+        double allocated = 0.0;
+        for (int i = 0; i < rounds; i++) {
+            nanos += run(env, requests);
+            allocated += Benchmarks.getLastValue();
+        }
+        int total = requests * rounds;
+        System.out.printf("%.0f requests per second, %.0f bytes allocated per request%n",
+                          Benchmarks.perSecond(total, nanos), allocated / total);
+        env.close();
+    }
+
+    private static double run(NodeEnvironment env, int requests)
+        throws Exception
+    {
+        return Benchmarks.time(env, String.format(SCRIPT, requests));
+    }
+}
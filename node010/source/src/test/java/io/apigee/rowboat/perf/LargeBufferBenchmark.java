@@ -0,0 +1,97 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measure what large Buffers cost the garbage collector, with the direct buffer threshold on and off.
+ * The script allocates a lot of 256K buffers, writes to and reads from each of them, and keeps the last
+ * few alive, as a proxy that passes large bodies through would. We report the time that it took and the
+ * number and total time of garbage collections while it ran. The two settings take turns in one environment.
+ * <p>
+ * Arguments: [buffers] [rounds]
+ * </p>
+ */
+public class LargeBufferBenchmark
+{
+    private static final String SCRIPT =
+        "var n = %d; var size = 256 * 1024; var live = [];" +
+        "for (var i = 0; i < n; i++) {" +
+        "  var b = new Buffer(size);" +
+        "  b.fill(i & 0xff);" +
+        "  b.write('Buffer number ' + i, size - 100);" +
+        "  if (b.toString('utf8', size - 100, size - 86) !== 'Buffer number ') { throw new Error('Bad buffer'); }" +
+        "  live[i %% 32] = b;" +
+        "}";
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int buffers = Benchmarks.intArg(args, 0, 2000);
+        int rounds = Benchmarks.intArg(args, 1, 5);
+
+        NodeEnvironment env = new NodeEnvironment();
+
+        // Warm up the JIT and Nashorn's compiled code
+        for (int i = 0; i < 3; i++) {
+            run(env, 0, buffers);
+            run(env, 64 * 1024, buffers);
+        }
+
+        long[] heap = new long[3];
+        long[] direct = new long[3];
+        for (int i = 0; i < rounds; i++) {
+            add(heap, run(env, 0, buffers));
+            add(direct, run(env, 64 * 1024, buffers));
+        }
+        report("heap", buffers * rounds, heap);
+        report("direct", buffers * rounds, direct);
+        env.close();
+    }
+
+    // Returns the elapsed time, the number of collections, and the collection time
+    private static long[] run(NodeEnvironment env, int threshold, int buffers)
+        throws Exception
+    {
+        env.setDirectBufferThreshold(threshold);
+        long count = gcCount();
+        long time = gcTime();
+        long start = System.nanoTime();
+        Benchmarks.run(env, String.format(SCRIPT, buffers));
+        long elapsed = System.nanoTime() - start;
+        return new long[] { elapsed, gcCount() - count, gcTime() - time };
+    }
+
+    private static long gcCount()
+    {
+        long count = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+        }
+        return count;
+    }
+
+    private static long gcTime()
+    {
+        long time = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += gc.getCollectionTime();
+        }
+        return time;
+    }
+
+    private static void add(long[] totals, long[] result)
+    {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] += result[i];
+        }
+    }
+
+    private static void report(String name, int buffers, long[] totals)
+    {
+        System.out.printf("%s: %.1f us per buffer, %d collections, %d ms collecting%n",
+                          name, (totals[0] / 1000.0) / buffers, totals[1], totals[2]);
+    }
+}
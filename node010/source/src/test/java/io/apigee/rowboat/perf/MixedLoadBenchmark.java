@@ -0,0 +1,93 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.EventLoopStats;
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.Sandbox;
+import io.apigee.rowboat.ScriptFuture;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the round-trip time of small messages on a TCP socket while the same script keeps the tick queue
+ * full of completed "fs.stat" calls, with different tick quanta. With no quantum, each turn of the loop
+ * runs every completion that has arrived before it looks at the socket again, so the round trips wait
+ * behind them. The script records the percentiles, in microseconds, and hands them back to us.
+ * <p>
+ * Arguments: [pings] [outstanding stats]
+ * </p>
+ */
+public class MixedLoadBenchmark
+{
+    private static final String SCRIPT =
+        "var net = require('net'); var fs = require('fs');" +
+        "var B = Java.type('io.apigee.rowboat.perf.MixedLoadBenchmark');" +
+        "var pings = %d; var outstanding = %d; var running = true; var times = [];" +
+        "function stat() { fs.stat('.', function() { if (running) { stat(); } }); }" +
+        "var server = net.createServer(function(s) { s.on('data', function(d) { s.write(d); }); });" +
+        "server.listen(0, function() {" +
+        "  var c = net.connect(server.address().port, function() {" +
+        "    for (var i = 0; i < outstanding; i++) { stat(); }" +
+        "    var start;" +
+        "    function ping() { start = process.hrtime(); c.write('x'); }" +
+        "    c.on('data', function() {" +
+        "      var d = process.hrtime(start); times.push((d[0] * 1e6) + (d[1] / 1e3));" +
+        "      if (times.length < pings) {" +
+        "        ping();" +
+        "      } else {" +
+        "        running = false; c.end(); server.close();" +
+        "        times.sort(function(a, b) { return a - b; });" +
+        "        B.record(times[Math.floor(pings * 0.5)], times[Math.floor(pings * 0.99)], times[pings - 1]);" +
+        "      }" +
+        "    });" +
+        "    ping();" +
+        "  });" +
+        "  c.on('end', function() {});" +
+        "});";
+
+    private static volatile double p50;
+    private static volatile double p99;
+    private static volatile double max;
+
+    public static void record(double p50, double p99, double max)
+    {
+        MixedLoadBenchmark.p50 = p50;
+        MixedLoadBenchmark.p99 = p99;
+        MixedLoadBenchmark.max = max;
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int pings = Benchmarks.intArg(args, 0, 2000);
+        int outstanding = Benchmarks.intArg(args, 1, 32);
+
+        // Each script looks at the quantum when it starts, so one environment can run all the cases.
+        // The default async pool is built to grow, not to queue, and it rejects a steady flood like this one.
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        Sandbox sandbox = new Sandbox();
+        sandbox.setAsyncThreadPool(pool);
+        NodeEnvironment env = new NodeEnvironment();
+        env.setSandbox(sandbox);
+        for (int i = 0; i < 3; i++) {
+            run(env, "warm-up", 0, 0L, pings, outstanding);
+        }
+        run(env, "no quantum", 0, 0L, pings, outstanding);
+        run(env, "64 tasks", 64, 0L, pings, outstanding);
+        run(env, "16 tasks", 16, 0L, pings, outstanding);
+        run(env, "100 us", 0, 100L, pings, outstanding);
+        env.close();
+        pool.shutdown();
+    }
+
+    private static void run(NodeEnvironment env, String name, int tasks, long micros, int pings, int outstanding)
+        throws Exception
+    {
+        env.setTickQuantum(tasks, micros, TimeUnit.MICROSECONDS);
+        ScriptFuture f = Benchmarks.run(env, String.format(SCRIPT, pings, outstanding));
+        EventLoopStats stats = f.getRuntime().getLoopStats();
+        System.out.printf("%s: p50 = %.0f us p99 = %.0f us max = %.0f us max tick queue = %d quantum hits = %d%n",
+                          name, p50, p99, max, stats.getMaxTickQueueDepth(), stats.getTickQuantumHits());
+    }
+}
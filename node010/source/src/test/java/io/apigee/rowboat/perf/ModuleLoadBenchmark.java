@@ -0,0 +1,51 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+
+import java.util.Map;
+
+/**
+ * Show which built-in modules a script loads, and how long each one took, using a warm environment so
+ * that compilation is not included. With no arguments, it uses a script that only computes and exits.
+ * <p>
+ * Arguments: [iterations] [script source]
+ * </p>
+ */
+public class ModuleLoadBenchmark
+{
+    private static final String SCRIPT =
+        "var x = 0; for (var i = 0; i < 1000; i++) { x += i; }";
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int iterations = Benchmarks.intArg(args, 0, 20);
+        String source = (args.length > 1 ? args[1] : SCRIPT);
+
+        NodeEnvironment env = new NodeEnvironment();
+        env.setDefaultClassCache();
+        // Compile everything that the script needs
+        runOne(env, source);
+
+        long total = 0L;
+        Map<String, Long> times = null;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            times = runOne(env, source);
+            total += System.nanoTime() - start;
+        }
+        env.close();
+
+        for (Map.Entry<String, Long> e : times.entrySet()) {
+            System.out.printf("  %-32s %8.2f ms%n", e.getKey(), e.getValue() / 1000000.0);
+        }
+        System.out.printf("%d modules loaded, %.2f ms per script%n",
+                          times.size(), (total / 1000000.0) / iterations);
+    }
+
+    private static Map<String, Long> runOne(NodeEnvironment env, String source)
+        throws Exception
+    {
+        return Benchmarks.run(env, source).getRuntime().getModuleLoadTimes();
+    }
+}
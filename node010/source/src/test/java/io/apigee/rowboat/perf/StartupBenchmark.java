@@ -0,0 +1,94 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+
+/**
+ * Measure how long it takes to start a trivial script and run it to completion. With "cold," every
+ * script runs in a brand-new NodeEnvironment, so every built-in module is compiled again. With "warm," all
+ * the scripts share one NodeEnvironment and the built-in modules are compiled only for the first one.
+ * The warm environment also uses the default class cache, and we print its statistics at the end.
+ * With "pooled," the environment is warm and also keeps a pool of global objects ready, and we wait
+ * a bit between scripts to give the pool time to refill, as there would be in most servers.
+ * <p>
+ * Arguments: [iterations]
+ * </p>
+ */
+public class StartupBenchmark
+{
+    private static final String SCRIPT =
+        "var util = require('util'); var stream = require('stream'); var b = new Buffer('Hello');";
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int iterations = Benchmarks.intArg(args, 0, 20);
+
+        // Get the JIT and class loading out of the way for both cases
+        runCold(2);
+        runWarm(2);
+        runPooled(2);
+
+        report("cold", iterations, runCold(iterations));
+        report("warm", iterations, runWarm(iterations));
+        report("pooled", iterations, runPooled(iterations));
+    }
+
+    private static long runCold(int iterations)
+        throws Exception
+    {
+        long total = 0L;
+        for (int i = 0; i < iterations; i++) {
+            NodeEnvironment env = new NodeEnvironment();
+            total += runOne(env);
+            env.close();
+        }
+        return total;
+    }
+
+    private static long runWarm(int iterations)
+        throws Exception
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        env.setDefaultClassCache();
+        // The first script pays for compilation
+        runOne(env);
+        long total = 0L;
+        for (int i = 0; i < iterations; i++) {
+            total += runOne(env);
+        }
+        System.out.println(env.getClassCacheStats());
+        env.close();
+        return total;
+    }
+
+    private static long runPooled(int iterations)
+        throws Exception
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        env.setDefaultClassCache();
+        env.setGlobalPool(4, 4);
+        runOne(env);
+        long total = 0L;
+        for (int i = 0; i < iterations; i++) {
+            Thread.sleep(50L);
+            total += runOne(env);
+        }
+        System.out.println(env.getRegistry(null).getGlobalPool());
+        env.close();
+        return total;
+    }
+
+    private static long runOne(NodeEnvironment env)
+        throws Exception
+    {
+        long start = System.nanoTime();
+        Benchmarks.run(env, SCRIPT);
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, int iterations, long nanos)
+    {
+        System.out.printf("%s: %d scripts, %.2f ms per script%n",
+                          name, iterations, (nanos / 1000000.0) / iterations);
+    }
+}
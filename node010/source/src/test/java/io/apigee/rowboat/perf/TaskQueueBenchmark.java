@@ -0,0 +1,131 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.internal.MpscQueue;
+import io.apigee.rowboat.internal.ScriptRunner;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measure how tasks get from lots of producer threads to one script. The "queue" part compares
+ * ConcurrentLinkedQueue and MpscQueue on their own, with many threads adding and one taking. The "script"
+ * part has a pool of threads call executeScriptTask in bursts, like async filesystem and DNS calls
+ * completing, and reports how many tasks per second the script ran and how many times a producer
+ * actually had to wake up its selector.
+ * <p>
+ * Arguments: [producers] [tasks per producer]
+ * </p>
+ */
+public class TaskQueueBenchmark
+{
+    private static final int BURST = 100;
+
+    private static final String SCRIPT =
+        "var B = Java.type('io.apigee.rowboat.perf.TaskQueueBenchmark'); var n = %d; var count = 0;" +
+        "var Benchmarks = Java.type('io.apigee.rowboat.perf.Benchmarks');" +
+        "var start = process.hrtime();" +
+        "process.getRuntime().pin();" +
+        "B.produce(process.getRuntime(), function() {" +
+        "  if (++count === n) {" +
+        "    var d = process.hrtime(start); Benchmarks.record((d[0] * 1e9) + d[1]); process.getRuntime().unPin();" +
+        "  }" +
+        "});";
+
+    private static int producers;
+    private static int perProducer;
+    private static ExecutorService pool;
+    private static ScriptRunner lastRuntime;
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        producers = Benchmarks.intArg(args, 0, 8);
+        perProducer = Benchmarks.intArg(args, 1, 100000);
+        pool = Executors.newFixedThreadPool(producers);
+
+        for (int i = 0; i < 3; i++) {
+            runQueue(ConcurrentLinkedQueue::new, ConcurrentLinkedQueue::offer, ConcurrentLinkedQueue::poll);
+            runQueue(MpscQueue::new, MpscQueue::offer, MpscQueue::poll);
+        }
+        System.out.printf("ConcurrentLinkedQueue: %.0f items per second%n",
+            runQueue(ConcurrentLinkedQueue::new, ConcurrentLinkedQueue::offer, ConcurrentLinkedQueue::poll));
+        System.out.printf("MpscQueue: %.0f items per second%n",
+            runQueue(MpscQueue::new, MpscQueue::offer, MpscQueue::poll));
+
+        NodeEnvironment env = new NodeEnvironment();
+        for (int i = 0; i < 3; i++) {
+            runScript(env);
+        }
+        runScript(env);
+        env.close();
+        pool.shutdown();
+    }
+
+    private interface Offer<Q>
+    {
+        void offer(Q q, Object o);
+    }
+
+    private interface Poll<Q>
+    {
+        Object poll(Q q);
+    }
+
+    private static <Q> double runQueue(Supplier<Q> create, Offer<Q> offer, Poll<Q> poll)
+        throws InterruptedException
+    {
+        Q q = create.get();
+        Object item = new Object();
+        long total = (long)producers * perProducer;
+        long start = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            pool.execute(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    offer.offer(q, item);
+                }
+            });
+        }
+        long taken = 0;
+        while (taken < total) {
+            if (poll.poll(q) != null) {
+                taken++;
+            }
+        }
+        return total / ((System.nanoTime() - start) / 1000000000.0);
+    }
+
+    /**
+     * Called by the script. Each producer adds tasks in bursts with a short pause in between.
+     */
+    public static void produce(ScriptRunner runtime, Runnable task)
+    {
+        lastRuntime = runtime;
+        for (int p = 0; p < producers; p++) {
+            pool.execute(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    runtime.executeScriptTask(task, null);
+                    if ((i % BURST) == 0) {
+                        try {
+                            TimeUnit.MICROSECONDS.sleep(50);
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private static void runScript(NodeEnvironment env)
+        throws Exception
+    {
+        long total = (long)producers * perProducer;
+        double nanos = Benchmarks.time(env, String.format(SCRIPT, total));
+        System.out.printf("script: %d producers, %.0f tasks per second, %d selector wakeups%n",
+                          producers, Benchmarks.perSecond(total, nanos), lastRuntime.getWakeupCount());
+    }
+}
@@ -0,0 +1,129 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.internal.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Simulate a server with lots of idle sockets that reset their idle timeouts every time they see
+ * some data, which is the worst case for timers. With "heap," timers are kept in a priority queue and
+ * cancelled timers stay there until they would have fired, which is how ScriptRunner used to work. With
+ * "wheel," they are kept in a TimerWheel and removed as soon as they are cancelled. Each reports how many
+ * resets it could do per second and how many timers were still being held at the end.
+ * <p>
+ * Arguments: [sockets] [resets]
+ * </p>
+ */
+public class TimerBenchmark
+{
+    private static final long IDLE_TIMEOUT = 120000L;
+    private static final int RESETS_PER_MS = 10;
+
+    public static void main(String[] args)
+    {
+        int sockets = Benchmarks.intArg(args, 0, 100000);
+        int resets = Benchmarks.intArg(args, 1, 2000000);
+
+        // Warm up the JIT for both
+        runHeap(sockets, resets / 10);
+        runWheel(sockets, resets / 10);
+
+        runHeap(sockets, resets);
+        runWheel(sockets, resets);
+    }
+
+    private static void runHeap(int sockets, int resets)
+    {
+        PriorityQueue<Timer> queue = new PriorityQueue<>();
+        Timer[] timers = new Timer[sockets];
+        long now = 0L;
+        for (int i = 0; i < sockets; i++) {
+            timers[i] = new Timer(now + IDLE_TIMEOUT);
+            queue.add(timers[i]);
+        }
+
+        Random rand = new Random(1L);
+        long fired = 0L;
+        long start = System.nanoTime();
+        for (int i = 0; i < resets; i++) {
+            int s = rand.nextInt(sockets);
+            timers[s].cancelled = true;
+            timers[s] = new Timer(now + IDLE_TIMEOUT);
+            queue.add(timers[s]);
+
+            if ((i % RESETS_PER_MS) == 0) {
+                now++;
+                Timer t = queue.peek();
+                while ((t != null) && (t.getTimeout() <= now)) {
+                    queue.poll();
+                    if (!t.cancelled) {
+                        fired++;
+                    }
+                    t = queue.peek();
+                }
+            }
+        }
+        report("heap", resets, System.nanoTime() - start, queue.size(), fired);
+    }
+
+    private static void runWheel(int sockets, int resets)
+    {
+        TimerWheel wheel = new TimerWheel(0L);
+        Timer[] timers = new Timer[sockets];
+        List<TimerWheel.Entry> expired = new ArrayList<>();
+        long now = 0L;
+        for (int i = 0; i < sockets; i++) {
+            timers[i] = new Timer(now + IDLE_TIMEOUT);
+            wheel.add(timers[i]);
+        }
+
+        Random rand = new Random(1L);
+        long fired = 0L;
+        long start = System.nanoTime();
+        for (int i = 0; i < resets; i++) {
+            int s = rand.nextInt(sockets);
+            wheel.remove(timers[s]);
+            timers[s] = new Timer(now + IDLE_TIMEOUT);
+            wheel.add(timers[s]);
+
+            if ((i % RESETS_PER_MS) == 0) {
+                now++;
+                wheel.expire(now, expired);
+                fired += expired.size();
+                expired.clear();
+            }
+        }
+        report("wheel", resets, System.nanoTime() - start, wheel.size(), fired);
+    }
+
+    private static void report(String name, int resets, long nanos, int held, long fired)
+    {
+        System.out.printf("%s: %.0f resets per second, %d timers held at the end, %d fired%n",
+                          name, resets / (nanos / 1000000000.0), held, fired);
+    }
+
+    private static final class Timer
+        extends TimerWheel.Entry
+        implements Comparable<Timer>
+    {
+        boolean cancelled;
+
+        Timer(long timeout)
+        {
+            this.timeout = timeout;
+        }
+
+        long getTimeout() {
+            return timeout;
+        }
+
+        @Override
+        public int compareTo(Timer t)
+        {
+            return Long.compare(timeout, t.timeout);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+
+/**
+ * Measure how many timers a script can create and cancel per second. "setTimeout" goes through all of
+ * Node's "timers" module, and "timer_wrap" creates and closes the native timer handles directly, which
+ * is closer to the cost of ScriptRunner.createTimer. The script times itself with process.hrtime and
+ * hands the result back to us.
+ * <p>
+ * Arguments: [timers]
+ * </p>
+ */
+public class TimerCreateBenchmark
+{
+    private static final String SET_TIMEOUT_SCRIPT =
+        "var n = %d; var f = function() {};" +
+        "var start = process.hrtime();" +
+        "for (var i = 0; i < n; i++) { clearTimeout(setTimeout(f, 1000 + (i %% 100))); }" +
+        "var d = process.hrtime(start);" +
+        "Java.type('io.apigee.rowboat.perf.Benchmarks').record((d[0] * 1e9) + d[1]);";
+
+    private static final String TIMER_WRAP_SCRIPT =
+        "var n = %d; var Timer = process.binding('timer_wrap').Timer;" +
+        "var start = process.hrtime();" +
+        "for (var i = 0; i < n; i++) { var t = new Timer(); t.start(1000 + (i %% 100), 0); t.close(); }" +
+        "var d = process.hrtime(start);" +
+        "Java.type('io.apigee.rowboat.perf.Benchmarks').record((d[0] * 1e9) + d[1]);";
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int timers = Benchmarks.intArg(args, 0, 200000);
+        NodeEnvironment env = new NodeEnvironment();
+
+        // Warm up the JIT and Nashorn's compiled code
+        for (int i = 0; i < 3; i++) {
+            run(env, SET_TIMEOUT_SCRIPT, timers);
+            run(env, TIMER_WRAP_SCRIPT, timers);
+        }
+
+        report("setTimeout", timers, run(env, SET_TIMEOUT_SCRIPT, timers));
+        report("timer_wrap", timers, run(env, TIMER_WRAP_SCRIPT, timers));
+        env.close();
+    }
+
+    private static double run(NodeEnvironment env, String script, int timers)
+        throws Exception
+    {
+        return Benchmarks.time(env, String.format(script, timers));
+    }
+
+    private static void report(String name, int timers, double nanos)
+    {
+        System.out.printf("%s: %.0f timers per second%n", name, Benchmarks.perSecond(timers, nanos));
+    }
+}
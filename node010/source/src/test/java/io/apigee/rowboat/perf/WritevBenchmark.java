@@ -0,0 +1,89 @@
+package io.apigee.rowboat.perf;
+
+import io.apigee.rowboat.NodeEnvironment;
+
+/**
+ * Measure a keep-alive HTTP server that sends a chunked response of three Buffers to a client in the same
+ * script, with gathering writes turned on and off. When they are off, we remove "_writev" from each server
+ * socket, so that when "http" uncorks the socket it writes each chunk by itself, as it used to. We report
+ * requests per second and, on Linux, how many "write" system calls the process made per response, which
+ * includes the one that the client makes to send each request.
+ * <p>
+ * Arguments: [requests] [rounds]
+ * </p>
+ */
+public class WritevBenchmark
+{
+    private static final String SCRIPT =
+        "var http = require('http'); var B = Java.type('io.apigee.rowboat.perf.Benchmarks');" +
+        "var n = %d; var writev = %b; var concurrency = 4; var sent = 0; var done = 0;" +
+        "var agent = new http.Agent({ maxSockets: concurrency });" +
+        "var head = new Buffer(512); head.fill(0x61); var body = new Buffer(4096); body.fill(0x62);" +
+        "var tail = new Buffer(256); tail.fill(0x63);" +
+        "var server = http.createServer(function(req, res) {" +
+        "  res.writeHead(200, { 'Content-Type': 'text/plain' });" +
+        "  res.write(head); res.write(body); res.end(tail);" +
+        "});" +
+        "server.on('connection', function(socket) { if (!writev) { socket._writev = null; } });" +
+        "server.listen(0, function() {" +
+        "  var start = process.hrtime(); var startWrites = B.writeCalls();" +
+        "  function get() {" +
+        "    sent++;" +
+        "    http.get({ port: server.address().port, path: '/', agent: agent }, function(res) {" +
+        "      var len = 0;" +
+        "      res.on('data', function(d) { len += d.length; });" +
+        "      res.on('end', function() {" +
+        "        if (len !== 4864) { throw new Error('Bad response length ' + len); }" +
+        "        if (++done === n) {" +
+        "          var d = process.hrtime(start); B.record((d[0] * 1e9) + d[1], B.writeCalls() - startWrites);" +
+        "          server.close();" +
+        "        } else if (sent < n) {" +
+        "          get();" +
+        "        }" +
+        "      });" +
+        "    });" +
+        "  }" +
+        "  for (var i = 0; i < concurrency; i++) { get(); }" +
+        "});";
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        int requests = Benchmarks.intArg(args, 0, 5000);
+        int rounds = Benchmarks.intArg(args, 1, 5);
+
+        NodeEnvironment env = new NodeEnvironment();
+
+        // Warm up the JIT and Nashorn's compiled code
+        for (int i = 0; i < 3; i++) {
+            run(env, true, requests);
+            run(env, false, requests);
+        }
+
+        double onNanos = 0.0;
+        double offNanos = 0.0;
+        double onWrites = 0.0;
+        double offWrites = 0.0;
+        for (int i = 0; i < rounds; i++) {
+            onNanos += run(env, true, requests);
+            onWrites += Benchmarks.getLastValue();
+            offNanos += run(env, false, requests);
+            offWrites += Benchmarks.getLastValue();
+        }
+        report("writev on", requests * rounds, onNanos, onWrites);
+        report("writev off", requests * rounds, offNanos, offWrites);
+        env.close();
+    }
+
+    private static double run(NodeEnvironment env, boolean writev, int requests)
+        throws Exception
+    {
+        return Benchmarks.time(env, String.format(SCRIPT, requests, writev));
+    }
+
+    private static void report(String name, int requests, double nanos, double writes)
+    {
+        System.out.printf("%s: %.0f requests per second, %.2f write calls per response%n",
+                          name, Benchmarks.perSecond(requests, nanos), writes / requests);
+    }
+}
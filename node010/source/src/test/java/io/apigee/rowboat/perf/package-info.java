@@ -0,0 +1,9 @@
+/**
+ * Benchmarks for the runtime. They are not run as part of the tests. Run one from the "node010/source"
+ * directory after "mvn test-compile" using the test class path, for instance:
+ * <pre>
+ * java -cp ... io.apigee.rowboat.perf.HttpBenchmark [requests] [rounds]
+ * </pre>
+ * Each class describes what it measures and the arguments that it takes, all of which are optional.
+ */
+package io.apigee.rowboat.perf;
@@ -0,0 +1,63 @@
+package io.apigee.rowboat.test;
+
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+public class BufferTest
+{
+    private NodeEnvironment env;
+
+    @Before
+    public void createEnvironment()
+    {
+        env = new NodeEnvironment();
+    }
+
+    @After
+    public void cleanEnvironment()
+    {
+        env.close();
+    }
+
+    @Test
+    public void testDirectBuffers()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        env.setDirectBufferThreshold(16384);
+        TestScripts.run(env, "directbuffertest.js");
+    }
+
+    @Test
+    public void testConcat()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "concattest.js");
+    }
+
+    @Test
+    public void testStringEncodings()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "encodingtest.js");
+    }
+
+    @Test
+    public void testTypedBuffers()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "typedbuffertest.js");
+    }
+
+    @Test
+    public void testJavaBuffers()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "javabuffertest.js");
+    }
+}
@@ -0,0 +1,69 @@
+package io.apigee.rowboat.test;
+
+import io.apigee.rowboat.ClassCacheStats;
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeException;
+import io.apigee.rowboat.NodeScript;
+import io.apigee.rowboat.ScriptStatus;
+import io.apigee.rowboat.internal.SoftClassCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutionException;
+
+public class ClassCacheTest
+{
+    private static final String VM_SCRIPT =
+        "var vm = require('vm'); var assert = require('assert');" +
+        "assert.equal(vm.runInThisContext('1 + 1', 'two.js'), 2);";
+
+    private NodeEnvironment env;
+
+    @Before
+    public void createEnvironment()
+    {
+        env = new NodeEnvironment();
+    }
+
+    @After
+    public void cleanEnvironment()
+    {
+        env.close();
+    }
+
+    @Test
+    public void testClassCache()
+        throws InterruptedException, ExecutionException, NodeException
+    {
+        env.setDefaultClassCache();
+        for (int i = 0; i < 2; i++) {
+            NodeScript script = env.createScript("-e", VM_SCRIPT);
+            ScriptStatus stat = script.execute().get();
+            assertEquals(0, stat.getExitCode());
+        }
+        ClassCacheStats stats = env.getClassCacheStats();
+        assertTrue(stats.getHits() > 0);
+        assertTrue(stats.getBytesHeld() > 0);
+    }
+
+    @Test
+    public void testSharedClassCache()
+        throws InterruptedException, ExecutionException, NodeException
+    {
+        // Two environments have two engines, and neither one may push the other's code out of the cache
+        SoftClassCache cache = new SoftClassCache();
+        env.setClassCache(cache);
+        NodeEnvironment otherEnv = new NodeEnvironment();
+        otherEnv.setClassCache(cache);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(0, env.createScript("-e", VM_SCRIPT).execute().get().getExitCode());
+            assertEquals(0, otherEnv.createScript("-e", VM_SCRIPT).execute().get().getExitCode());
+        }
+        assertTrue(env.getClassCacheStats().getHits() > 0);
+        assertTrue(otherEnv.getClassCacheStats().getHits() > 0);
+        otherEnv.close();
+    }
+}
@@ -0,0 +1,184 @@
+package io.apigee.rowboat.test;
+
+import io.apigee.rowboat.EventLoopStats;
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeException;
+import io.apigee.rowboat.NodeRuntime;
+import io.apigee.rowboat.ScriptFuture;
+import jdk.nashorn.api.scripting.JSObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class EventLoopTest
+{
+    private NodeEnvironment env;
+
+    @Before
+    public void createEnvironment()
+    {
+        env = new NodeEnvironment();
+    }
+
+    @After
+    public void cleanEnvironment()
+    {
+        env.close();
+    }
+
+    /**
+     * Called by "quantumtest.js" to queue up callbacks as if they came from another thread.
+     */
+    public static void enqueueCallbacks(NodeRuntime runtime, JSObject f, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            runtime.enqueueCallback(f, null, new Object[] { i });
+        }
+    }
+
+    @Test
+    public void testEnqueueCallback()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "callbacktest.js");
+        // Once the domain module is loaded, callbacks go through "submitTick" instead
+        TestScripts.runSource(env, "require('domain');" + TestScripts.source("callbacktest.js"));
+    }
+
+    @Test
+    public void testQuantum()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        env.setTickQuantum(2, 0L, TimeUnit.MILLISECONDS);
+        env.setTimerQuantum(1, 0L, TimeUnit.MILLISECONDS);
+        ScriptFuture f = TestScripts.run(env, "quantumtest.js");
+        EventLoopStats stats = f.getRuntime().getLoopStats();
+        assertTrue(stats.getTickQuantumHits() >= 4L);
+        assertEquals(4L, stats.getTimerQuantumHits());
+    }
+
+    @Test
+    public void testNetworkQuantum()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        env.setNetworkQuantum(1, 0L, TimeUnit.MILLISECONDS);
+        ScriptFuture f = TestScripts.run(env, "networkquantumtest.js");
+        assertTrue(f.getRuntime().getLoopStats().getNetworkQuantumHits() > 0L);
+    }
+
+    @Test
+    public void testSharedLoopNetworkQuantum()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        env.setEventLoopThreads(1);
+        env.setNetworkQuantum(1, 0L, TimeUnit.MILLISECONDS);
+        ScriptFuture f = TestScripts.run(env, "networkquantumtest.js");
+        assertTrue(f.getRuntime().getLoopStats().getNetworkQuantumHits() > 0L);
+    }
+
+    @Test
+    public void testLoopStats()
+        throws Exception
+    {
+        env.setExportLoopStats(true);
+        ScriptFuture f = env.createScript("-e", TestScripts.source("loopstatstest.js")).execute();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("io.apigee.rowboat:type=EventLoop,*");
+        Set<ObjectName> names = server.queryNames(pattern, null);
+        for (int i = 0; names.isEmpty() && (i < 100); i++) {
+            Thread.sleep(10L);
+            names = server.queryNames(pattern, null);
+        }
+        assertEquals(1, names.size());
+        assertNotNull(server.getAttribute(names.iterator().next(), "Iterations"));
+
+        assertEquals(0, f.get().getExitCode());
+        assertTrue(server.queryNames(pattern, null).isEmpty());
+
+        EventLoopStats stats = f.getRuntime().getLoopStats();
+        assertTrue(stats.getIterations() > 0L);
+        assertEquals(0, stats.getTimerQueueSize());
+        long fired = 0L;
+        for (long c : stats.getLagHistogram()) {
+            fired += c;
+        }
+        assertEquals(6L, fired);
+    }
+
+    @Test
+    public void testEventLoops()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        env.setEventLoopThreads(2);
+        String source = TestScripts.source("eventlooptest.js");
+        ArrayList<ScriptFuture> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(env.createScript("-e", source).execute());
+        }
+        for (ScriptFuture f : futures) {
+            assertEquals(0, f.get().getExitCode());
+        }
+    }
+
+    @Test
+    public void testKeyOwnership()
+        throws InterruptedException, ExecutionException, TimeoutException, NodeException, IOException
+    {
+        // Scripts on one loop open and close handles while other scripts finish and give up their keys
+        env.setEventLoopThreads(1);
+        String source = TestScripts.source("keyownertest.js");
+        ArrayList<ScriptFuture> futures = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            futures.add(env.createScript("-e", "var rounds = " + (i * 5) + ';' + source).execute());
+        }
+        for (ScriptFuture f : futures) {
+            assertEquals(0, f.get(60, TimeUnit.SECONDS).getExitCode());
+        }
+    }
+
+    @Test
+    public void testEventLoopCancel()
+        throws InterruptedException, ExecutionException, NodeException
+    {
+        env.setEventLoopThreads(1);
+        ScriptFuture forever = env.createScript("-e", "setInterval(function() {}, 10);").execute();
+        ScriptFuture quick = env.createScript("-e", "setTimeout(function() {}, 50);").execute();
+        assertEquals(0, quick.get().getExitCode());
+        assertFalse(forever.isDone());
+        forever.cancel(false);
+        try {
+            forever.get();
+            fail("Expected a cancellation exception");
+        } catch (CancellationException ok) {
+        }
+    }
+
+    @Test
+    public void testEventLoopClose()
+        throws InterruptedException, ExecutionException, TimeoutException, NodeException
+    {
+        // Closing the environment ends the scripts that are still running, or still waiting to start
+        env.setEventLoopThreads(1);
+        ScriptFuture forever = env.createScript("-e", "setInterval(function() {}, 10);").execute();
+        ScriptFuture quick = env.createScript("-e", "setTimeout(function() {}, 10);").execute();
+        assertEquals(0, quick.get().getExitCode());
+        ScriptFuture late = env.createScript("-e", "setInterval(function() {}, 10);").execute();
+        env.close();
+        assertTrue(forever.get(10, TimeUnit.SECONDS).isCancelled());
+        assertTrue(late.get(10, TimeUnit.SECONDS).isCancelled());
+    }
+}
@@ -0,0 +1,125 @@
+package io.apigee.rowboat.test;
+
+import io.apigee.rowboat.BufferPoolStats;
+import io.apigee.rowboat.NetworkStats;
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeException;
+import io.apigee.rowboat.ScriptFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+public class NetworkTest
+{
+    private NodeEnvironment env;
+
+    @Before
+    public void createEnvironment()
+    {
+        env = new NodeEnvironment();
+    }
+
+    @After
+    public void cleanEnvironment()
+    {
+        env.close();
+    }
+
+    @Test
+    public void testNetworkStats()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        ScriptFuture f = TestScripts.run(env, "httprequeststest.js");
+        NetworkStats stats = f.getRuntime().getNetworkStats();
+        assertEquals(3L, stats.getServerConnections());
+        assertEquals(0L, stats.getOpenServerConnections());
+        assertEquals(3L, stats.getServerRequests());
+        assertEquals(3L, stats.getServerResponses());
+        assertEquals(3L, stats.getClientRequests());
+        assertEquals(3L, stats.getClientResponses());
+        long timed = 0L;
+        for (long c : stats.getServerLatencyHistogram()) {
+            timed += c;
+        }
+        assertEquals(3L, timed);
+        assertEquals(3L, env.getNetworkStats().getServerRequests());
+    }
+
+    @Test
+    public void testNoNetworkStats()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        env.setNetworkStats(false);
+        ScriptFuture f = TestScripts.run(env, "httprequeststest.js");
+        assertNull(f.getRuntime().getNetworkStats());
+        assertEquals(0L, env.getNetworkStats().getServerRequests());
+    }
+
+    @Test
+    public void testWriteCompletion()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "writecompletiontest.js");
+    }
+
+    @Test
+    public void testReadBufferPool()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        NodeEnvironment poolEnv = new NodeEnvironment();
+        poolEnv.setReadBufferPool(1024L * 1024L);
+        TestScripts.run(poolEnv, "echotest.js");
+        TestScripts.run(poolEnv, "httprequeststest.js");
+
+        BufferPoolStats stats = poolEnv.getReadBufferPoolStats();
+        assertTrue(stats.getHits() > 0L);
+        assertTrue(stats.getCapacity() > 0L);
+        assertTrue(stats.getCapacity() <= 1024L * 1024L);
+        poolEnv.close();
+        assertEquals(stats.getOutstanding(), stats.getLeaked());
+        assertNull(env.getReadBufferPoolStats());
+    }
+
+    @Test
+    public void testWritev()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "writevtest.js");
+    }
+
+    @Test
+    public void testStringWrites()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "stringwritetest.js");
+    }
+
+    @Test
+    public void testCoalescedStringWrites()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "coalescetest.js");
+        TestScripts.run(env, "stringwritetest.js");
+        BufferPoolStats stats = env.getWriteBufferPoolStats();
+        assertTrue(stats.getHits() > 0L);
+        assertEquals(0L, stats.getOutstanding());
+        assertTrue(stats.getCapacity() <= NodeEnvironment.DEFAULT_WRITE_BUFFER_POOL);
+    }
+
+    @Test
+    public void testHeapWriteBuffers()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        // With no direct memory for writes, strings are collected in heap buffers instead
+        env.setWriteBufferPool(0L);
+        TestScripts.run(env, "coalescetest.js");
+        TestScripts.run(env, "stringwritetest.js");
+        assertEquals(0L, env.getWriteBufferPoolStats().getHits());
+        assertEquals(0L, env.getWriteBufferPoolStats().getCapacity());
+    }
+}
@@ -0,0 +1,83 @@
+package io.apigee.rowboat.test;
+
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeException;
+import io.apigee.rowboat.ScriptFuture;
+import io.apigee.rowboat.ScriptTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ScriptTimeLimitTest
+{
+    private static volatile boolean released;
+
+    private NodeEnvironment env;
+
+    /**
+     * Called by "spintest.js," which spins until this returns true.
+     */
+    public static boolean isReleased()
+    {
+        return released;
+    }
+
+    @Before
+    public void createEnvironment()
+    {
+        released = false;
+        env = new NodeEnvironment();
+        env.setScriptTimeLimit(200, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void cleanEnvironment()
+    {
+        // Let the abandoned script return, so that its thread doesn't spin for the rest of the tests
+        released = true;
+        env.close();
+    }
+
+    @Test
+    public void testScriptTimeout()
+        throws InterruptedException, ExecutionException, TimeoutException, NodeException, IOException
+    {
+        try {
+            // The future fails even though the script never returns from its tick
+            env.createScript("-e", TestScripts.source("spintest.js")).execute().get(10, TimeUnit.SECONDS);
+            fail("Expected a time out exception");
+        } catch (ExecutionException ee) {
+            assertTrue("Expected a ScriptTimeoutException", ee.getCause() instanceof ScriptTimeoutException);
+        }
+        assertEquals(1L, env.getWatchdog().getTimeouts());
+    }
+
+    @Test
+    public void testScriptTimeoutEventLoop()
+        throws InterruptedException, ExecutionException, TimeoutException, NodeException, IOException
+    {
+        // Leave the script that runs after the stopped one plenty of time, even on a cold JVM
+        env.setScriptTimeLimit(1, TimeUnit.SECONDS);
+        env.setEventLoopThreads(1);
+        ScriptFuture f = env.createScript("-e", TestScripts.source("spintest.js")).execute();
+        try {
+            f.get(10, TimeUnit.SECONDS);
+            fail("Expected a time out exception");
+        } catch (ExecutionException ee) {
+            assertTrue("Expected a ScriptTimeoutException", ee.getCause() instanceof ScriptTimeoutException);
+        }
+        // The loop thread is still spinning, so another script has to run on a new loop
+        ScriptFuture other = env.createScript("-e", "setTimeout(function() {}, 10);").execute();
+        assertEquals(0, other.get(10, TimeUnit.SECONDS).getExitCode());
+        // The spin loop has run for at least the time limit, if the platform can measure CPU time
+        long cpu = f.getRuntime().getCpuTime();
+        assertTrue(cpu < 0L || cpu > TimeUnit.MILLISECONDS.toNanos(500));
+    }
+}
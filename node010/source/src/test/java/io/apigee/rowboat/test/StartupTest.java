@@ -0,0 +1,88 @@
+package io.apigee.rowboat.test;
+
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeException;
+import io.apigee.rowboat.NodeScript;
+import io.apigee.rowboat.ScriptFuture;
+import io.apigee.rowboat.ScriptStatus;
+import io.apigee.rowboat.internal.GlobalPool;
+import io.apigee.rowboat.internal.ScriptRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+public class StartupTest
+{
+    private NodeEnvironment env;
+
+    @Before
+    public void createEnvironment()
+    {
+        env = new NodeEnvironment();
+    }
+
+    @After
+    public void cleanEnvironment()
+    {
+        env.close();
+    }
+
+    @Test
+    public void testGlobalPool()
+        throws InterruptedException, ExecutionException, NodeException
+    {
+        env.setGlobalPool(2, 2);
+        GlobalPool pool = env.getRegistry(null).getGlobalPool();
+        assertNotNull(pool);
+        for (int i = 0; (i < 300) && (pool.getReady() < 2); i++) {
+            Thread.sleep(100L);
+        }
+        for (int i = 0; i < 3; i++) {
+            NodeScript script = env.createScript("-e", "var assert = require('assert'); assert(global);");
+            ScriptStatus stat = script.execute().get();
+            assertEquals(0, stat.getExitCode());
+        }
+        assertTrue(pool.getHits() > 0);
+        assertEquals(3L, pool.getHits() + pool.getMisses());
+    }
+
+    @Test
+    public void testLazyBuiltins()
+        throws InterruptedException, ExecutionException, NodeException
+    {
+        NodeScript script = env.createScript("-e", "var x = 1 + 1;");
+        ScriptFuture future = script.execute();
+        assertEquals(0, future.get().getExitCode());
+        Map<String, Long> times = future.getRuntime().getModuleLoadTimes();
+        assertTrue(times.containsKey("NativeModule events"));
+        assertFalse(times.containsKey("NativeModule buffer"));
+        assertFalse(times.containsKey("NativeModule net"));
+
+        script = env.createScript("-e",
+          "var assert = require('assert'); assert.equal(new Buffer('Hi').length, 2);" +
+          "assert.equal(typeof global.Buffer, 'function');");
+        future = script.execute();
+        assertEquals(0, future.get().getExitCode());
+        assertTrue(future.getRuntime().getModuleLoadTimes().containsKey("NativeModule buffer"));
+    }
+
+    @Test
+    public void testIsolatedScriptEngine()
+        throws InterruptedException, ExecutionException, NodeException
+    {
+        env.setSharedScriptEngine(false);
+        NodeScript s1 = env.createScript("-e", "var assert = require('assert'); assert(!global.shared);");
+        ScriptFuture f1 = s1.execute();
+        assertEquals(0, f1.get().getExitCode());
+        NodeScript s2 = env.createScript("-e", "global.shared = true;");
+        ScriptFuture f2 = s2.execute();
+        assertEquals(0, f2.get().getExitCode());
+        assertNotSame(((ScriptRunner)f1.getRuntime()).getScriptEngine(),
+                      ((ScriptRunner)f2.getRuntime()).getScriptEngine());
+    }
+}
@@ -0,0 +1,55 @@
+package io.apigee.rowboat.test;
+
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeException;
+import io.apigee.rowboat.ScriptFuture;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs the scripts in "src/test/resources/tests" for the tests in this package. A script passes by exiting
+ * normally, which it does unless one of its assertions fails. We pass the source with "-e" rather than the
+ * file name so that these tests don't depend on the module loader reading the file, which fails with EINVAL
+ * on JDK 8 updates that hand "fstat" sizes back to scripts as Java Longs.
+ */
+final class TestScripts
+{
+    private static final String DIR = "./target/test-classes/tests/";
+
+    private TestScripts()
+    {
+    }
+
+    /**
+     * Return the source of the named script.
+     */
+    static String source(String name)
+        throws IOException
+    {
+        return new String(Files.readAllBytes(Paths.get(DIR, name)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Run the named script, fail unless it exits with code zero, and return its future so that the caller
+     * may look at the runtime.
+     */
+    static ScriptFuture run(NodeEnvironment env, String name)
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        return runSource(env, source(name));
+    }
+
+    static ScriptFuture runSource(NodeEnvironment env, String source)
+        throws InterruptedException, ExecutionException, NodeException
+    {
+        ScriptFuture future = env.createScript("-e", source).execute();
+        assertEquals(0, future.get().getExitCode());
+        return future;
+    }
+}
@@ -0,0 +1,41 @@
+package io.apigee.rowboat.test;
+
+import io.apigee.rowboat.NodeEnvironment;
+import io.apigee.rowboat.NodeException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+public class TimerTest
+{
+    private NodeEnvironment env;
+
+    @Before
+    public void createEnvironment()
+    {
+        env = new NodeEnvironment();
+    }
+
+    @After
+    public void cleanEnvironment()
+    {
+        env.close();
+    }
+
+    @Test
+    public void testTimers()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "timerstest.js");
+    }
+
+    @Test
+    public void testClockJump()
+        throws InterruptedException, ExecutionException, NodeException, IOException
+    {
+        TestScripts.run(env, "clockjumptest.js");
+    }
+}
@@ -0,0 +1,12 @@
+var assert = require('assert'); var runtime = process.getRuntime(); var calls = [];
+var self = { name: 'self' };
+function cb(a, b) {
+  assert.equal(this, self); calls.push([a, b, arguments.length]);
+  process.nextTick(function() { calls.push('tick'); });
+}
+runtime.enqueueCallback(cb, self, []);
+runtime.enqueueCallback(cb, self, [1, 'two']);
+runtime.enqueueCallback(cb, self, null, [3]);
+process.on('exit', function() {
+  assert.deepEqual(calls, [[undefined, undefined, 0], 'tick', [1, 'two', 2], 'tick', [3, undefined, 1], 'tick']);
+});
@@ -0,0 +1,22 @@
+// Move the wall clock an hour back and then a day forward while timers are pending. Node's timer lists
+// used to use Date.now(), so the first would have stalled the idle timer for an hour and the second
+// would have fired the last timer right away.
+var assert = require('assert'); var timers = require('timers');
+var realNow = Date.now; var offset = 0; Date.now = function() { return realNow() + offset; };
+var fired = [];
+function elapsed(start) { var d = process.hrtime(start); return (d[0] * 1000) + (d[1] / 1000000); }
+setTimeout(function() { fired.push('short'); }, 50);
+setTimeout(function() { fired.push('long'); }, 200);
+var idle = { _onTimeout: function() { fired.push('idle'); } };
+timers.enroll(idle, 100); timers.active(idle);
+offset = -3600000;
+setTimeout(function() {
+  offset = 86400000; var start = process.hrtime();
+  setTimeout(function() { assert(elapsed(start) >= 90); fired.push('after'); }, 100);
+}, 20);
+process.on('exit', function() {
+  assert.notEqual(fired.indexOf('after'), -1);
+  assert.deepEqual(fired.filter(function(f) { return f !== 'after'; }), ['short', 'idle', 'long']);
+  var t = process.hrtime(); assert(t[1] >= 0 && t[1] < 1000000000);
+  assert.equal(t[0], Math.floor(t[0])); assert(process.uptime() > 0.2);
+});
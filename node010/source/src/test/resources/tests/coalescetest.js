@@ -0,0 +1,18 @@
+// Small strings written in one callback go to the socket in one write
+var assert = require('assert'); var net = require('net');
+var expected = '';
+var server = net.createServer(function(s) {
+  var handle = s._handle.handle; var before = handle.getSocketWrites();
+  for (var i = 0; i < 100; i++) { var m = 'Line ' + i + '\n'; expected += m; s.write(m); }
+  assert.equal(handle.getSocketWrites(), before);
+  setImmediate(function() {
+    assert.equal(handle.getSocketWrites() - before, 1);
+    s.end();
+  });
+});
+server.listen(0, function() {
+  var c = net.connect(server.address().port); var received = '';
+  c.setEncoding('utf8');
+  c.on('data', function(d) { received += d; });
+  c.on('end', function() { assert.equal(received, expected); server.close(); });
+});
@@ -0,0 +1,36 @@
+var assert = require('assert');
+var BufferAggregator = require('buffer')._BufferAggregator;
+
+// concat always copies, so the result and the buffers in the list never share memory
+var body = new Buffer(0);
+for (var i = 0; i < 300; i++) {
+  var chunk = new Buffer(100); chunk.fill(i & 0xff);
+  var next = Buffer.concat([body, chunk]);
+  next[0] = 0xee;
+  if (body.length > 0) { assert.equal(body[0], 0); }
+  body = next; body[0] = 0;
+}
+assert.equal(body.length, 30000);
+for (var i = 0; i < 300; i++) { assert.equal(body[i * 100], i & 0xff); assert.equal(body[i * 100 + 99], i & 0xff); }
+var first = new Buffer(20000); first.fill(1);
+var joined = Buffer.concat([first, new Buffer('xy')]);
+first[0] = 2; assert.equal(joined[0], 1);
+joined[1] = 3; assert.equal(first[1], 1);
+assert.equal(joined.toString('utf8', 20000), 'xy');
+assert.equal(Buffer.concat([body, chunk], 30050).length, 30050);
+
+// The aggregator grows in place, and what it returned earlier never changes
+var agg = new BufferAggregator(16); var kept = [];
+for (var i = 0; i < 300; i++) {
+  var chunk = new Buffer(100); chunk.fill(i & 0xff);
+  agg.append(chunk); kept.push(agg.toBuffer());
+}
+var all = agg.toBuffer();
+assert.equal(all.length, 30000); assert.deepEqual(all, body);
+assert.equal(kept[99].length, 10000); assert.equal(kept[99][9999], 99);
+var tail = agg.reserve(10); tail.write('0123456789'); agg.commit(4);
+assert.equal(agg.toBuffer().toString('utf8', 30000), '0123');
+assert.equal(all.length, 30000); assert.equal(kept[250][25099], 250);
+assert.equal(new BufferAggregator().toBuffer().length, 0);
+assert.throws(function() { new BufferAggregator(4).commit(5); }, RangeError);
+
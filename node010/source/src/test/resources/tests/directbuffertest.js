@@ -0,0 +1,14 @@
+var assert = require('assert');
+var before = process.memoryUsage().external;
+var big = new Buffer(100000); big.fill('a');
+assert(big.toJava().isDirect()); assert(!new Buffer(10).toJava().isDirect());
+assert.equal(process.memoryUsage().external - before, 100000);
+assert(process.memoryUsage().rss >= process.memoryUsage().external);
+assert.equal(big.write('Hello, World! \u00e9', 50000), 16);
+assert.equal(big.toString('utf8', 50000, 50016), 'Hello, World! \u00e9');
+assert.equal(big.toString('hex', 50000, 50005), '48656c6c6f');
+assert.equal(big.slice(50000, 50005).toString('base64'), 'SGVsbG8=');
+var small = new Buffer(5); big.copy(small, 0, 50000, 50005); assert.equal(small.toString(), 'Hello');
+small.copy(big, 0); assert.equal(big.toString('ascii', 0, 6), 'Helloa');
+assert.equal(Buffer.concat([small, big.slice(0, 5)]).toString(), 'HelloHello');
+assert.equal(big[99999], 97);
@@ -0,0 +1,13 @@
+var assert = require('assert'); var net = require('net');
+var server = net.createServer(function(s) { s.pipe(s); });
+server.listen(0, function() {
+  var c = net.connect(server.address().port, function() {
+    var sent = ''; var received = '';
+    for (var i = 0; i < 200; i++) { var m = 'Message ' + i + ';'; sent += m; c.write(m); }
+    c.setEncoding('utf8');
+    c.on('data', function(d) {
+      received += d;
+      if (received.length === sent.length) { assert.equal(received, sent); c.end(); server.close(); }
+    });
+  });
+});
@@ -0,0 +1,27 @@
+var assert = require('assert');
+var s = 'caf\u00e9 \u20ac \ud83d\ude00!';
+assert.equal(Buffer.byteLength(s), 15); assert.equal(Buffer.byteLength(s, 'ascii'), 10);
+var b = new Buffer(s); assert.equal(b.length, 15); assert.equal(b.toString('hex'),
+  '636166c3a920e282ac20f09f988021'); assert.equal(b.toString(), s);
+assert.equal(new Buffer('a\ud800b').toString('hex'), '61efbfbd62');
+var part = new Buffer(6); assert.equal(part.write(s), 6); assert.equal(Buffer._charsWritten, 5);
+part = new Buffer(3); assert.equal(part.write('\u20ac\u20ac'), 3); assert.equal(Buffer._charsWritten, 1);
+assert.equal(new Buffer('h\u00e9', 'ascii').toString('hex'), '683f');
+assert.equal(new Buffer('h\u00e9\u0141', 'binary').toString('hex'), '68e941');
+assert.equal(Buffer.byteLength('0aFf', 'hex'), 2); assert.equal(new Buffer('0aFf', 'hex').toString('hex'), '0aff');
+assert.equal(new Buffer('74776f', 'hex').toString(), 'two');
+// Only ASCII hex digits, and bad ones throw a TypeError just like an odd length does
+assert.throws(function() { new Buffer('abc', 'hex'); }, TypeError);
+assert.throws(function() { new Buffer('0g', 'hex'); }, TypeError);
+assert.throws(function() { new Buffer('\u0661\u0662', 'hex'); }, TypeError);
+assert.throws(function() { new Buffer('\uff11\uff12', 'hex'); }, TypeError);
+assert.throws(function() { new Buffer(4).write('01 2', 'hex'); }, TypeError);
+assert.equal(Buffer.byteLength('aGVsbG8=', 'base64'), 5);
+assert.equal(new Buffer('aGVs bG8\n', 'base64').toString(), 'hello');
+assert.equal(new Buffer('-_8', 'base64').toString('hex'), 'fbff');
+assert.equal(new Buffer('hello').toString('base64'), 'aGVsbG8=');
+assert.equal(new Buffer('hell').toString('base64'), 'aGVsbA==');
+assert.equal(new Buffer('hel').toString('base64'), 'aGVs');
+var big = new Buffer(10000); for (var i = 0; i < big.length; i++) { big[i] = i * 7; }
+assert.equal(new Buffer(big.toString('base64'), 'base64').toString('hex'), big.toString('hex'));
+assert.equal(new Buffer('\u00e9t\u00e9', 'ucs2').toString('ucs2'), '\u00e9t\u00e9');
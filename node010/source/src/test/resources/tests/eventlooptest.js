@@ -0,0 +1,10 @@
+var assert = require('assert'); var net = require('net'); var done = 0;
+setTimeout(function() { done++; }, 10);
+process.nextTick(function() { setImmediate(function() { done++; }); });
+var server = net.createServer(function(s) { s.end('Hello'); });
+server.listen(0, function() {
+  var c = net.connect(server.address().port); var d = '';
+  c.on('data', function(x) { d += x; });
+  c.on('end', function() { assert.equal(d, 'Hello'); server.close(); done++; });
+});
+process.on('exit', function() { assert.equal(done, 3); });
@@ -0,0 +1,12 @@
+var http = require('http');
+var server = http.createServer(function(req, res) { res.end('Hello'); });
+server.listen(0, function() {
+  var done = 0;
+  function get() {
+    http.get({ port: server.address().port, path: '/', agent: false }, function(res) {
+      res.resume();
+      res.on('end', function() { if (++done < 3) { get(); } else { server.close(); } });
+    });
+  }
+  get();
+});
@@ -0,0 +1,12 @@
+// Buffers wrap Java ByteBuffers, and "toJava" returns a view whose position the caller may move freely
+var assert = require('assert'); var ByteBuffer = Java.type('java.nio.ByteBuffer');
+var JString = Java.type('java.lang.String');
+var bb = ByteBuffer.wrap(new JString('Hello, World!').getBytes('UTF-8'));
+var b = Buffer.fromJava(bb);
+assert(Buffer.isBuffer(b)); assert.equal(b.length, 13); assert.equal(b.toString(), 'Hello, World!');
+var s = b.slice(7, 12); assert.equal(s.toString(), 'World');
+var j = s.toJava(); assert.equal(j.position(), 0); assert.equal(j.remaining(), 5);
+j.position(3);
+assert.equal(s.toJava().position(), 0); assert.equal(s.toJava().remaining(), 5);
+var w = b.toJava(); w.position(13);
+assert.equal(b.toJava().remaining(), 13); assert.equal(b.toString(), 'Hello, World!');
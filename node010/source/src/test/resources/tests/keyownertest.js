@@ -0,0 +1,19 @@
+var assert = require('assert'); var net = require('net');
+// "rounds" is set by the test, so that scripts sharing a loop finish at different times
+var done = 0;
+function round() {
+  // Open a handle and close it again before the loop ever selects on it
+  var closed = net.createServer(); closed.listen(0); closed.close();
+  var server = net.createServer(function(s) { s.end('Hello'); });
+  server.listen(0, function() {
+    var c = net.connect(server.address().port); var d = '';
+    c.setEncoding('utf8');
+    c.on('data', function(x) { d += x; });
+    c.on('end', function() {
+      assert.equal(d, 'Hello'); server.close(); done++;
+      if (done < rounds) { setImmediate(round); }
+    });
+  });
+}
+round();
+process.on('exit', function() { assert.equal(done, rounds); });
@@ -0,0 +1,5 @@
+var n = 0;
+function next() { if (++n < 5) { setTimeout(next, 1); } }
+setTimeout(next, 1);
+setImmediate(function() {});
+setTimeout(function() {}, 500);
@@ -0,0 +1,21 @@
+// Many clients write at once, so each turn of the loop selects more sockets than the quantum allows
+var assert = require('assert'); var net = require('net');
+var CLIENTS = 8; var done = 0;
+var server = net.createServer(function(s) { s.pipe(s); });
+server.listen(0, function() {
+  for (var i = 0; i < CLIENTS; i++) {
+    (function(m) {
+      var c = net.connect(server.address().port, function() { c.write(m); });
+      c.setEncoding('utf8');
+      var received = '';
+      c.on('data', function(d) {
+        received += d;
+        if (received.length === m.length) {
+          assert.equal(received, m); c.end();
+          if (++done === CLIENTS) { server.close(); }
+        }
+      });
+    })('Client ' + i);
+  }
+});
+process.on('exit', function() { assert.equal(done, CLIENTS); });
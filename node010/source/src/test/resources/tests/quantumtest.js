@@ -0,0 +1,10 @@
+// Timers with the same duration share one Java timer, so use different ones, and let them all expire
+var assert = require('assert'); var B = Java.type('io.apigee.rowboat.test.EventLoopTest');
+var tasks = []; var timers = [];
+B.enqueueCallbacks(process.getRuntime(), function(i) { tasks.push(i); }, 10);
+for (var i = 0; i < 5; i++) { setTimeout(timers.push.bind(timers, i), i + 1); }
+var start = Date.now(); while (Date.now() - start < 20) {}
+process.on('exit', function() {
+  assert.deepEqual(tasks, [0, 1, 2, 3, 4, 5, 6, 7, 8, 9]);
+  assert.deepEqual(timers, [0, 1, 2, 3, 4]);
+});
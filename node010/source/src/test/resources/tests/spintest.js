@@ -0,0 +1,3 @@
+// Ignores the time limit and the interrupt until the test lets it go, so the watchdog has to give up on it
+var T = Java.type('io.apigee.rowboat.test.ScriptTimeLimitTest');
+while (!T.isReleased()) {}
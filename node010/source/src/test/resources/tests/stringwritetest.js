@@ -0,0 +1,22 @@
+// Strings written while the client isn't reading have to wait on the write queue
+var assert = require('assert'); var net = require('net');
+var line = ''; while (line.length < 6000) { line += 'Caf\u00e9 \u20ac '; }
+var expected = '';
+var server = net.createServer(function(s) {
+  s.cork(); s.write('a'); s.write('b', 'ascii'); s.write('Yw==', 'base64'); s.write('d'); s.uncork();
+  expected += 'abcd';
+  var called = 0;
+  for (var i = 0; i < 1000; i++) {
+    var m = i + ':' + line + '\n'; expected += m;
+    s.write(m, function(i) { assert.equal(called++, i); }.bind(null, i));
+  }
+  s.end(function() { assert.equal(called, 1000); });
+});
+server.listen(0, function() {
+  var c = net.connect(server.address().port); var chunks = [];
+  c.pause(); setTimeout(function() { c.resume(); }, 200);
+  c.on('data', function(d) { chunks.push(d); });
+  c.on('end', function() {
+    assert.equal(Buffer.concat(chunks).toString(), expected); server.close();
+  });
+});
@@ -0,0 +1,14 @@
+var assert = require('assert'); var timers = require('timers'); var order = [];
+setTimeout(function() { order.push(30); }, 30);
+setTimeout(function() { order.push(10); }, 10);
+setTimeout(function() { order.push(300); }, 300);
+var cleared = setTimeout(function() { order.push('cleared'); }, 20);
+clearTimeout(cleared);
+var ticks = 0; var iv = setInterval(function() { if (++ticks === 3) { clearInterval(iv); } }, 5);
+var idle = { fired: 0, _onTimeout: function() { idle.fired++; } };
+timers.enroll(idle, 50); timers.active(idle);
+var resets = 0; var r = setInterval(function() {
+  timers.active(idle); if (++resets === 5) { clearInterval(r); } }, 20);
+process.on('exit', function() {
+  assert.deepEqual(order, [10, 30, 300]); assert.equal(ticks, 3); assert.equal(idle.fired, 1);
+});
@@ -0,0 +1,23 @@
+var assert = require('assert'); var SlowBuffer = require('buffer').SlowBuffer;
+function check(buf) {
+  buf.fill(0, 0, buf.length);
+  buf.writeUInt16LE(0x1234, 1); assert.equal(buf[1], 0x34); assert.equal(buf[2], 0x12);
+  assert.equal(buf.readUInt16LE(1), 0x1234); assert.equal(buf.readUInt16BE(1), 0x3412);
+  buf.writeInt16BE(-2, 3); assert.equal(buf[3], 0xff); assert.equal(buf[4], 0xfe);
+  assert.equal(buf.readInt16BE(3), -2); assert.equal(buf.readUInt16BE(3), 0xfffe);
+  buf.writeUInt32BE(0xdeadbeef, 5); assert.equal(buf[5], 0xde); assert.equal(buf[8], 0xef);
+  assert.equal(buf.readUInt32BE(5), 0xdeadbeef); assert.equal(buf.readUInt32LE(5), 0xefbeadde);
+  assert.equal(buf.readInt32BE(5), -559038737);
+  buf.writeInt32LE(-2, 9); assert.equal(buf.readInt32LE(9), -2); assert.equal(buf.readUInt32LE(9), 0xfffffffe);
+  assert.equal(buf[9], 0xfe); assert.equal(buf[12], 0xff);
+  buf.writeFloatLE(1.5, 13); assert.equal(buf.readFloatLE(13), 1.5); assert.equal(buf[16], 0x3f);
+  buf.writeFloatBE(-0.25, 17); assert.equal(buf.readFloatBE(17), -0.25); assert.equal(buf[17], 0xbe);
+  buf.writeDoubleLE(1.0e100, 21); assert.equal(buf.readDoubleLE(21), 1.0e100);
+  buf.writeDoubleBE(Math.PI, 29); assert.equal(buf.readDoubleBE(29), Math.PI); assert.equal(buf[29], 0x40);
+  assert.throws(function() { buf.readUInt32LE(buf.length - 3); }, RangeError);
+  assert.throws(function() { buf.readDoubleBE(-1); }, RangeError);
+}
+check(new Buffer(100).slice(7, 47));
+check(new SlowBuffer(40));
+var outer = new Buffer(50); outer.fill(0xaa); outer.slice(10, 20).writeUInt32LE(0, 6);
+assert.equal(outer.readUInt32LE(16), 0); assert.equal(outer[15], 0xaa); assert.equal(outer[20], 0xaa);
@@ -0,0 +1,20 @@
+// Write callbacks must come after write returns, and in order
+var assert = require('assert'); var net = require('net');
+var server = net.createServer(function(s) {
+  var received = 0;
+  s.on('data', function(d) { received += d.length; });
+  s.on('end', function() { assert.equal(received, 20 * 10); server.close(); });
+});
+server.listen(0, function() {
+  var c = net.connect(server.address().port, function() {
+    var written = []; var returned = false;
+    for (var i = 0; i < 20; i++) {
+      c.write('0123456789', function(i) { assert(returned); written.push(i); }.bind(null, i));
+    }
+    returned = true;
+    c.end();
+    process.on('exit', function() {
+      assert.deepEqual(written, [0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19]);
+    });
+  });
+});
@@ -0,0 +1,57 @@
+// Corked writes, including strings, go out together in order, and each callback is called once
+var assert = require('assert'); var net = require('net'); var http = require('http');
+var body = new Buffer(200000); body.fill(0x62);
+var hs = http.createServer(function(req, res) {
+  if (req.url === '/chunked') { res.write(new Buffer('abc')); res.write('def'); res.end(new Buffer('ghi')); }
+  else { res.writeHead(200, { 'Content-Length': body.length }); res.end(body); }
+});
+function get(path, cb) {
+  http.get({ port: hs.address().port, path: path }, function(res) {
+    var chunks = []; res.on('data', function(d) { chunks.push(d); });
+    res.on('end', function() { cb(res, Buffer.concat(chunks)); });
+  });
+}
+var server = net.createServer(function(s) {
+  var called = 0; function done() { called++; }
+  s.cork(); s.write('one,', done); s.write(new Buffer('two,'), done);
+  s.write('thr\u00e9e,', 'utf8', done); s.write('74776f', 'hex', done);
+  s.uncork(); s.end('!', function() { assert.equal(called, 4); });
+});
+server.listen(0, function() {
+  var c = net.connect(server.address().port); var chunks = [];
+  c.on('data', function(d) { chunks.push(d); });
+  c.on('end', function() {
+    assert.equal(Buffer.concat(chunks).toString(), 'one,two,thr\u00e9e,two!'); server.close();
+    hs.listen(0, function() {
+      get('/', function(res, b) {
+        assert.equal(b.length, body.length); assert.equal(b[b.length - 1], 0x62);
+        get('/chunked', function(res, b) {
+          assert.equal(res.headers['transfer-encoding'], 'chunked');
+          assert.equal(b.toString(), 'abcdefghi'); hs.close();
+        });
+      });
+    });
+  });
+});
+
+// Handles without "writev" complete once, after the last of their writes, with the first error
+var Stream = process.binding('stream_wrap').Stream;
+var EIO = Java.type('io.apigee.trireme.kernel.ErrorCodes').EIO;
+var pending = [];
+var queued = new Stream({ write: function(b, cb) { pending.push(cb); return b.remaining(); } });
+var req = queued.writev([new Buffer('ab'), new Buffer('cde'), new Buffer('f')]);
+assert.equal(req.bytes, 6); assert.equal(queued.bytes, 6);
+var errors = [];
+req.oncomplete = function(err, h, r) { errors.push(err); assert.equal(r.bytes, 3); };
+pending[0](0); pending[1](EIO);
+setImmediate(function() {
+  assert.deepEqual(errors, []);
+  pending[2](0);
+  setImmediate(function() { assert.deepEqual(errors, ['EIO']); assert.equal(queued.bytes, 3); });
+});
+var sync = new Stream({ write: function(b, cb) { cb(0); return b.remaining(); } });
+var syncDone = 0; var emptyDone = 0;
+var syncReq = sync.writev([new Buffer('ab'), new Buffer('c')]);
+syncReq.oncomplete = function(err, h, r) { assert(!err); assert.equal(r.bytes, 3); syncDone++; };
+sync.writev([]).oncomplete = function(err, h, r) { assert(!err); assert.equal(r.bytes, 0); emptyDone++; };
+process.on('exit', function() { assert.equal(syncDone, 1); assert.equal(emptyDone, 1); });